@@ -0,0 +1,69 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.Person;
+import com.test.rest.UsAddress;
+import com.test.rest.csv.CsvMapperConfig;
+import com.test.rest.csv.CsvObjectMapperProvider;
+import java.io.OutputStream;
+
+/**
+ * Rows and configurations shared by the benchmarks.
+ *
+ * @author sergey
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * People like the ones of the registry resource, every tenth without
+     * an address.
+     */
+    static Person[] people(int count) {
+        Person[] people = new Person[count];
+        for(int i = 0; i < count; i++) {
+            UsAddress address = (i % 10 == 0) ? null :
+                    new UsAddress(i + " Main str", "San Francisco", "CA", String.format("%05d", 90000 + i % 100));
+            people[i] = new Person("First" + i, "Last \"" + i + "\"", 20 + i % 50, address);
+        }
+        return people;
+    }
+
+    /**
+     * Configuration of the {@link CsvObjectMapperProvider}, with the same
+     * mappings the resources are served with.
+     */
+    static CsvMapperConfig providerConfig() {
+        return new ConfiguredProvider().getConfig();
+    }
+
+    /**
+     * The provider initialized as by the container.
+     */
+    static class ConfiguredProvider extends CsvObjectMapperProvider {
+        ConfiguredProvider() {
+            initialize();
+        }
+    }
+
+    /**
+     * Discards the output, counting the bytes.
+     */
+    static final class CountingOutputStream extends OutputStream {
+        private long _count;
+
+        @Override
+        public void write(int b) {
+            _count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            _count += length;
+        }
+
+        long getCount() {
+            return _count;
+        }
+    }
+}
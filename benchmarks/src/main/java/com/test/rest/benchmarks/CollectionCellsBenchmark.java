@@ -0,0 +1,39 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.csv.CsvMapperConfig;
+import com.test.rest.csv.PojoAttributeMapping;
+import java.util.Arrays;
+
+/**
+ * Rows with a list and an array property, each written into a single
+ * cell as comma separated values.
+ *
+ * @author sergey
+ */
+public class CollectionCellsBenchmark extends SerializerBenchmark {
+
+    @Override
+    protected CsvMapperConfig createConfig() {
+        PojoAttributeMapping taggedAttributeMapping = new PojoAttributeMapping();
+        taggedAttributeMapping.add("Name", "name");
+        taggedAttributeMapping.add("Tags", "tags");
+        taggedAttributeMapping.add("Scores", "scores");
+
+        CsvMapperConfig config = new CsvMapperConfig();
+        config.setWriteHeaders(true);
+        config.setAttributeMapping(TaggedBean.class, taggedAttributeMapping);
+        config.setPojoClasses(TaggedBean.class);
+        return config;
+    }
+
+    @Override
+    protected Object createRows(int count) {
+        TaggedBean[] rows = new TaggedBean[count];
+        for(int i = 0; i < count; i++) {
+            rows[i] = new TaggedBean("Book" + i,
+                    Arrays.asList("978" + i, "fiction", "paperback", "used"),
+                    new int[] {i % 5, i % 7, i % 11});
+        }
+        return rows;
+    }
+}
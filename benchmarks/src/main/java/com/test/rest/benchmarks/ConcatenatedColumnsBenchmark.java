@@ -0,0 +1,38 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.Person;
+import com.test.rest.UsAddress;
+import com.test.rest.csv.CsvMapperConfig;
+import com.test.rest.csv.PojoAttributeMapping;
+import com.test.rest.csv.PojoCsvAttribute;
+
+/**
+ * {@code Person} rows with the whole address in a single column, combined
+ * from several getters and fixed texts.
+ *
+ * @author sergey
+ */
+public class ConcatenatedColumnsBenchmark extends SerializerBenchmark {
+
+    @Override
+    protected CsvMapperConfig createConfig() {
+        PojoAttributeMapping addrAttributeMapping = new PojoAttributeMapping();
+        addrAttributeMapping.add("Address", "street", ", ", "city", ", ", "state", " ", "zip");
+
+        PojoAttributeMapping personAttributeMapping = new PojoAttributeMapping();
+        personAttributeMapping.add("Name", "firstName", " ", "lastName");
+        personAttributeMapping.add("Age", "age");
+        personAttributeMapping.add(new PojoCsvAttribute("address", addrAttributeMapping));
+
+        CsvMapperConfig config = new CsvMapperConfig();
+        config.setWriteHeaders(true);
+        config.setAttributeMapping(Person.class, personAttributeMapping);
+        config.setPojoClasses(Person.class, UsAddress.class);
+        return config;
+    }
+
+    @Override
+    protected Object createRows(int count) {
+        return BenchmarkData.people(count);
+    }
+}
@@ -0,0 +1,93 @@
+package com.test.rest.benchmarks;
+
+/**
+ * Bean nested {@link #LEVELS} levels deep, every level with a number, a
+ * text and a reference back to the row (a cycle left out by the mapping), and
+ * the {@link Flat} bean with the same columns on a single level. See
+ * {@link DeepBeanBenchmark}.
+ *
+ * @author sergey
+ */
+public class DeepBean {
+    public static final int LEVELS = 6;
+
+    private final int _seed;
+    private final Level1 _level;
+
+    public DeepBean(int seed) {
+        _seed = seed;
+        _level = new Level1(this);
+    }
+
+    public int getValue() { return _seed; }
+    public String getName() { return "level0-" + (_seed % 10); }
+    public Level1 getLevel() { return _level; }
+
+    public static class Level1 {
+        private final DeepBean _row;
+        private final Level2 _level;
+        Level1(DeepBean row) { _row = row; _level = new Level2(row); }
+        public int getValue() { return _row._seed + 1; }
+        public String getName() { return "level1"; }
+        public DeepBean getRow() { return _row; }
+        public Level2 getLevel() { return _level; }
+    }
+
+    public static class Level2 {
+        private final DeepBean _row;
+        private final Level3 _level;
+        Level2(DeepBean row) { _row = row; _level = new Level3(row); }
+        public int getValue() { return _row._seed + 2; }
+        public String getName() { return "level2"; }
+        public DeepBean getRow() { return _row; }
+        public Level3 getLevel() { return _level; }
+    }
+
+    public static class Level3 {
+        private final DeepBean _row;
+        private final Level4 _level;
+        Level3(DeepBean row) { _row = row; _level = new Level4(row); }
+        public int getValue() { return _row._seed + 3; }
+        public String getName() { return "level3"; }
+        public DeepBean getRow() { return _row; }
+        public Level4 getLevel() { return _level; }
+    }
+
+    public static class Level4 {
+        private final DeepBean _row;
+        private final Level5 _level;
+        Level4(DeepBean row) { _row = row; _level = new Level5(row); }
+        public int getValue() { return _row._seed + 4; }
+        public String getName() { return "level4"; }
+        public DeepBean getRow() { return _row; }
+        public Level5 getLevel() { return _level; }
+    }
+
+    public static class Level5 {
+        private final DeepBean _row;
+        Level5(DeepBean row) { _row = row; }
+        public int getValue() { return _row._seed + 5; }
+        public String getName() { return "level5"; }
+        public DeepBean getRow() { return _row; }
+    }
+
+    /**
+     * The numbers and the texts of all the levels as properties of the row.
+     */
+    public static class Flat {
+        private final int _seed;
+        public Flat(int seed) { _seed = seed; }
+        public int getValue0() { return _seed; }
+        public String getName0() { return "level0-" + (_seed % 10); }
+        public int getValue1() { return _seed + 1; }
+        public String getName1() { return "level1"; }
+        public int getValue2() { return _seed + 2; }
+        public String getName2() { return "level2"; }
+        public int getValue3() { return _seed + 3; }
+        public String getName3() { return "level3"; }
+        public int getValue4() { return _seed + 4; }
+        public String getName4() { return "level4"; }
+        public int getValue5() { return _seed + 5; }
+        public String getName5() { return "level5"; }
+    }
+}
@@ -0,0 +1,35 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.csv.CsvMapperConfig;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * {@link DeepBean} rows discovered with {@code pojoDefault=true}, nested
+ * {@link DeepBean#LEVELS} levels deep with a cycle on every level, against
+ * the same columns of the flat bean. The deep rows are flattened once per
+ * class, so they should be written about as fast as the flat ones.
+ *
+ * @author sergey
+ */
+public class DeepBeanBenchmark extends SerializerBenchmark {
+
+    @Param({"deep", "flat"})
+    public String shape;
+
+    @Override
+    protected CsvMapperConfig createConfig() {
+        CsvMapperConfig config = new CsvMapperConfig();
+        config.setWriteHeaders(true);
+        config.setPojoDefault(true);
+        return config;
+    }
+
+    @Override
+    protected Object createRows(int count) {
+        Object[] rows = new Object[count];
+        for(int i = 0; i < count; i++) {
+            rows[i] = "flat".equals(shape) ? new DeepBean.Flat(i) : new DeepBean(i);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,28 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.csv.CsvDialect;
+import com.test.rest.csv.PojoToCsvSerializer;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * {@link WideBean} rows written in the {@link CsvDialect}s: the default one
+ * quotes every text value, {@code rfc4180} scans the values to quote only
+ * the ones that need it and {@code tsv} never quotes, the values are only
+ * escaped as they are encoded.
+ *
+ * @author sergey
+ */
+public class DialectBenchmark extends WideBeanBenchmark {
+
+    @Param({"csv", "rfc4180", "tsv"})
+    public String dialect;
+
+    @Override
+    protected void configure(PojoToCsvSerializer serializer) {
+        if( "rfc4180".equals(dialect) ) {
+            serializer.setDialect(CsvDialect.RFC4180);
+        } else if( "tsv".equals(dialect) ) {
+            serializer.setDialect(CsvDialect.TSV);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.Person;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import org.eclipse.persistence.jaxb.rs.MOXyJsonProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Baseline: the same {@code Person[]} as {@link NestedMappingBenchmark} and
+ * {@link ProviderBenchmark}, written as JSON by MOXy, the provider Jersey
+ * uses for {@code application/json}.
+ *
+ * @author sergey
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MoxyJsonBaselineBenchmark {
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    private MOXyJsonProvider _provider;
+    private Person[] _rows;
+    private BenchmarkData.CountingOutputStream _out;
+
+    @Setup
+    public void setUp() {
+        _provider = new MOXyJsonProvider();
+        _rows = BenchmarkData.people(SerializerBenchmark.ROWS);
+        _out = new BenchmarkData.CountingOutputStream();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SerializerBenchmark.ROWS)
+    public long writeTo() throws IOException {
+        _provider.writeTo(_rows, Person[].class, Person[].class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+                new MultivaluedHashMap<String, Object>(), _out);
+        return _out.getCount();
+    }
+}
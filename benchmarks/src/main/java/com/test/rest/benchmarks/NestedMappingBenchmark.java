@@ -0,0 +1,22 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.csv.CsvMapperConfig;
+
+/**
+ * {@code Person} rows with the nested {@code UsAddress} mapping of the
+ * provider.
+ *
+ * @author sergey
+ */
+public class NestedMappingBenchmark extends SerializerBenchmark {
+
+    @Override
+    protected CsvMapperConfig createConfig() {
+        return BenchmarkData.providerConfig();
+    }
+
+    @Override
+    protected Object createRows(int count) {
+        return BenchmarkData.people(count);
+    }
+}
@@ -0,0 +1,25 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.csv.CsvMapperConfig;
+
+/**
+ * {@code Person} rows without explicit mappings, the columns are discovered
+ * from the getters ({@code pojoDefault=true}).
+ *
+ * @author sergey
+ */
+public class PojoDefaultBenchmark extends SerializerBenchmark {
+
+    @Override
+    protected CsvMapperConfig createConfig() {
+        CsvMapperConfig config = new CsvMapperConfig();
+        config.setWriteHeaders(true);
+        config.setPojoDefault(true);
+        return config;
+    }
+
+    @Override
+    protected Object createRows(int count) {
+        return BenchmarkData.people(count);
+    }
+}
@@ -0,0 +1,25 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.csv.CsvBufferPool;
+import com.test.rest.csv.PojoToCsvSerializer;
+
+/**
+ * <p>
+ * The rows of the {@link PrimitiveRowsBenchmark} with the output buffer
+ * taken from a {@link CsvBufferPool}, as the provider does. The encoding
+ * then allocates nothing at all: with {@code -prof gc} the
+ * {@code gc.alloc.rate.norm} is only the size of
+ * {@link PrimitiveBean#getRatings()}, compare it with the
+ * {@link PrimitiveRowsBenchmark} that allocates the buffer per
+ * serialization.
+ * </p>
+ *
+ * @author sergey
+ */
+public class PooledBuffersBenchmark extends PrimitiveRowsBenchmark {
+
+    @Override
+    protected void configure(PojoToCsvSerializer serializer) {
+        serializer.setBufferPool(new CsvBufferPool(serializer.getBufferSize(), CsvBufferPool.DEFAULT_MAX_POOLED_BUFFERS));
+    }
+}
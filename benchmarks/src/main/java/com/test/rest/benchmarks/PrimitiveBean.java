@@ -0,0 +1,21 @@
+package com.test.rest.benchmarks;
+
+/**
+ * Bean of primitive properties only, see {@link PrimitiveRowsBenchmark}.
+ *
+ * @author sergey
+ */
+public class PrimitiveBean {
+    private final int _seed;
+
+    public PrimitiveBean(int seed) {
+        _seed = seed;
+    }
+
+    public int getId() { return _seed; }
+    public long getIsbn() { return 9780000000000L + _seed * 7919L; }
+    public short getPages() { return (short)(100 + _seed % 900); }
+    public double getWeight() { return _seed % 1000; }
+    public boolean isAvailable() { return (_seed & 1) == 0; }
+    public int[] getRatings() { return new int[] {_seed % 5, _seed % 3}; }
+}
@@ -0,0 +1,48 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.csv.CsvMapperConfig;
+import com.test.rest.csv.PojoAttributeMapping;
+
+/**
+ * <p>
+ * Rows of numbers and booleans only. The compiled row plans read the
+ * primitive properties unboxed and write their digits straight into the
+ * output buffer, so besides the arrays returned by the bean the rows
+ * allocate nothing: with {@code -prof gc} the {@code gc.alloc.rate.norm}
+ * is the size of {@link PrimitiveBean#getRatings()} plus the buffer of the
+ * serialization divided by the {@link #ROWS}.
+ * </p><p>
+ * Doubles are written digit by digit only if they are whole numbers below
+ * 10<sup>7</sup>, others are still formatted by {@code Double.toString}.
+ * </p>
+ *
+ * @author sergey
+ */
+public class PrimitiveRowsBenchmark extends SerializerBenchmark {
+
+    @Override
+    protected CsvMapperConfig createConfig() {
+        PojoAttributeMapping primitiveAttributeMapping = new PojoAttributeMapping();
+        primitiveAttributeMapping.add("Id", "id");
+        primitiveAttributeMapping.add("ISBN", "isbn");
+        primitiveAttributeMapping.add("Pages", "pages");
+        primitiveAttributeMapping.add("Weight", "weight");
+        primitiveAttributeMapping.add("Available", "available");
+        primitiveAttributeMapping.add("Ratings", "ratings");
+
+        CsvMapperConfig config = new CsvMapperConfig();
+        config.setWriteHeaders(true);
+        config.setAttributeMapping(PrimitiveBean.class, primitiveAttributeMapping);
+        config.setPojoClasses(PrimitiveBean.class);
+        return config;
+    }
+
+    @Override
+    protected Object createRows(int count) {
+        PrimitiveBean[] rows = new PrimitiveBean[count];
+        for(int i = 0; i < count; i++) {
+            rows[i] = new PrimitiveBean(i);
+        }
+        return rows;
+    }
+}
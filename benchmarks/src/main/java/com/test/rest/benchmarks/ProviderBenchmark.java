@@ -0,0 +1,66 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.Person;
+import com.test.rest.csv.CsvObjectMapperProvider;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * {@link CsvObjectMapperProvider#writeTo} of {@code Person[]}, the way Jersey
+ * calls it for the registry resource, without compression.
+ * </p><p>
+ * An operation is a single row, see {@link SerializerBenchmark}.
+ * </p>
+ *
+ * @author sergey
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProviderBenchmark {
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    @Param({CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.APPLICATION_EXCEL})
+    public String mediaType;
+
+    private CsvObjectMapperProvider _provider;
+    private MediaType _mediaType;
+    private Person[] _rows;
+    private BenchmarkData.CountingOutputStream _out;
+
+    @Setup
+    public void setUp() {
+        _provider = new BenchmarkData.ConfiguredProvider();
+        _provider.setCompression(null); // negotiated from the request headers, there is no request
+        _mediaType = MediaType.valueOf(mediaType);
+        _rows = BenchmarkData.people(SerializerBenchmark.ROWS);
+        _out = new BenchmarkData.CountingOutputStream();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SerializerBenchmark.ROWS)
+    public long writeTo() throws IOException {
+        _provider.writeTo(_rows, Person[].class, Person[].class, NO_ANNOTATIONS, _mediaType,
+                new MultivaluedHashMap<String, Object>(), _out);
+        return _out.getCount();
+    }
+}
@@ -0,0 +1,83 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.csv.CsvMapperConfig;
+import com.test.rest.csv.PojoToCsvSerializer;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Base of the {@link PojoToCsvSerializer#serialize} benchmarks: serializes
+ * {@link #ROWS} rows of a shape defined by the subclass, in both CSV and
+ * Excel flavors.
+ * </p><p>
+ * An operation is a single row, so the throughput is in rows per second and
+ * with {@code -prof gc} the {@code gc.alloc.rate.norm} is in bytes
+ * allocated per row.
+ * </p>
+ *
+ * @author sergey
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class SerializerBenchmark {
+    public static final int ROWS = 1000;
+
+    @Param({"csv", "excel"})
+    public String flavor;
+
+    private PojoToCsvSerializer _serializer;
+    private Object _rows;
+    private BenchmarkData.CountingOutputStream _out;
+
+    @Setup
+    public void setUp() {
+        _serializer = new PojoToCsvSerializer(createConfig());
+        _serializer.setImproveFormattingForExcel("excel".equals(flavor));
+        configure(_serializer);
+        _rows = createRows(ROWS);
+        _out = new BenchmarkData.CountingOutputStream();
+    }
+
+    /**
+     * @return   configuration with the mappings of the rows
+     */
+    protected abstract CsvMapperConfig createConfig();
+
+    /**
+     * Sets the serializer up beyond the flavor, nothing by default.
+     *
+     * @param serializer  the serializer
+     */
+    protected void configure(PojoToCsvSerializer serializer) {
+    }
+
+    /**
+     * @param count  number of the rows
+     * @return   the entity to serialize
+     */
+    protected abstract Object createRows(int count);
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long serialize() throws IOException {
+        _serializer.serialize(_rows, _out);
+        return _out.getCount();
+    }
+}
@@ -0,0 +1,32 @@
+package com.test.rest.benchmarks;
+
+import java.util.List;
+
+/**
+ * Bean with collection properties, written into single cells.
+ *
+ * @author sergey
+ */
+public class TaggedBean {
+    private final String _name;
+    private final List<String> _tags;
+    private final int[] _scores;
+
+    public TaggedBean(String name, List<String> tags, int[] scores) {
+        _name = name;
+        _tags = tags;
+        _scores = scores;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public List<String> getTags() {
+        return _tags;
+    }
+
+    public int[] getScores() {
+        return _scores;
+    }
+}
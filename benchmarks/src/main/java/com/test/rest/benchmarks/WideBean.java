@@ -0,0 +1,38 @@
+package com.test.rest.benchmarks;
+
+/**
+ * Bean of 20 properties of the common types, {@link WideBeanBenchmark}
+ * maps each of them to 5 columns.
+ *
+ * @author sergey
+ */
+public class WideBean {
+    public static final int PROPERTY_COUNT = 20;
+
+    private final int _seed;
+
+    public WideBean(int seed) {
+        _seed = seed;
+    }
+
+    public String getP0() { return "text" + _seed; }
+    public int getP1() { return _seed; }
+    public long getP2() { return _seed * 1000003L; }
+    public double getP3() { return _seed / 7.0; }
+    public boolean isP4() { return (_seed & 1) == 0; }
+    public String getP5() { return "0" + _seed; }
+    public Integer getP6() { return _seed % 3 == 0 ? null : Integer.valueOf(_seed); }
+    public String getP7() { return "a, \"quoted\" value"; }
+    public long getP8() { return Long.MAX_VALUE - _seed; }
+    public String getP9() { return ""; }
+    public String getP10() { return "San Francisco"; }
+    public int getP11() { return -_seed; }
+    public double getP12() { return _seed * 0.01; }
+    public String getP13() { return "CA"; }
+    public boolean isP14() { return _seed % 5 == 0; }
+    public String getP15() { return "9000" + (_seed % 10); }
+    public Long getP16() { return Long.valueOf(_seed); }
+    public String getP17() { return "the quick brown fox jumps over the lazy dog"; }
+    public int getP18() { return _seed % 100; }
+    public String getP19() { return null; }
+}
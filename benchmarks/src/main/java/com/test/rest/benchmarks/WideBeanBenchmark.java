@@ -0,0 +1,36 @@
+package com.test.rest.benchmarks;
+
+import com.test.rest.csv.CsvMapperConfig;
+import com.test.rest.csv.PojoAttributeMapping;
+
+/**
+ * Wide rows: 100 columns, every {@link WideBean} property mapped to 5 of them.
+ *
+ * @author sergey
+ */
+public class WideBeanBenchmark extends SerializerBenchmark {
+    public static final int COLUMNS = 100;
+
+    @Override
+    protected CsvMapperConfig createConfig() {
+        PojoAttributeMapping wideAttributeMapping = new PojoAttributeMapping();
+        for(int i = 0; i < COLUMNS; i++) {
+            wideAttributeMapping.add("Column" + i, "p" + (i % WideBean.PROPERTY_COUNT));
+        }
+
+        CsvMapperConfig config = new CsvMapperConfig();
+        config.setWriteHeaders(true);
+        config.setAttributeMapping(WideBean.class, wideAttributeMapping);
+        config.setPojoClasses(WideBean.class);
+        return config;
+    }
+
+    @Override
+    protected Object createRows(int count) {
+        WideBean[] rows = new WideBean[count];
+        for(int i = 0; i < count; i++) {
+            rows[i] = new WideBean(i);
+        }
+        return rows;
+    }
+}
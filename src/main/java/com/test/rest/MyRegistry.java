@@ -1,10 +1,25 @@
 package com.test.rest;
 
 import com.test.rest.csv.CsvObjectMapperProvider;
+import com.test.rest.csv.VersionedCsvEntity;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
 
 
 /**
@@ -15,7 +30,7 @@ import javax.ws.rs.core.MediaType;
 public class MyRegistry {
     @GET
     @Path("/")
-    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.APPLICATION_EXCEL})
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.TEXT_TSV, CsvObjectMapperProvider.APPLICATION_EXCEL, CsvObjectMapperProvider.APPLICATION_XLSX})
     public Person[] all() {
         Person[] registry = {
                 new Person("Bob", "Homeless", 60, null),
@@ -25,4 +40,98 @@ public class MyRegistry {
         
         return registry;
     }
-}
\ No newline at end of file
+
+    /**
+     * Generated registry of any size, the people are created while the CSV
+     * is written, so they are never all in memory.
+     */
+    @GET
+    @Path("/stream")
+    @Produces({CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.TEXT_TSV, CsvObjectMapperProvider.APPLICATION_EXCEL, CsvObjectMapperProvider.APPLICATION_XLSX})
+    public Stream<Person> stream(@QueryParam("count") @DefaultValue("1000") int count) {
+        // no lambdas - Jersey package scanning can't read invokedynamic
+        return IntStream.range(0, count).mapToObj(new IntFunction<Person>() {
+            @Override
+            public Person apply(int i) {
+                return new Person("First" + i, "Last" + i, 20 + i % 50,
+                        new UsAddress(i + " Main str", "San Francisco", "CA", String.format("%05d", 90000 + i % 100)));
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #stream(int)}, but the generated registry never changes
+     * for the count, so the encoded CSV is cached and clients that already
+     * have it get 304 Not Modified.
+     */
+    @GET
+    @Path("/cached")
+    @Produces({CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.TEXT_TSV, CsvObjectMapperProvider.APPLICATION_EXCEL, CsvObjectMapperProvider.APPLICATION_XLSX})
+    public VersionedCsvEntity cached(@QueryParam("count") @DefaultValue("1000") int count) {
+        return new VersionedCsvEntity(stream(count), "people-" + count);
+    }
+
+    /**
+     * Same as {@link #stream(int)}, but written asynchronously, the request
+     * thread is not blocked while a slow client downloads the file.
+     */
+    @GET
+    @Path("/async")
+    @Produces({CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.TEXT_TSV, CsvObjectMapperProvider.APPLICATION_EXCEL, CsvObjectMapperProvider.APPLICATION_XLSX})
+    public Response async(@QueryParam("count") @DefaultValue("1000") int count,
+            @Context HttpHeaders headers, @Context Providers providers) {
+        MediaType mediaType = getMediaType(headers);
+        MessageBodyWriter<Object> csvWriter = providers.getMessageBodyWriter(Object.class, Object.class, null, mediaType);
+        return ((CsvObjectMapperProvider)csvWriter).writeAsync(stream(count), mediaType);
+    }
+
+    /**
+     * Same as {@link #stream(int)}, but rendered into a file in the
+     * background: responds with 202 Accepted and the job to be polled at
+     * {@code /csv-jobs/{id}}, the file is downloaded from
+     * {@code /csv-jobs/{id}/download} when the job is done.
+     */
+    @POST
+    @Path("/export")
+    @Produces({CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.TEXT_TSV, CsvObjectMapperProvider.APPLICATION_EXCEL, CsvObjectMapperProvider.APPLICATION_XLSX})
+    public Response export(@QueryParam("count") @DefaultValue("1000") int count,
+            @Context HttpHeaders headers, @Context Providers providers) throws IOException {
+        MediaType mediaType = getMediaType(headers);
+        MessageBodyWriter<Object> csvWriter = providers.getMessageBodyWriter(Object.class, Object.class, null, mediaType);
+        return ((CsvObjectMapperProvider)csvWriter).submitExport(stream(count), mediaType);
+    }
+
+    private static MediaType getMediaType(HttpHeaders headers) {
+        for(MediaType acceptable : headers.getAcceptableMediaTypes()) {
+            if( acceptable.isCompatible(MediaType.valueOf(CsvObjectMapperProvider.APPLICATION_EXCEL)) && !acceptable.isWildcardType() ) {
+                return MediaType.valueOf(CsvObjectMapperProvider.APPLICATION_EXCEL);
+            }
+            if( acceptable.isCompatible(MediaType.valueOf(CsvObjectMapperProvider.APPLICATION_XLSX)) && !acceptable.isWildcardType() ) {
+                return MediaType.valueOf(CsvObjectMapperProvider.APPLICATION_XLSX);
+            }
+            if( acceptable.isCompatible(MediaType.valueOf(CsvObjectMapperProvider.TEXT_TSV)) && !acceptable.isWildcardSubtype() ) {
+                return MediaType.valueOf(CsvObjectMapperProvider.TEXT_TSV);
+            }
+        }
+        return MediaType.valueOf(CsvObjectMapperProvider.TEXT_CSV);
+    }
+
+    /**
+     * Uploads people as CSV. The rows are read one by one while they are
+     * iterated, so the upload can be of any size.
+     */
+    @POST
+    @Path("/upload")
+    @Consumes({CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.APPLICATION_EXCEL})
+    @Produces(MediaType.TEXT_PLAIN)
+    public String upload(Iterator<Person> people) {
+        int count = 0;
+        long totalAge = 0;
+        while( people.hasNext() ) {
+            Person person = people.next();
+            count++;
+            totalAge += person.getAge();
+        }
+        return count + " people, average age " + (count == 0 ? 0 : totalAge / count) + "\n";
+    }
+}
@@ -3,6 +3,7 @@ package com.test.rest.csv;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
 import javax.ws.rs.container.PreMatching;
@@ -19,6 +20,18 @@ import javax.ws.rs.ext.Provider;
  * Converts format query or extension of known types to appropriate
  * Accept HTTP header, which will be used by Jersey to choose the 
  * output mime type (thus format and MessageBodyWriter implementation).
+ * </p><p>
+ * The columns query parameter (comma separated header names) is stored as
+ * the {@link CsvProjection} request property, for the CSV provider to
+ * write only those columns. Similarly the offset and limit query parameters,
+ * or the {@code Range: rows=first-last} header, are stored as the
+ * {@link CsvRowRange} request property. Invalid offset or limit is stored
+ * as its {@code IllegalArgumentException}, the CSV provider responds to it
+ * with 400 Bad Request, the responses of the other providers ignore it.
+ * </p><p>
+ * The dialect query parameter (name of one of the {@link CsvDialect}s of
+ * {@link #getDialects()}) is stored as the {@link CsvDialect} request
+ * property, an unknown dialect is rejected with 400 Bad Request.
  * </p>
  * 
  * @author sergey
@@ -28,14 +41,26 @@ import javax.ws.rs.ext.Provider;
 public class AcceptsMimeTypeSetterFilter implements ContainerRequestFilter {
 
     private final String _formatParameterName = "format";
+    private final String _columnsParameterName = "columns";
+    private final String _offsetParameterName = "offset";
+    private final String _limitParameterName = "limit";
+    private final String _dialectParameterName = "dialect";
     private Map<String, String> _formatToMimeMap;
+    private Map<String, CsvDialect> _dialects;
 
     public AcceptsMimeTypeSetterFilter() {
         _formatToMimeMap = new HashMap<String, String>();
         _formatToMimeMap.put("csv", CsvObjectMapperProvider.TEXT_CSV);
+        _formatToMimeMap.put("tsv", CsvObjectMapperProvider.TEXT_TSV);
         _formatToMimeMap.put("xls", CsvObjectMapperProvider.APPLICATION_EXCEL);
+        _formatToMimeMap.put("xlsx", CsvObjectMapperProvider.APPLICATION_XLSX);
         _formatToMimeMap.put("json", MediaType.APPLICATION_JSON);
         _formatToMimeMap.put("xml", MediaType.APPLICATION_XML);
+
+        _dialects = new HashMap<String, CsvDialect>();
+        for(CsvDialect dialect : new CsvDialect[] {CsvDialect.DEFAULT, CsvDialect.RFC4180, CsvDialect.PIPE, CsvDialect.TSV}) {
+            _dialects.put(dialect.getName(), dialect);
+        }
     }
 
     public Map<String, String> getFormatToMimeMap() {
@@ -46,6 +71,20 @@ public class AcceptsMimeTypeSetterFilter implements ContainerRequestFilter {
         _formatToMimeMap = formatToMimeMap;
     }
 
+    public Map<String, CsvDialect> getDialects() {
+        return _dialects;
+    }
+
+    /**
+     * Sets the dialects the clients can request by their names, the
+     * built-in ones by default.
+     *
+     * @param dialects   the dialects by their names
+     */
+    public void setDialects(Map<String, CsvDialect> dialects) {
+        _dialects = dialects;
+    }
+
     private String getExtension(String path) {
         String result = null;
 
@@ -69,6 +108,34 @@ public class AcceptsMimeTypeSetterFilter implements ContainerRequestFilter {
         UriInfo uriInfo = crc.getUriInfo();
         String formatRequested = uriInfo.getQueryParameters().getFirst(_formatParameterName);
 
+        CsvProjection projection = CsvProjection.parse(uriInfo.getQueryParameters().getFirst(_columnsParameterName));
+        if( projection != null ) {
+            crc.setProperty(CsvProjection.PROPERTY_NAME, projection);
+        }
+
+        Object rowRange;
+        try {
+            rowRange = CsvRowRange.parse(uriInfo.getQueryParameters().getFirst(_offsetParameterName),
+                    uriInfo.getQueryParameters().getFirst(_limitParameterName));
+        } catch (IllegalArgumentException e) { // rejected by the CSV provider, the other responses ignore it
+            rowRange = e;
+        }
+        if( rowRange == null ) {
+            rowRange = CsvRowRange.parseRangeHeader(crc.getHeaderString(CsvRowRange.RANGE));
+        }
+        if( rowRange != null ) {
+            crc.setProperty(CsvRowRange.PROPERTY_NAME, rowRange);
+        }
+
+        final String dialectRequested = uriInfo.getQueryParameters().getFirst(_dialectParameterName);
+        if( dialectRequested != null ) {
+            final CsvDialect dialect = _dialects.get(dialectRequested);
+            if( dialect == null ) {
+                throw new BadRequestException("Unknown dialect " + dialectRequested);
+            }
+            crc.setProperty(CsvDialect.PROPERTY_NAME, dialect);
+        }
+
         boolean fromExtension = false;
         if( formatRequested == null ) {
             formatRequested = getExtension(uriInfo.getPath());
@@ -0,0 +1,16 @@
+package com.test.rest.csv;
+
+/**
+ * JMX view of a {@link CacheStatistics} registered in {@link CsvMetrics}.
+ *
+ * @author sergey
+ */
+public interface CacheMetricsMXBean {
+    String getName();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRatio();
+}
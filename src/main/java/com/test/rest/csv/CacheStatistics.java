@@ -0,0 +1,12 @@
+package com.test.rest.csv;
+
+/**
+ * Hit and miss counters of a cache, published by {@link CsvMetrics}.
+ *
+ * @author sergey
+ */
+public interface CacheStatistics {
+    long getHitCount();
+
+    long getMissCount();
+}
@@ -0,0 +1,340 @@
+package com.test.rest.csv;
+
+import java.io.InterruptedIOException;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.SecurityContext;
+
+/**
+ * <p>
+ * Optional stage of the CSV/Excel output limiting the exports written at
+ * the same time, so a few clients requesting full exports at once can't
+ * take all the CPU and heap from the rest of the application.
+ * </p><p>
+ * Every export has a cost: 1 plus a unit per {@link #getRowsPerUnit()}
+ * rows if the number of rows is known before they are written (arrays and
+ * collections, see {@link CsvRowRange#getSize(Object)}),
+ * {@link #getUnknownSizeCost()} otherwise, never more than the global
+ * limit. An export is admitted when the cost of the exports in flight
+ * leaves room for it, otherwise it waits in a bounded, first come first
+ * served queue for up to {@link #getMaxWaitMillis()}. A client (see
+ * {@link #getClientKey(ContainerRequestContext)}) can have at most
+ * {@code maxPerClient} exports in flight or waiting. Exports that can't be
+ * admitted are rejected with 503 Service Unavailable and a
+ * {@code Retry-After}.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvAdmissionControl implements CsvAdmissionControlMXBean {
+    public static final int DEFAULT_ROWS_PER_UNIT = 100000;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 10000;
+    public static final long DEFAULT_RETRY_AFTER_SECONDS = 5;
+    public static final String DEFAULT_CLIENT_HEADER = "X-Forwarded-For";
+
+    private final int _maxCost;
+    private final int _maxPerClient;
+    private final int _maxQueueDepth;
+    private final Semaphore _cost;
+    private final AtomicInteger _queueDepth = new AtomicInteger();
+    private final Map<String, Integer> _clients = new HashMap<String, Integer>(); // exports per client, guarded by itself
+    private final LongAdder _admitted = new LongAdder();
+    private final LongAdder _rejected = new LongAdder();
+    private final LongAdder _clientRejected = new LongAdder();
+    private int _rowsPerUnit = DEFAULT_ROWS_PER_UNIT;
+    private int _unknownSizeCost = 1;
+    private long _maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private long _retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+    private String _clientHeader = DEFAULT_CLIENT_HEADER;
+
+    /**
+     * @param maxCost  maximum cost of the exports written at the same time
+     * @param maxPerClient  maximum number of exports of a client written or waiting
+     * @param maxQueueDepth  maximum number of exports waiting to be admitted
+     */
+    public CsvAdmissionControl(int maxCost, int maxPerClient, int maxQueueDepth) {
+        if( maxCost <= 0 || maxPerClient <= 0 ) {
+            throw new IllegalArgumentException("Invalid limits: " + maxCost + ", " + maxPerClient);
+        }
+        _maxCost = maxCost;
+        _maxPerClient = maxPerClient;
+        _maxQueueDepth = Math.max(maxQueueDepth, 0);
+        _cost = new Semaphore(maxCost, true); // fair, a big export is not overtaken by the small ones forever
+    }
+
+    public int getRowsPerUnit() {
+        return _rowsPerUnit;
+    }
+
+    /**
+     * Sets the number of rows of an export that costs a unit more.
+     *
+     * @param rowsPerUnit   the rows
+     */
+    public void setRowsPerUnit(int rowsPerUnit) {
+        _rowsPerUnit = Math.max(rowsPerUnit, 1);
+    }
+
+    public int getUnknownSizeCost() {
+        return _unknownSizeCost;
+    }
+
+    /**
+     * Sets the cost of the exports whose rows are not known before they are
+     * written (streams, iterators and row sources), 1 by default.
+     *
+     * @param unknownSizeCost   the cost
+     */
+    public void setUnknownSizeCost(int unknownSizeCost) {
+        _unknownSizeCost = Math.max(unknownSizeCost, 1);
+    }
+
+    public long getMaxWaitMillis() {
+        return _maxWaitMillis;
+    }
+
+    /**
+     * Sets how long an export waits in the queue before it is rejected.
+     *
+     * @param maxWaitMillis   the time in milliseconds
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        _maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getRetryAfterSeconds() {
+        return _retryAfterSeconds;
+    }
+
+    /**
+     * Sets the {@code Retry-After} of the rejected exports.
+     *
+     * @param retryAfterSeconds   the time in seconds
+     */
+    public void setRetryAfterSeconds(long retryAfterSeconds) {
+        _retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getClientHeader() {
+        return _clientHeader;
+    }
+
+    /**
+     * Sets the header identifying the clients that are not authenticated,
+     * {@value #DEFAULT_CLIENT_HEADER} by default. Null limits the exports of
+     * the authenticated clients only.
+     *
+     * @param clientHeader   name of the header or null
+     */
+    public void setClientHeader(String clientHeader) {
+        _clientHeader = clientHeader;
+    }
+
+    /**
+     * Returns the cost of the export of the rows.
+     *
+     * @param rows  the entity to be written, after the window of the rows was selected
+     * @return   the cost, 1 to the global limit
+     */
+    public int getCost(Object rows) {
+        final long size = CsvRowRange.getSize(rows);
+        final long cost = (size < 0 ? _unknownSizeCost : 1 + size / _rowsPerUnit);
+        return (int)Math.min(cost, _maxCost);
+    }
+
+    /**
+     * Returns the client the export is counted to: the authenticated user
+     * or the first value of the client header.
+     *
+     * @param request  the request, can be null
+     * @return   the client or null if not known
+     */
+    public String getClientKey(ContainerRequestContext request) {
+        if( request == null ) {
+            return null;
+        }
+        final SecurityContext securityContext = request.getSecurityContext();
+        final Principal user = (securityContext == null ? null : securityContext.getUserPrincipal());
+        if( user != null ) {
+            return "user:" + user.getName();
+        }
+        final String header = (_clientHeader == null ? null : request.getHeaderString(_clientHeader));
+        if( header == null || header.isEmpty() ) {
+            return null;
+        }
+        final int comma = header.indexOf(',');
+        return (comma < 0 ? header : header.substring(0, comma)).trim();
+    }
+
+    /**
+     * Admits the export, waiting for the exports in flight if needed. The
+     * returned permit must be released when the export is written.
+     *
+     * @param cost  cost of the export, see {@link #getCost(Object)}
+     * @param client  the client, see {@link #getClientKey(ContainerRequestContext)}, null if not known
+     * @return   the permit
+     * @throws ServiceUnavailableException   if the export can't be admitted
+     * @throws InterruptedIOException   if interrupted while waiting
+     */
+    public Permit admit(int cost, String client) throws InterruptedIOException {
+        cost = Math.max(1, Math.min(cost, _maxCost));
+        if( client != null && !addClient(client) ) {
+            _clientRejected.increment();
+            throw new ServiceUnavailableException(_retryAfterSeconds);
+        }
+
+        boolean admitted = false;
+        try {
+            admitted = acquire(cost);
+        } finally {
+            if( !admitted && client != null ) {
+                removeClient(client);
+            }
+        }
+        if( !admitted ) {
+            _rejected.increment();
+            throw new ServiceUnavailableException(_retryAfterSeconds);
+        }
+        _admitted.increment();
+        return new Permit(cost, client);
+    }
+
+    private boolean acquire(int cost) throws InterruptedIOException {
+        try {
+            if( _cost.tryAcquire(cost, 0, TimeUnit.MILLISECONDS) ) { // unlike tryAcquire(cost), does not overtake the queue
+                return true;
+            }
+            if( _queueDepth.incrementAndGet() > _maxQueueDepth ) {
+                _queueDepth.decrementAndGet();
+                return false;
+            }
+            try {
+                return _cost.tryAcquire(cost, _maxWaitMillis, TimeUnit.MILLISECONDS);
+            } finally {
+                _queueDepth.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to be admitted");
+        }
+    }
+
+    private boolean addClient(String client) {
+        synchronized( _clients ) {
+            final Integer exports = _clients.get(client);
+            if( exports != null && exports >= _maxPerClient ) {
+                return false;
+            }
+            _clients.put(client, exports == null ? 1 : exports + 1);
+            return true;
+        }
+    }
+
+    private void removeClient(String client) {
+        synchronized( _clients ) {
+            final Integer exports = _clients.get(client);
+            if( exports == null || exports <= 1 ) {
+                _clients.remove(client);
+            } else {
+                _clients.put(client, exports - 1);
+            }
+        }
+    }
+
+    @Override
+    public int getInFlightCost() {
+        return _maxCost - _cost.availablePermits();
+    }
+
+    @Override
+    public int getMaxCost() {
+        return _maxCost;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return _queueDepth.get();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return _maxQueueDepth;
+    }
+
+    public int getMaxPerClient() {
+        return _maxPerClient;
+    }
+
+    @Override
+    public int getActiveClients() {
+        synchronized( _clients ) {
+            return _clients.size();
+        }
+    }
+
+    @Override
+    public long getAdmittedCount() {
+        return _admitted.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return _rejected.sum();
+    }
+
+    @Override
+    public long getClientRejectedCount() {
+        return _clientRejected.sum();
+    }
+
+    /**
+     * Adds the state of the admission to the text report.
+     *
+     * @param text  the report
+     */
+    public void appendTo(StringBuilder text) {
+        text.append("inFlightCost=").append(getInFlightCost()).append('/').append(_maxCost)
+                .append(" queueDepth=").append(getQueueDepth()).append('/').append(_maxQueueDepth)
+                .append(" activeClients=").append(getActiveClients())
+                .append(" admitted=").append(getAdmittedCount())
+                .append(" rejected=").append(getRejectedCount())
+                .append(" clientRejected=").append(getClientRejectedCount()).append('\n');
+    }
+
+    /**
+     * Admission of an export, released once when the export is written or
+     * failed.
+     */
+    public final class Permit {
+        private final int _permitCost;
+        private final String _client;
+        private boolean _released;
+
+        Permit(int cost, String client) {
+            _permitCost = cost;
+            _client = client;
+        }
+
+        public int getCost() {
+            return _permitCost;
+        }
+
+        public void release() {
+            if( _released ) {
+                return;
+            }
+            _released = true;
+            _cost.release(_permitCost);
+            if( _client != null ) {
+                removeClient(_client);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.test.rest.csv;
+
+/**
+ * JMX view of the {@link CsvAdmissionControl} registered in {@link CsvMetrics}.
+ *
+ * @author sergey
+ */
+public interface CsvAdmissionControlMXBean {
+    /**
+     * @return   cost of the exports being written
+     */
+    int getInFlightCost();
+
+    int getMaxCost();
+
+    /**
+     * @return   number of exports waiting to be admitted
+     */
+    int getQueueDepth();
+
+    int getMaxQueueDepth();
+
+    /**
+     * @return   number of clients with exports being written or waiting
+     */
+    int getActiveClients();
+
+    long getAdmittedCount();
+
+    /**
+     * @return   number of exports rejected as the queue was full or the wait timed out
+     */
+    long getRejectedCount();
+
+    /**
+     * @return   number of exports rejected as their client had too many exports
+     */
+    long getClientRejectedCount();
+}
@@ -0,0 +1,246 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+/**
+ * <p>
+ * Writes CSV asynchronously through Jersey {@link ChunkedOutput}, so that
+ * the request thread is released as soon as the resource method returns
+ * and the container threads are not blocked by slow clients.
+ * </p><p>
+ * The rows are encoded by a small, bounded pool of producer threads into
+ * {@link CsvChunk}s. Every export owns a fixed number of chunk buffers, a
+ * buffer is reused only after its chunk was written to the connection, so
+ * the producer encodes new rows only as fast as the client reads them and
+ * the memory held by an export is bounded by
+ * {@code maxInFlightChunks * chunkSize}. If the client does not read
+ * anything for {@code writeTimeoutMillis} the export is abandoned.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvAsyncWriter {
+    private static final Logger LOGGER = Logger.getLogger(CsvAsyncWriter.class.getName());
+
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT_CHUNKS = 4;
+    public static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 60000;
+
+    private final ExecutorService _executor;
+    private int _chunkSize = DEFAULT_CHUNK_SIZE;
+    private int _maxInFlightChunks = DEFAULT_MAX_IN_FLIGHT_CHUNKS;
+    private long _writeTimeoutMillis = DEFAULT_WRITE_TIMEOUT_MILLIS;
+
+    /**
+     * Creates writer with its own pool of producer threads.
+     *
+     * @param producerThreads  maximum number of exports encoded at the same time
+     * @param queuedExports  maximum number of exports waiting for a producer thread
+     */
+    public CsvAsyncWriter(int producerThreads, int queuedExports) {
+        this(new ThreadPoolExecutor(producerThreads, producerThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queuedExports), new ProducerThreadFactory()));
+    }
+
+    public CsvAsyncWriter(ExecutorService executor) {
+        _executor = executor;
+    }
+
+    /**
+     * Starts writing the rows.
+     *
+     * @param rows  rows to be written, anything {@link PojoToCsvSerializer} accepts
+     * @param serializer  serializer to encode the rows
+     * @return   output to be returned as the response entity
+     * @throws RejectedExecutionException   if too many exports are already running and queued
+     */
+    public ChunkedOutput<CsvChunk> write(final Object rows, final PojoToCsvSerializer serializer) {
+        return write(rows, serializer, null);
+    }
+
+    /**
+     * Starts writing the selected columns of the rows.
+     *
+     * @param rows  rows to be written, anything {@link PojoToCsvSerializer} accepts
+     * @param serializer  serializer to encode the rows
+     * @param projection  the columns to write, null for all of them
+     * @return   output to be returned as the response entity
+     * @throws RejectedExecutionException   if too many exports are already running and queued
+     */
+    public ChunkedOutput<CsvChunk> write(final Object rows, final PojoToCsvSerializer serializer, final CsvProjection projection) {
+        final ChunkedOutput<CsvChunk> output = new ChunkedOutput<CsvChunk>(CsvChunk.class);
+        try {
+            startProducer(rows, serializer, projection, output);
+        } catch (RejectedExecutionException e) {
+            closeRows(rows);
+            throw e;
+        }
+        return output;
+    }
+
+    private void startProducer(final Object rows, final PojoToCsvSerializer serializer, final CsvProjection projection,
+            final ChunkedOutput<CsvChunk> output) {
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ChunkingOutputStream chunks = new ChunkingOutputStream(output);
+                try {
+                    serializer.serialize(rows, chunks, serializer.getFlushEveryRows(), projection);
+                    chunks.flush();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Asynchronous CSV export abandoned", e);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Asynchronous CSV export failed", e);
+                } finally {
+                    try {
+                        output.close();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Failed to close asynchronous CSV export", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void closeRows(Object rows) {
+        if( rows instanceof AutoCloseable ) { // streams and row sources
+            try {
+                ((AutoCloseable)rows).close();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to close rows of rejected CSV export", e);
+            }
+        }
+    }
+
+    /**
+     * Stops the producer threads, exports in progress are interrupted.
+     */
+    public void shutdown() {
+        _executor.shutdownNow();
+    }
+
+    public int getChunkSize() {
+        return _chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        _chunkSize = chunkSize;
+    }
+
+    public int getMaxInFlightChunks() {
+        return _maxInFlightChunks;
+    }
+
+    /**
+     * Sets number of chunks of an export that may wait to be written to the
+     * connection before the producer has to stop.
+     *
+     * @param maxInFlightChunks   number of chunk buffers per export
+     */
+    public void setMaxInFlightChunks(int maxInFlightChunks) {
+        _maxInFlightChunks = maxInFlightChunks;
+    }
+
+    public long getWriteTimeoutMillis() {
+        return _writeTimeoutMillis;
+    }
+
+    /**
+     * Sets how long the producer waits for the client to read a chunk.
+     *
+     * @param writeTimeoutMillis   timeout in milliseconds
+     */
+    public void setWriteTimeoutMillis(long writeTimeoutMillis) {
+        _writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    /**
+     * Collects the bytes into chunk buffers and hands full (or flushed)
+     * chunks over to the {@link ChunkedOutput}.
+     */
+    private class ChunkingOutputStream extends OutputStream {
+        private final ChunkedOutput<CsvChunk> _output;
+        private final BlockingQueue<byte[]> _freeBuffers;
+        private byte[] _buffer;
+        private int _position;
+
+        ChunkingOutputStream(ChunkedOutput<CsvChunk> output) {
+            _output = output;
+            _freeBuffers = new ArrayBlockingQueue<byte[]>(_maxInFlightChunks);
+            for(int i = 0; i < _maxInFlightChunks; i++) {
+                _freeBuffers.add(new byte[_chunkSize]);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if( _buffer == null || _position == _buffer.length ) {
+                nextBuffer();
+            }
+            _buffer[_position++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while( length > 0 ) {
+                if( _buffer == null || _position == _buffer.length ) {
+                    nextBuffer();
+                }
+                int count = Math.min(length, _buffer.length - _position);
+                System.arraycopy(bytes, offset, _buffer, _position, count);
+                _position += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if( _buffer != null && _position > 0 ) {
+                if( _output.isClosed() ) {
+                    throw new IOException("The client connection is closed");
+                }
+                _output.write(new CsvChunk(_buffer, _position, _freeBuffers));
+                _buffer = null;
+                _position = 0;
+            }
+        }
+
+        private void nextBuffer() throws IOException {
+            flush();
+            try {
+                _buffer = _freeBuffers.poll(_writeTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the client", e);
+            }
+            if( _buffer == null ) {
+                throw new IOException("The client did not read the export for " + _writeTimeoutMillis + "ms");
+            }
+        }
+    }
+
+    private static class ProducerThreadFactory implements ThreadFactory {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "csv-async-writer-" + _count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.test.rest.csv;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Bounded pool of the output buffers of the {@link CsvByteEncoder}s, shared
+ * by the serializers, so a serialization does not allocate its buffer.
+ * Buffers returned to the pool are reused, the ones that don't fit into it
+ * are left to the garbage collector.
+ * </p><p>
+ * The buffers are heap {@link ByteBuffer}s: the encoder writes the bytes
+ * into their arrays by index, and writes them to a
+ * {@link java.nio.channels.WritableByteChannel} as they are.
+ * </p><p>
+ * With the leak detection on (see {@link #setLeakDetection(boolean)}) every
+ * buffer remembers where it was acquired. If its owner is garbage collected
+ * without releasing the buffer, the leak is counted and logged with the
+ * stack trace of the acquisition. The detection costs a stack trace per
+ * buffer, it is meant for the tests and troubleshooting.
+ * </p><p>
+ * Thread safe. The hits of the {@link CacheStatistics} are the reused
+ * buffers, the misses are the allocated ones.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvBufferPool implements CacheStatistics {
+    private static final Logger LOGGER = Logger.getLogger(CsvBufferPool.class.getName());
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 64;
+
+    private final int _bufferSize;
+    private final BlockingQueue<ByteBuffer> _buffers;
+    private final LongAdder _reused = new LongAdder();
+    private final LongAdder _allocated = new LongAdder();
+    private final LongAdder _leaked = new LongAdder();
+    private volatile boolean _leakDetection;
+    private final Map<ByteBuffer, LeakTracker> _trackers =
+            Collections.synchronizedMap(new IdentityHashMap<ByteBuffer, LeakTracker>()); // buffers compare by content
+    private final ReferenceQueue<Object> _collectedOwners = new ReferenceQueue<Object>();
+
+    /**
+     * @param bufferSize  size of the buffers in bytes
+     * @param maxPooled  maximum number of idle buffers kept
+     */
+    public CsvBufferPool(int bufferSize, int maxPooled) {
+        if( bufferSize <= 0 ) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        _bufferSize = bufferSize;
+        _buffers = new ArrayBlockingQueue<ByteBuffer>(Math.max(maxPooled, 1));
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    public boolean isLeakDetection() {
+        return _leakDetection;
+    }
+
+    /**
+     * Turns the detection of the buffers that are never released on or off,
+     * off by default.
+     *
+     * @param leakDetection   true to track the acquired buffers
+     */
+    public void setLeakDetection(boolean leakDetection) {
+        _leakDetection = leakDetection;
+    }
+
+    /**
+     * Takes a cleared buffer from the pool or allocates a new one.
+     *
+     * @param owner  object using the buffer, checked for being collected with the buffer not released
+     * @return   the buffer, with an accessible array of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire(Object owner) {
+        ByteBuffer buffer = _buffers.poll();
+        if( buffer != null ) {
+            _reused.increment();
+            buffer.clear();
+        } else {
+            _allocated.increment();
+            buffer = ByteBuffer.allocate(_bufferSize);
+        }
+
+        if( _leakDetection ) {
+            reportLeaks();
+            _trackers.put(buffer, new LeakTracker(owner, _collectedOwners));
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool, it must not be used after that.
+     *
+     * @param buffer  the buffer acquired from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        final LeakTracker tracker = _trackers.remove(buffer);
+        if( tracker != null ) {
+            tracker.clear();
+        }
+        _buffers.offer(buffer); // dropped if the pool is full
+    }
+
+    /**
+     * Counts and logs the buffers whose owners were collected without
+     * releasing them. Called on every acquisition while the leak detection
+     * is on.
+     *
+     * @return   number of leaks found by this call
+     */
+    public int reportLeaks() {
+        int leaks = 0;
+        Reference<?> collected;
+        while( (collected = _collectedOwners.poll()) != null ) {
+            final LeakTracker tracker = (LeakTracker)collected;
+            if( _trackers.values().remove(tracker) ) {
+                leaks++;
+                _leaked.increment();
+                LOGGER.log(Level.WARNING, "CSV output buffer was not released, acquired at", tracker._acquiredAt);
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * @return   number of buffers that were never released, found so far
+     */
+    public long getLeakCount() {
+        return _leaked.sum();
+    }
+
+    /**
+     * @return   number of idle buffers in the pool
+     */
+    public int getPooledCount() {
+        return _buffers.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return _reused.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _allocated.sum();
+    }
+
+    /**
+     * Enqueued when the owner of a buffer is collected, cleared when the
+     * buffer is released.
+     */
+    private static final class LeakTracker extends PhantomReference<Object> {
+        private final Throwable _acquiredAt = new Throwable();
+
+        LeakTracker(Object owner, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+        }
+    }
+}
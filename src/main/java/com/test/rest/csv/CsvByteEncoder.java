@@ -0,0 +1,519 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Buffered encoder of the CSV text into bytes, created for a single
+ * serialization.
+ * </p><p>
+ * Characters are encoded straight into the buffer (UTF-8 is encoded
+ * inline, other charsets go through a {@link CharsetEncoder}), quotes are
+ * escaped in the same pass and fixed fragments, like separators, are
+ * copied from preallocated byte arrays. Numbers are written digit by digit
+ * (see {@link #writeLong(long)} and {@link #writeDouble(double)}), without
+ * formatting them into strings first. The underlying stream is written
+ * only when the buffer is full or the encoder is flushed.
+ * </p><p>
+ * The buffer can be taken from a {@link CsvBufferPool}, the encoder then
+ * has to be {@link #release() released} at the end of the serialization.
+ * If the output is a {@link WritableByteChannel}, the buffer is written
+ * to the channel, without going through an {@code OutputStream}.
+ * </p><p>
+ * The encoder also collects statistics of the serialization it is created
+ * for: the rows written (see {@link #countRow(Class, boolean)}) and the time
+ * the first bytes reached the underlying stream. They are plain fields, so
+ * collecting them costs nothing per row.
+ * </p><p>
+ * Not thread safe.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvByteEncoder extends OutputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final int MIN_BUFFER_SIZE = 16;
+    private static final byte REPLACEMENT = '?';
+    private static final int MAX_LONG_LENGTH = 20; // sign and 19 digits
+    private static final double MAX_PLAIN_DOUBLE = 1e7; // Double.toString switches to the computerized scientific notation
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
+    private static final String NUMBER_CHARS = "-.0123456789";
+
+    private final OutputStream _out;
+    private final WritableByteChannel _channel;
+    private final Charset _charset;
+    private final boolean _utf8;
+    private final boolean _asciiNumbers;
+    private final CsvBufferPool _pool;
+    private ByteBuffer _pooledBuffer;
+    private byte[] _buffer;
+    private ByteBuffer _channelBuffer;
+    private int _position;
+    private long _flushedBytes;
+    private long _firstWriteNanos;
+    private long _rowCount;
+    private long _compiledRowCount;
+    private Class<?> _firstRowClass;
+    private CharsetEncoder _encoder;
+    private ByteBuffer _byteBuffer;
+
+    public CsvByteEncoder(OutputStream out) {
+        this(out, StandardCharsets.UTF_8, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvByteEncoder(OutputStream out, Charset charset, int bufferSize) {
+        this(out, out instanceof WritableByteChannel ? (WritableByteChannel)out : null, charset, null, bufferSize);
+    }
+
+    /**
+     * Encoder writing to the stream, with a pooled buffer.
+     * 
+     * @param out  the stream, written as a channel if it is a {@link WritableByteChannel}
+     * @param charset  charset of the text
+     * @param pool  pool of the buffers
+     */
+    public CsvByteEncoder(OutputStream out, Charset charset, CsvBufferPool pool) {
+        this(out, out instanceof WritableByteChannel ? (WritableByteChannel)out : null, charset, pool, 0);
+    }
+
+    /**
+     * Encoder writing to the channel, with a pooled buffer.
+     * 
+     * @param channel  the channel
+     * @param charset  charset of the text
+     * @param pool  pool of the buffers, null to allocate the buffer of {@link #DEFAULT_BUFFER_SIZE}
+     */
+    public CsvByteEncoder(WritableByteChannel channel, Charset charset, CsvBufferPool pool) {
+        this(null, channel, charset, pool, DEFAULT_BUFFER_SIZE);
+    }
+
+    private CsvByteEncoder(OutputStream out, WritableByteChannel channel, Charset charset, CsvBufferPool pool, int bufferSize) {
+        _out = out;
+        _channel = channel;
+        _charset = charset;
+        _utf8 = StandardCharsets.UTF_8.equals(charset);
+        _asciiNumbers = _utf8 || Arrays.equals(NUMBER_CHARS.getBytes(charset), NUMBER_CHARS.getBytes(StandardCharsets.US_ASCII));
+        _pool = pool;
+        if( pool != null ) {
+            _pooledBuffer = pool.acquire(this);
+            _buffer = _pooledBuffer.array();
+            _channelBuffer = _pooledBuffer;
+        } else {
+            _buffer = new byte[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+        }
+    }
+
+    public Charset getCharset() {
+        return _charset;
+    }
+
+    /**
+     * Total number of bytes written so far, including the buffered ones.
+     *
+     * @return   number of bytes
+     */
+    public long getByteCount() {
+        return _flushedBytes + _position;
+    }
+
+    /**
+     * Counts a row written through the encoder.
+     *
+     * @param rowClass  class of the row, null for a null row
+     * @param compiled  true if the row was written by a compiled {@link PojoRowPlan}
+     */
+    public void countRow(Class<?> rowClass, boolean compiled) {
+        if( _rowCount++ == 0 ) {
+            _firstRowClass = rowClass;
+        }
+        if( compiled ) {
+            _compiledRowCount++;
+        }
+    }
+
+    /**
+     * Adds the rows counted by another encoder, i.e. one used to encode a
+     * part of the rows in parallel.
+     *
+     * @param encoder  the other encoder
+     */
+    public void countRows(CsvByteEncoder encoder) {
+        if( _rowCount == 0 ) {
+            _firstRowClass = encoder._firstRowClass;
+        }
+        _rowCount += encoder._rowCount;
+        _compiledRowCount += encoder._compiledRowCount;
+    }
+
+    public long getRowCount() {
+        return _rowCount;
+    }
+
+    /**
+     * Number of the rows written by compiled {@link PojoRowPlan}s, the rest
+     * were written with the reflective path.
+     *
+     * @return   number of rows
+     */
+    public long getCompiledRowCount() {
+        return _compiledRowCount;
+    }
+
+    /**
+     * Class of the first row counted.
+     *
+     * @return   the class or null
+     */
+    public Class<?> getFirstRowClass() {
+        return _firstRowClass;
+    }
+
+    /**
+     * Returns {@link System#nanoTime()} of the first write to the underlying
+     * stream.
+     *
+     * @return   the time or 0 if nothing was written yet
+     */
+    public long getFirstWriteNanos() {
+        return _firstWriteNanos;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if( _position == _buffer.length ) {
+            flushBuffer();
+        }
+        _buffer[_position++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if( length > _buffer.length - _position ) {
+            flushBuffer();
+            if( length > _buffer.length ) {
+                if( _firstWriteNanos == 0 ) {
+                    _firstWriteNanos = System.nanoTime();
+                }
+                if( _channel != null ) {
+                    writeFully(ByteBuffer.wrap(bytes, offset, length));
+                } else {
+                    _out.write(bytes, offset, length);
+                }
+                _flushedBytes += length;
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, _buffer, _position, length);
+        _position += length;
+    }
+
+    /**
+     * Encodes the text as is.
+     *
+     * @param text  text to write
+     * @throws IOException
+     */
+    public void writeText(CharSequence text) throws IOException {
+        writeText(text, 0, text.length());
+    }
+
+    /**
+     * Writes the number as {@link Long#toString(long)} does, the digits go
+     * straight into the buffer.
+     *
+     * @param value  the number
+     * @throws IOException
+     */
+    public void writeLong(long value) throws IOException {
+        if( !_asciiNumbers || value == Long.MIN_VALUE ) { // can't be negated
+            writeText(Long.toString(value));
+            return;
+        }
+        if( _buffer.length - _position < MAX_LONG_LENGTH ) {
+            flushBuffer();
+        }
+
+        final byte[] buffer = _buffer;
+        if( value < 0 ) {
+            buffer[_position++] = '-';
+            value = -value;
+        }
+        int end = _position + getDigitCount(value);
+        _position = end;
+        do {
+            buffer[--end] = (byte)('0' + (int)(value % 10));
+            value /= 10;
+        } while( value != 0 );
+    }
+
+    private static int getDigitCount(long value) {
+        int count = 1;
+        for(long limit = 10; count < 19 && value >= limit; limit *= 10) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the number as {@link Double#toString(double)} does. Whole
+     * numbers in the plain notation range are written digit by digit, other
+     * numbers are formatted by {@link Double#toString(double)}.
+     *
+     * @param value  the number
+     * @throws IOException
+     */
+    public void writeDouble(double value) throws IOException {
+        if( _asciiNumbers && value == (long)value && Math.abs(value) < MAX_PLAIN_DOUBLE
+                && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO_BITS ) {
+            writeLong((long)value);
+            if( _buffer.length - _position < 2 ) {
+                flushBuffer();
+            }
+            _buffer[_position++] = '.';
+            _buffer[_position++] = '0';
+        } else {
+            writeText(Double.toString(value));
+        }
+    }
+
+    /**
+     * Encodes the text doubling all the occurrences of the quote character,
+     * in a single pass.
+     *
+     * @param text  text to write
+     * @param quote  quote character
+     * @throws IOException
+     */
+    public void writeEscaped(CharSequence text, char quote) throws IOException {
+        final int length = text.length();
+        if( _utf8 ) {
+            for(int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if( c < 0x80 ) {
+                    if( _position == _buffer.length ) {
+                        flushBuffer();
+                    }
+                    _buffer[_position++] = (byte)c;
+                    if( c == quote ) {
+                        write(c);
+                    }
+                } else {
+                    i = writeUtf8(text, i, length);
+                }
+            }
+        } else {
+            int start = 0;
+            for(int i = 0; i < length; i++) {
+                if( text.charAt(i) == quote ) {
+                    writeText(text, start, i + 1);
+                    start = i; // the quote is written once more as the start of the next run
+                }
+            }
+            writeText(text, start, length);
+        }
+    }
+
+    /**
+     * Encodes the text writing the escape and the character of the table
+     * instead of every ASCII character with a non zero entry in the table,
+     * in a single pass, see {@link CsvDialect}.
+     *
+     * @param text  text to write
+     * @param escape  escape character
+     * @param escapes  the character to write after the escape for each ASCII character, 0 to write it as is
+     * @throws IOException
+     */
+    public void writeEscaped(CharSequence text, char escape, char[] escapes) throws IOException {
+        final int length = text.length();
+        if( _utf8 ) {
+            for(int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if( c < 0x80 ) {
+                    if( _buffer.length - _position < 2 ) {
+                        flushBuffer();
+                    }
+                    final char escaped = escapes[c];
+                    if( escaped != 0 ) {
+                        _buffer[_position++] = (byte)escape;
+                        c = escaped;
+                    }
+                    _buffer[_position++] = (byte)c;
+                } else {
+                    i = writeUtf8(text, i, length);
+                }
+            }
+        } else {
+            int start = 0;
+            for(int i = 0; i < length; i++) {
+                final char c = text.charAt(i);
+                if( c < 0x80 && escapes[c] != 0 ) {
+                    writeText(text, start, i);
+                    writeText(new String(new char[] {escape, escapes[c]})); // encoded, the charset may not be ASCII compatible
+                    start = i + 1;
+                }
+            }
+            writeText(text, start, length);
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the underlying stream, without flushing
+     * the stream.
+     *
+     * @throws IOException
+     */
+    public void flushBuffer() throws IOException {
+        if( _position > 0 ) {
+            if( _firstWriteNanos == 0 ) {
+                _firstWriteNanos = System.nanoTime();
+            }
+            if( _channel != null ) {
+                if( _channelBuffer == null ) {
+                    _channelBuffer = ByteBuffer.wrap(_buffer);
+                }
+                _channelBuffer.clear();
+                _channelBuffer.limit(_position);
+                writeFully(_channelBuffer);
+            } else {
+                _out.write(_buffer, 0, _position);
+            }
+            _flushedBytes += _position;
+            _position = 0;
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while( bytes.hasRemaining() ) {
+            _channel.write(bytes);
+        }
+    }
+
+    /**
+     * Returns the pooled buffer to the pool, the encoder must not be written
+     * to after that. The buffered bytes are not written, the statistics of
+     * the serialization stay available.
+     */
+    public void release() {
+        if( _pooledBuffer != null ) {
+            _pool.release(_pooledBuffer);
+            _pooledBuffer = null;
+            _channelBuffer = null;
+            _buffer = null;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes and flushes the underlying stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        if( _out != null ) {
+            _out.flush();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes but does not close the underlying stream,
+     * it belongs to the caller.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+    }
+
+    /**
+     * Encodes a part of the text as is.
+     *
+     * @param text  text to write
+     * @param start  index of the first char to write
+     * @param end  index after the last char to write
+     * @throws IOException
+     */
+    public void writeText(CharSequence text, int start, int end) throws IOException {
+        if( _utf8 ) {
+            for(int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if( c < 0x80 ) {
+                    if( _position == _buffer.length ) {
+                        flushBuffer();
+                    }
+                    _buffer[_position++] = (byte)c;
+                } else {
+                    i = writeUtf8(text, i, end);
+                }
+            }
+        } else if( start < end ) {
+            encode(CharBuffer.wrap(text, start, end));
+        }
+    }
+
+    /**
+     * Writes a non ASCII character at the index, returns index of the last
+     * char consumed (surrogate pairs consume two).
+     */
+    private int writeUtf8(CharSequence text, int i, int end) throws IOException {
+        if( _buffer.length - _position < 4 ) {
+            flushBuffer();
+        }
+
+        final byte[] buffer = _buffer;
+        char c = text.charAt(i);
+        if( c < 0x800 ) {
+            buffer[_position++] = (byte)(0xC0 | (c >> 6));
+            buffer[_position++] = (byte)(0x80 | (c & 0x3F));
+        } else if( Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1)) ) {
+            int codePoint = Character.toCodePoint(c, text.charAt(++i));
+            buffer[_position++] = (byte)(0xF0 | (codePoint >> 18));
+            buffer[_position++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[_position++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[_position++] = (byte)(0x80 | (codePoint & 0x3F));
+        } else if( Character.isSurrogate(c) ) {
+            buffer[_position++] = REPLACEMENT; // malformed, same as String.getBytes does
+        } else {
+            buffer[_position++] = (byte)(0xE0 | (c >> 12));
+            buffer[_position++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            buffer[_position++] = (byte)(0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    private void encode(CharBuffer chars) throws IOException {
+        if( _encoder == null ) {
+            _encoder = _charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            _byteBuffer = ByteBuffer.wrap(_buffer);
+        }
+
+        _encoder.reset();
+        _byteBuffer.limit(_buffer.length).position(_position);
+        while( _encoder.encode(chars, _byteBuffer, true).isOverflow() ) {
+            drainByteBuffer();
+        }
+        while( _encoder.flush(_byteBuffer).isOverflow() ) {
+            drainByteBuffer();
+        }
+        _position = _byteBuffer.position();
+    }
+
+    private void drainByteBuffer() throws IOException {
+        _position = _byteBuffer.position();
+        flushBuffer();
+        _byteBuffer.clear();
+    }
+}
@@ -0,0 +1,47 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * Piece of the CSV output produced by {@link CsvAsyncWriter} and sent to the
+ * client through Jersey {@link org.glassfish.jersey.server.ChunkedOutput}.
+ * </p><p>
+ * The bytes live in a buffer borrowed from the writer, the buffer is given
+ * back as soon as the chunk is written to the connection, which is what
+ * lets the producer encode the next rows.
+ * </p>
+ *
+ * @author sergey
+ */
+public final class CsvChunk {
+    private final byte[] _buffer;
+    private final int _length;
+    private final BlockingQueue<byte[]> _freeBuffers;
+
+    CsvChunk(byte[] buffer, int length, BlockingQueue<byte[]> freeBuffers) {
+        _buffer = buffer;
+        _length = length;
+        _freeBuffers = freeBuffers;
+    }
+
+    public int getLength() {
+        return _length;
+    }
+
+    /**
+     * Writes the chunk and gives its buffer back to the producer.
+     *
+     * @param stream  connection output stream
+     * @throws IOException
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        try {
+            stream.write(_buffer, 0, _length);
+        } finally {
+            _freeBuffers.offer(_buffer);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <p>
+ * Optional compression stage of the CSV/Excel output.
+ * </p><p>
+ * The encoding is negotiated from the {@code Accept-Encoding} request
+ * header ({@code gzip} is preferred over {@code deflate}), the output is
+ * compressed with {@link Deflater}s taken from a {@link DeflaterPool}, so
+ * no deflater is allocated per response. While compressing, the output is
+ * flushed (zlib SYNC_FLUSH) every {@link #getFlushEveryRows()} rows, i.e.
+ * less often than the uncompressed output, as every flush makes the
+ * compression worse.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvCompression {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    public static final int DEFAULT_MAX_POOLED_DEFLATERS = 32;
+    public static final int DEFAULT_FLUSH_EVERY_ROWS = 10000;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private final int _level;
+    private final DeflaterPool _gzipDeflaters;
+    private final DeflaterPool _zlibDeflaters;
+    private int _flushEveryRows = DEFAULT_FLUSH_EVERY_ROWS;
+
+    public CsvCompression() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_MAX_POOLED_DEFLATERS);
+    }
+
+    /**
+     * @param level  compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param maxPooledDeflaters  maximum number of idle deflaters kept for each encoding
+     */
+    public CsvCompression(int level, int maxPooledDeflaters) {
+        _level = level;
+        _gzipDeflaters = new DeflaterPool(level, true, maxPooledDeflaters);
+        _zlibDeflaters = new DeflaterPool(level, false, maxPooledDeflaters);
+    }
+
+    public int getLevel() {
+        return _level;
+    }
+
+    public int getFlushEveryRows() {
+        return _flushEveryRows;
+    }
+
+    /**
+     * Sets how often the compressed output is flushed to the client, in rows.
+     * Zero means only when the compression buffers are full.
+     *
+     * @param flushEveryRows   number of rows between flushes
+     */
+    public void setFlushEveryRows(int flushEveryRows) {
+        _flushEveryRows = flushEveryRows;
+    }
+
+    /**
+     * Chooses content encoding acceptable by the client.
+     *
+     * @param acceptEncoding  value of Accept-Encoding request header, can be null
+     * @return   {@link #GZIP}, {@link #DEFLATE} or null if the output should not be compressed
+     */
+    public String negotiate(String acceptEncoding) {
+        if( acceptEncoding == null ) {
+            return null;
+        }
+
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for(String coding : acceptEncoding.split(",")) {
+            String name = coding;
+            float quality = 1;
+            int paramIndx = coding.indexOf(';');
+            if( paramIndx != -1 ) {
+                name = coding.substring(0, paramIndx);
+                String param = coding.substring(paramIndx + 1).trim();
+                if( param.startsWith("q=") ) {
+                    try {
+                        quality = Float.parseFloat(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            name = name.trim();
+            if( GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name) ) {
+                gzip = quality;
+            } else if( DEFLATE.equalsIgnoreCase(name) ) {
+                deflate = quality;
+            } else if( "*".equals(name) ) {
+                any = quality;
+            }
+        }
+
+        if( gzip < 0 ) { // not listed, '*' applies
+            gzip = any;
+        }
+        if( deflate < 0 ) {
+            deflate = any;
+        }
+        if( gzip > 0 && gzip >= deflate ) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Wraps the stream to compress the output with the encoding. The returned
+     * stream must be closed to finish the compression, closing it does not
+     * close the wrapped stream.
+     *
+     * @param stream  stream to write compressed output to
+     * @param encoding  {@link #GZIP} or {@link #DEFLATE}
+     * @return   stream compressing the output
+     * @throws IOException
+     */
+    public OutputStream compress(OutputStream stream, String encoding) throws IOException {
+        if( GZIP.equals(encoding) ) {
+            return new GzipStream(stream, _gzipDeflaters);
+        }
+        return new CompressingStream(stream, _zlibDeflaters);
+    }
+
+    /**
+     * Ends all the pooled deflaters.
+     */
+    public void clear() {
+        _gzipDeflaters.clear();
+        _zlibDeflaters.clear();
+    }
+
+    private static class CompressingStream extends DeflaterOutputStream {
+        private final DeflaterPool _pool;
+        private boolean _finished;
+
+        CompressingStream(OutputStream stream, DeflaterPool pool) {
+            super(stream, pool.acquire(), BUFFER_SIZE, true);
+            _pool = pool;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if( _finished ) {
+                return;
+            }
+            _finished = true;
+            try {
+                finish();
+                writeTrailer();
+                out.flush();
+            } finally {
+                _pool.release(def);
+            }
+        }
+
+        protected void writeTrailer() throws IOException {
+        }
+    }
+
+    /**
+     * The same as {@link java.util.zip.GZIPOutputStream}, but with pooled deflater.
+     */
+    private static class GzipStream extends CompressingStream {
+        private final CRC32 _crc = new CRC32();
+
+        GzipStream(OutputStream stream, DeflaterPool pool) throws IOException {
+            super(stream, pool);
+            out.write(new byte[] {
+                (byte)GZIP_MAGIC, (byte)(GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+            });
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            super.write(bytes, offset, length);
+            _crc.update(bytes, offset, length);
+        }
+
+        @Override
+        protected void writeTrailer() throws IOException {
+            writeInt((int)_crc.getValue());
+            writeInt((int)def.getBytesRead()); // modulo 2^32
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.write(value & 0xff);
+            out.write((value >> 8) & 0xff);
+            out.write((value >> 16) & 0xff);
+            out.write((value >> 24) & 0xff);
+        }
+    }
+}
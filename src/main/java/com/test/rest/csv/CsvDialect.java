@@ -0,0 +1,198 @@
+package com.test.rest.csv;
+
+/**
+ * <p>
+ * Delimiter, quoting and line separator of the written CSV text.
+ * </p><p>
+ * {@link #DEFAULT} is the output of the earlier versions: the text values
+ * are always quoted, the numbers and booleans only when needed.
+ * {@link #RFC4180} quotes only the values that need it and ends the lines
+ * with CRLF, {@link #PIPE} is the same with {@code |} as the delimiter and
+ * {@link #TSV} never quotes: tabs, line breaks and backslashes in the values
+ * are escaped as {@code \t}, {@code \n}, {@code \r} and {@code \\}. Other
+ * dialects (custom quote and escape characters) are created with the
+ * constructor.
+ * </p><p>
+ * The special characters of the dialect are held in a table of the ASCII
+ * characters, so the value is checked for quoting and escaped by a lookup
+ * per character. The special characters must be ASCII.
+ * </p><p>
+ * The dialect of a response is selected by the {@code dialect} query
+ * parameter (see {@link AcceptsMimeTypeSetterFilter}), stored as the
+ * {@link #PROPERTY_NAME} request property, or by the
+ * {@code text/tab-separated-values} media type.
+ * </p>
+ *
+ * @author sergey
+ */
+public final class CsvDialect {
+    public static final String PROPERTY_NAME = CsvDialect.class.getName();
+
+    /**
+     * When the values are written in quotes.
+     */
+    public enum Quoting {
+        /** text values always, numbers and booleans if they contain a special character */
+        TEXT,
+        /** only the values that contain a special character */
+        MINIMAL,
+        /** never, the special characters are escaped */
+        NONE
+    }
+
+    /** the value has to be quoted if it contains the character */
+    public static final byte QUOTED = 1;
+    /** the character is escaped in the written value */
+    public static final byte ESCAPED = 2;
+
+    private static final int TABLE_SIZE = 128;
+
+    public static final CsvDialect DEFAULT = new CsvDialect("csv", ',', '"', '"', "\n", Quoting.TEXT);
+    public static final CsvDialect RFC4180 = new CsvDialect("rfc4180", ',', '"', '"', "\r\n", Quoting.MINIMAL);
+    public static final CsvDialect PIPE = new CsvDialect("pipe", '|', '"', '"', "\n", Quoting.MINIMAL);
+    public static final CsvDialect TSV = new CsvDialect("tsv", '\t', '"', '\\', "\n", Quoting.NONE);
+
+    private final String _name;
+    private final char _delimiter;
+    private final char _quote;
+    private final char _escape;
+    private final String _lineSeparator;
+    private final Quoting _quoting;
+    private final byte[] _classes = new byte[TABLE_SIZE];
+    private final char[] _escapes = new char[TABLE_SIZE];
+
+    /**
+     * @param name  name of the dialect, the value of the {@code dialect} query parameter
+     * @param delimiter  delimiter of the values
+     * @param quote  quote of the values, not used if never quoted
+     * @param escape  written before the escaped characters, the quote to double the quotes
+     * @param lineSeparator  written after every row
+     * @param quoting  when the values are quoted
+     */
+    public CsvDialect(String name, char delimiter, char quote, char escape, String lineSeparator, Quoting quoting) {
+        if( delimiter >= TABLE_SIZE || quote >= TABLE_SIZE || escape >= TABLE_SIZE
+                || delimiter == quote || delimiter == escape || delimiter == '\r' || delimiter == '\n' ) {
+            throw new IllegalArgumentException("Invalid dialect " + name);
+        }
+        _name = name;
+        _delimiter = delimiter;
+        _quote = quote;
+        _escape = escape;
+        _lineSeparator = lineSeparator;
+        _quoting = quoting;
+
+        if( quoting == Quoting.NONE ) { // nothing forces quoting, the special characters are escaped instead
+            setEscape(delimiter, delimiter == '\t' ? 't' : delimiter);
+            setEscape('\n', 'n');
+            setEscape('\r', 'r');
+            setEscape(escape, escape);
+        } else {
+            _classes[delimiter] = QUOTED;
+            _classes['\n'] = QUOTED;
+            _classes['\r'] = QUOTED;
+            setEscape(quote, quote);
+            setEscape(escape, escape);
+        }
+    }
+
+    private void setEscape(char c, char escaped) {
+        _classes[c] |= ESCAPED | (_quoting == Quoting.NONE ? 0 : QUOTED);
+        _escapes[c] = escaped;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public char getDelimiter() {
+        return _delimiter;
+    }
+
+    public char getQuote() {
+        return _quote;
+    }
+
+    public char getEscape() {
+        return _escape;
+    }
+
+    public String getLineSeparator() {
+        return _lineSeparator;
+    }
+
+    public Quoting getQuoting() {
+        return _quoting;
+    }
+
+    /**
+     * Returns the class of the ASCII character, {@link #QUOTED} and/or
+     * {@link #ESCAPED} flags, 0 for the plain ones.
+     *
+     * @param c  the character
+     * @return   the class
+     */
+    public byte getCharClass(char c) {
+        return c < TABLE_SIZE ? _classes[c] : 0;
+    }
+
+    /**
+     * Returns the table of the escaped ASCII characters, see
+     * {@link CsvByteEncoder#writeEscaped(CharSequence, char, char[])}: the
+     * character written after the escape, 0 for the characters written as
+     * they are. Must not be modified.
+     *
+     * @return   the table
+     */
+    char[] getEscapes() {
+        return _escapes;
+    }
+
+    /**
+     * Checks if the value has to be quoted, in a single scan. Never true
+     * for the dialects that don't quote.
+     *
+     * @param text  the value
+     * @return   true if the value contains a character forcing the quotes
+     */
+    public boolean needsQuotes(CharSequence text) {
+        if( _quoting == Quoting.NONE ) {
+            return false;
+        }
+        final byte[] classes = _classes;
+        final int length = text.length();
+        for(int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if( c < TABLE_SIZE && classes[c] != 0 ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the text escaped as it is written in a value.
+     *
+     * @param text  the text
+     * @return   the escaped text
+     */
+    public String escape(String text) {
+        StringBuilder escaped = null;
+        for(int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if( c < TABLE_SIZE && _escapes[c] != 0 ) {
+                if( escaped == null ) {
+                    escaped = new StringBuilder(text.length() + 4).append(text, 0, i);
+                }
+                escaped.append(_escape).append(_escapes[c]);
+            } else if( escaped != null ) {
+                escaped.append(c);
+            }
+        }
+        return escaped == null ? text : escaped.toString();
+    }
+
+    @Override
+    public String toString() {
+        return _name;
+    }
+}
@@ -0,0 +1,186 @@
+package com.test.rest.csv;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.concurrent.Future;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * <p>
+ * Export rendered in the background into a file, see {@link CsvExportJobs}.
+ * </p><p>
+ * The progress (rows and bytes written so far) is updated by the job thread
+ * as the rows are written and can be read by any thread. Returned as the
+ * entity of the download, the job is written by the
+ * {@link CsvObjectMapperProvider} from its file.
+ * </p>
+ *
+ * @author sergey
+ */
+public final class CsvExportJob {
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final String _id;
+    private final MediaType _mediaType;
+    private final String _filename;
+    private final long _totalRows;
+    private final long _submittedMillis;
+    private volatile State _state = State.QUEUED;
+    private volatile long _startedMillis;
+    private volatile long _finishedMillis;
+    private volatile long _rows; // written by the job thread only
+    private volatile long _bytes;
+    private volatile String _error;
+    private volatile Path _file;
+    private volatile Future<?> _future;
+
+    CsvExportJob(String id, MediaType mediaType, String filename, long totalRows) {
+        _id = id;
+        _mediaType = mediaType;
+        _filename = filename;
+        _totalRows = totalRows;
+        _submittedMillis = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return _id;
+    }
+
+    public MediaType getMediaType() {
+        return _mediaType;
+    }
+
+    /**
+     * @return   name of the downloaded file, i.e. {@code result.csv}
+     */
+    public String getFilename() {
+        return _filename;
+    }
+
+    public State getState() {
+        return _state;
+    }
+
+    /**
+     * @return   true if the job is done, failed or cancelled
+     */
+    public boolean isFinished() {
+        final State state = _state;
+        return state != State.QUEUED && state != State.RUNNING;
+    }
+
+    /**
+     * @return   number of the rows written so far
+     */
+    public long getRows() {
+        return _rows;
+    }
+
+    /**
+     * @return   number of the rows to write, -1 if not known before they are written
+     */
+    public long getTotalRows() {
+        return _totalRows;
+    }
+
+    /**
+     * @return   number of the bytes written so far, the size of the file when done
+     */
+    public long getBytes() {
+        return _bytes;
+    }
+
+    /**
+     * @return   the failure of a failed job, null otherwise
+     */
+    public String getError() {
+        return _error;
+    }
+
+    public long getSubmittedMillis() {
+        return _submittedMillis;
+    }
+
+    public long getFinishedMillis() {
+        return _finishedMillis;
+    }
+
+    /**
+     * @return   the rendered file, null until the job is done
+     */
+    public Path getFile() {
+        return _file;
+    }
+
+    void setFuture(Future<?> future) {
+        _future = future;
+    }
+
+    Future<?> getFuture() {
+        return _future;
+    }
+
+    void started() {
+        _startedMillis = System.currentTimeMillis();
+        _state = State.RUNNING;
+    }
+
+    void rowWritten() {
+        _rows++;
+    }
+
+    void bytesWritten(long bytes) {
+        _bytes += bytes;
+    }
+
+    void done(Path file, long bytes) {
+        _file = file;
+        _bytes = bytes;
+        finished(State.DONE);
+    }
+
+    void failed(String error) {
+        _error = error;
+        finished(State.FAILED);
+    }
+
+    void finished(State state) {
+        _finishedMillis = System.currentTimeMillis();
+        _state = state;
+    }
+
+    /**
+     * Returns the status of the job as text, a {@code name=value} per line.
+     *
+     * @return   the status
+     */
+    public String getReport() {
+        final StringBuilder text = new StringBuilder();
+        text.append("id=").append(_id).append('\n');
+        text.append("state=").append(_state).append('\n');
+        text.append("mediaType=").append(_mediaType).append('\n');
+        text.append("rows=").append(_rows).append('\n');
+        if( _totalRows >= 0 ) {
+            text.append("totalRows=").append(_totalRows).append('\n');
+        }
+        text.append("bytes=").append(_bytes).append('\n');
+        text.append("submitted=").append(new Date(_submittedMillis)).append('\n');
+        if( _startedMillis != 0 ) {
+            text.append("started=").append(new Date(_startedMillis)).append('\n');
+        }
+        if( _finishedMillis != 0 ) {
+            text.append("finished=").append(new Date(_finishedMillis)).append('\n');
+        }
+        if( _error != null ) {
+            text.append("error=").append(_error).append('\n');
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "{id=" + _id + ", state=" + _state + ", rows=" + _rows + ", bytes=" + _bytes + "}";
+    }
+}
@@ -0,0 +1,81 @@
+package com.test.rest.csv;
+
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+
+/**
+ * <p>
+ * Status and download of the {@link CsvExportJob}s submitted by
+ * {@link CsvObjectMapperProvider#submitExport(Object, MediaType)}.
+ * </p><p>
+ * {@code GET /csv-jobs/{id}} returns the status of the job as text,
+ * {@code GET /csv-jobs/{id}/download} the export when the job is done (409
+ * Conflict while it is running, 410 Gone if it failed or was cancelled) and
+ * {@code DELETE /csv-jobs/{id}} cancels the job and deletes its file.
+ * </p>
+ *
+ * @author sergey
+ */
+@Path("/csv-jobs")
+public class CsvExportJobResource {
+
+    @GET
+    @Path("{id}")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String status(@PathParam("id") String id, @Context Providers providers) {
+        return getJob(id, providers).getReport();
+    }
+
+    @GET
+    @Path("{id}/download")
+    public Response download(@PathParam("id") String id, @Context Providers providers) {
+        final CsvExportJob job = getJob(id, providers);
+        switch( job.getState() ) {
+            case DONE:
+                return Response.ok(job, job.getMediaType()).build();
+            case FAILED:
+            case CANCELLED:
+                throw new ClientErrorException(Response.status(Response.Status.GONE)
+                        .entity(job.getReport()).type(MediaType.TEXT_PLAIN).build());
+            default:
+                throw new ClientErrorException(Response.status(Response.Status.CONFLICT)
+                        .entity(job.getReport()).type(MediaType.TEXT_PLAIN).build());
+        }
+    }
+
+    @DELETE
+    @Path("{id}")
+    public Response cancel(@PathParam("id") String id, @Context Providers providers) {
+        if( getJobs(providers).cancel(id) == null ) {
+            throw new NotFoundException("Unknown export job " + id);
+        }
+        return Response.noContent().build();
+    }
+
+    private static CsvExportJob getJob(String id, Providers providers) {
+        final CsvExportJob job = getJobs(providers).get(id);
+        if( job == null ) {
+            throw new NotFoundException("Unknown export job " + id);
+        }
+        return job;
+    }
+
+    private static CsvExportJobs getJobs(Providers providers) {
+        MessageBodyWriter<Object> csvWriter = providers.getMessageBodyWriter(Object.class, Object.class, null,
+                MediaType.valueOf(CsvObjectMapperProvider.TEXT_CSV));
+        if( !(csvWriter instanceof CsvObjectMapperProvider) || ((CsvObjectMapperProvider)csvWriter).getExportJobs() == null ) {
+            throw new NotFoundException("CSV export jobs are not enabled");
+        }
+        return ((CsvObjectMapperProvider)csvWriter).getExportJobs();
+    }
+}
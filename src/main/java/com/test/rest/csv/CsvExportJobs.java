@@ -0,0 +1,343 @@
+package com.test.rest.csv;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * <p>
+ * Renders exports in the background into files, for the exports that take
+ * too long to be written while the client waits: the client submits the
+ * export, polls its {@link CsvExportJob} and downloads the file when it is
+ * done, see {@link CsvExportJobResource}.
+ * </p><p>
+ * The jobs run on their own bounded pool of threads, so at most
+ * {@code threads} big exports are rendered at the same time and the
+ * interactive requests keep their threads and the common
+ * {@link java.util.concurrent.ForkJoinPool}: the rows of a job are written
+ * sequentially, never in parallel. At most {@code queuedJobs} jobs wait for
+ * a thread, further jobs are rejected.
+ * </p><p>
+ * A job is written into a {@code .part} file renamed when the job is done,
+ * the finished jobs and their files are removed after the retention time.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvExportJobs {
+    private static final Logger LOGGER = Logger.getLogger(CsvExportJobs.class.getName());
+
+    public static final long DEFAULT_RETENTION_MILLIS = 60 * 60 * 1000;
+
+    private final ThreadPoolExecutor _executor;
+    private final ConcurrentMap<String, CsvExportJob> _jobs = new ConcurrentHashMap<String, CsvExportJob>();
+    private volatile File _directory;
+    private long _retentionMillis = DEFAULT_RETENTION_MILLIS;
+
+    /**
+     * @param threads  maximum number of jobs rendered at the same time
+     * @param queuedJobs  maximum number of jobs waiting for a thread
+     */
+    public CsvExportJobs(int threads, int queuedJobs) {
+        _executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(queuedJobs, 1)), new JobThreadFactory());
+    }
+
+    public File getDirectory() {
+        return _directory;
+    }
+
+    /**
+     * Sets the directory of the rendered files, a new temporary directory
+     * is created on the first job if not set.
+     *
+     * @param directory   the directory
+     */
+    public void setDirectory(File directory) {
+        _directory = directory;
+    }
+
+    public long getRetentionMillis() {
+        return _retentionMillis;
+    }
+
+    /**
+     * Sets how long the finished jobs are kept to be downloaded.
+     *
+     * @param retentionMillis   the time in milliseconds
+     */
+    public void setRetentionMillis(long retentionMillis) {
+        _retentionMillis = retentionMillis;
+    }
+
+    /**
+     * @return   number of jobs being rendered
+     */
+    public int getRunningCount() {
+        return _executor.getActiveCount();
+    }
+
+    /**
+     * @return   number of jobs waiting for a thread
+     */
+    public int getQueuedCount() {
+        return _executor.getQueue().size();
+    }
+
+    /**
+     * Queues the export.
+     *
+     * @param rows  rows to be written, anything {@link PojoToCsvSerializer} accepts
+     * @param serializer  serializer to write the rows
+     * @param mediaType  media type of the export
+     * @param filename  name of the downloaded file
+     * @param projection  the columns to write, null for all of them
+     * @param rowClass  declared class of the rows, can be null
+     * @return   the job
+     * @throws RejectedExecutionException   if too many jobs are already running and queued
+     * @throws IOException   if the directory of the files can't be created
+     */
+    public CsvExportJob submit(final Object rows, final PojoToCsvSerializer serializer, MediaType mediaType,
+            String filename, final CsvProjection projection, final Class<?> rowClass) throws IOException {
+        purge();
+        final File directory = getOrCreateDirectory();
+        final CsvExportJob job = new CsvExportJob(UUID.randomUUID().toString(), mediaType, filename,
+                CsvRowRange.getSize(rows));
+        _jobs.put(job.getId(), job);
+        try {
+            job.setFuture(_executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    render(job, rows, serializer, projection, rowClass, directory.toPath());
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            _jobs.remove(job.getId());
+            closeRows(rows);
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * @param id  id of the job
+     * @return   the job or null if it is not known (or was already removed)
+     */
+    public CsvExportJob get(String id) {
+        return id == null ? null : _jobs.get(id);
+    }
+
+    /**
+     * Cancels the job and removes it with its file.
+     *
+     * @param id  id of the job
+     * @return   the removed job or null if it is not known
+     */
+    public CsvExportJob cancel(String id) {
+        final CsvExportJob job = (id == null ? null : _jobs.remove(id));
+        if( job == null ) {
+            return null;
+        }
+        final Future<?> future = job.getFuture();
+        if( future != null && future.cancel(true) && !job.isFinished() ) {
+            job.finished(CsvExportJob.State.CANCELLED);
+        }
+        deleteFile(job.getFile());
+        return job;
+    }
+
+    /**
+     * Removes the jobs finished before the retention time, called on every
+     * submission.
+     */
+    public void purge() {
+        final long expiredMillis = System.currentTimeMillis() - _retentionMillis;
+        for(CsvExportJob job : _jobs.values()) {
+            if( job.isFinished() && job.getFinishedMillis() < expiredMillis ) {
+                cancel(job.getId());
+            }
+        }
+    }
+
+    /**
+     * Stops the job threads, the jobs in progress are interrupted. All the
+     * jobs are removed with their files.
+     */
+    public void shutdown() {
+        _executor.shutdownNow();
+        for(String id : _jobs.keySet()) {
+            cancel(id);
+        }
+    }
+
+    private File getOrCreateDirectory() throws IOException {
+        File directory = _directory;
+        if( directory == null ) {
+            synchronized(this) {
+                directory = _directory;
+                if( directory == null ) {
+                    directory = Files.createTempDirectory("csv-export-jobs-").toFile();
+                    _directory = directory;
+                }
+            }
+        } else if( !directory.isDirectory() ) {
+            Files.createDirectories(directory.toPath());
+        }
+        return directory;
+    }
+
+    private void render(CsvExportJob job, Object rows, PojoToCsvSerializer serializer, CsvProjection projection,
+            Class<?> rowClass, Path directory) {
+        final Path partFile = directory.resolve(job.getId() + ".part");
+        final Path file = directory.resolve(job.getId() + ".export");
+        try {
+            if( job.getState() != CsvExportJob.State.QUEUED ) { // cancelled while queued
+                return;
+            }
+            job.started();
+            final Iterator<?> rowIterator = serializer.toRowIterator(rows);
+            final CountingOutputStream out = new CountingOutputStream(Files.newOutputStream(partFile), job);
+            try {
+                serializer.serialize(rowIterator == null ? rows : new CountingIterator(rowIterator, job),
+                        out, serializer.getFlushEveryRows(), projection, rowClass);
+            } finally {
+                out.close();
+            }
+            if( rowIterator == null && rows != null ) {
+                job.rowWritten();
+            }
+            Files.move(partFile, file, StandardCopyOption.ATOMIC_MOVE);
+            job.done(file, Files.size(file));
+            if( !_jobs.containsKey(job.getId()) ) { // cancelled while finishing
+                deleteFile(file);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "CSV export job " + job.getId() + " failed", e);
+            fail(job, e, partFile);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "CSV export job " + job.getId() + " failed", e);
+            fail(job, e, partFile);
+        } finally {
+            closeRows(rows);
+        }
+    }
+
+    private static void fail(CsvExportJob job, Exception e, Path partFile) {
+        deleteFile(partFile);
+        if( Thread.currentThread().isInterrupted() || e instanceof InterruptedIOException ) {
+            job.finished(CsvExportJob.State.CANCELLED);
+        } else {
+            job.failed(e.toString());
+        }
+    }
+
+    private static void deleteFile(Path file) {
+        if( file != null ) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private static void closeRows(Object rows) {
+        if( rows instanceof AutoCloseable ) { // streams and row sources
+            try {
+                ((AutoCloseable)rows).close();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to close rows of CSV export job", e);
+            }
+        }
+    }
+
+    /**
+     * Counts the rows read by the serializer and stops the job when it is
+     * cancelled.
+     */
+    private static final class CountingIterator implements Iterator<Object> {
+        private final Iterator<?> _rows;
+        private final CsvExportJob _job;
+
+        CountingIterator(Iterator<?> rows, CsvExportJob job) {
+            _rows = rows;
+            _job = job;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if( Thread.currentThread().isInterrupted() ) {
+                throw new UncheckedIOException(new InterruptedIOException("CSV export job cancelled"));
+            }
+            return _rows.hasNext();
+        }
+
+        @Override
+        public Object next() {
+            final Object row = _rows.next();
+            _job.rowWritten();
+            return row;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Counts the bytes written to the file.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private final CsvExportJob _job;
+
+        CountingOutputStream(OutputStream out, CsvExportJob job) {
+            super(out);
+            _job = job;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _job.bytesWritten(1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            _job.bytesWritten(length);
+        }
+    }
+
+    private static class JobThreadFactory implements ThreadFactory {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "csv-export-job-" + _count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1); // behind the interactive requests
+            return thread;
+        }
+    }
+}
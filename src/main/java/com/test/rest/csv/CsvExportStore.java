@@ -0,0 +1,434 @@
+package com.test.rest.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Store of encoded responses of {@link VersionedCsvEntity}s in the files of
+ * a local directory, for the large exports that are requested again and
+ * again unchanged. Least recently used files are deleted when the total
+ * size of the stored responses goes over the limit.
+ * </p><p>
+ * The key is the same as the key of the {@link EncodedResponseCache}, so
+ * the stored bytes are exactly what is sent to the client. A response is
+ * stored while it is written for the first time (see
+ * {@link #record(OutputStream, String)}): the copy goes to a {@code .part}
+ * file, which is forced to the disk and atomically renamed when the
+ * response is complete, so a stored file is always whole. A stored
+ * response is served from the file with {@link FileChannel#transferTo},
+ * without running the serializer.
+ * </p><p>
+ * Files of the stored responses survive restarts. The {@code .part} files
+ * left by a crash are deleted when the store is created.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvExportStore implements CacheStatistics {
+    private static final Logger LOGGER = Logger.getLogger(CsvExportStore.class.getName());
+    public static final String FILE_SUFFIX = ".export";
+    public static final String PART_SUFFIX = ".part";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path _directory;
+    private final long _maxBytes;
+    private long _minEntryBytes;
+    private final LinkedHashMap<String, Long> _entries; // file name to its size
+    private long _bytes;
+    private final Set<String> _recordedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+
+    /**
+     * Opens the store in the directory, deleting the partial files and
+     * indexing the files of the stored responses.
+     *
+     * @param directory  the directory, created if it does not exist
+     * @param maxBytes  maximum total size of the stored responses
+     * @throws IOException if the directory can't be created or read
+     */
+    public CsvExportStore(File directory, long maxBytes) throws IOException {
+        _directory = directory.toPath();
+        _maxBytes = maxBytes;
+        _entries = new LinkedHashMap<String, Long>(16, 0.75f, true); // access order
+        Files.createDirectories(_directory);
+        load();
+    }
+
+    private void load() throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> directory = Files.newDirectoryStream(_directory)) {
+            for(Path file : directory) {
+                final String name = file.getFileName().toString();
+                if( name.endsWith(PART_SUFFIX) ) {
+                    Files.deleteIfExists(file); // left by a crash
+                } else if( name.endsWith(FILE_SUFFIX) ) {
+                    files.add(file);
+                }
+            }
+        }
+
+        Collections.sort(files, new Comparator<Path>() { // least recently modified first
+            @Override
+            public int compare(Path file1, Path file2) {
+                return Long.compare(file1.toFile().lastModified(), file2.toFile().lastModified());
+            }
+        });
+        synchronized( _entries ) {
+            for(Path file : files) {
+                final long size = Files.size(file);
+                _entries.put(file.getFileName().toString(), size);
+                _bytes += size;
+            }
+            evict(null);
+        }
+    }
+
+    /**
+     * Returns the name of the file a response is stored in: the hash of the
+     * key, the key itself can be of any length and characters.
+     *
+     * @param key  the key, see {@link EncodedResponseCache#getKey}
+     * @return   the file name
+     */
+    public static String getFileName(String key) {
+        final byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+        final StringBuilder name = new StringBuilder(hash.length * 2 + FILE_SUFFIX.length());
+        for(byte b : hash) {
+            name.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+        }
+        return name.append(FILE_SUFFIX).toString();
+    }
+
+    /**
+     * Opens the stored response, counting a hit or a miss. The file stays
+     * readable through the channel even if it is evicted meanwhile.
+     *
+     * @param key  the key
+     * @return   channel to read the response from, to be closed by the caller, or null
+     */
+    public FileChannel open(String key) {
+        final String name = getFileName(key);
+        boolean stored;
+        synchronized( _entries ) {
+            stored = (_entries.get(name) != null);
+        }
+
+        FileChannel file = null;
+        if( stored ) {
+            try {
+                file = FileChannel.open(_directory.resolve(name), StandardOpenOption.READ);
+            } catch (IOException e) { // deleted from outside
+                remove(name);
+            }
+        }
+        (file == null ? _misses : _hits).incrementAndGet();
+        return file;
+    }
+
+    /**
+     * Sends the whole stored response to the stream, with
+     * {@link FileChannel#transferTo} to the stream's channel if it has one.
+     *
+     * @param file  the stored response, see {@link #open(String)}
+     * @param out  the stream to write to
+     * @return   number of bytes sent
+     * @throws IOException
+     */
+    public static long transferTo(FileChannel file, OutputStream out) throws IOException {
+        final WritableByteChannel target = (out instanceof WritableByteChannel ? (WritableByteChannel)out : Channels.newChannel(out));
+        final long size = file.size();
+        long position = 0;
+        while( position < size ) {
+            position += file.transferTo(position, size - position, target);
+        }
+        return size;
+    }
+
+    /**
+     * Wraps the stream to copy everything written to it into a partial file.
+     * When the response is complete, {@link Recording#complete()} publishes
+     * the file; the recording has to be {@link Recording#release() released}
+     * in any case.
+     *
+     * @param stream  the stream the response is written to
+     * @param key  the key to store the response under
+     * @return   the recording stream or null if the same response is being recorded by another request
+     * @throws IOException if the partial file can't be created
+     */
+    public Recording record(OutputStream stream, String key) throws IOException {
+        if( !_recordedKeys.add(key) ) {
+            return null;
+        }
+        try {
+            final String name = getFileName(key);
+            final Path part = Files.createTempFile(_directory, name + "-", PART_SUFFIX);
+            return new Recording(stream, key, name, part);
+        } catch (IOException e) {
+            _recordedKeys.remove(key);
+            throw e;
+        }
+    }
+
+    private void publish(String name, Path part, long size) throws IOException {
+        Files.move(part, _directory.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        synchronized( _entries ) {
+            final Long replaced = _entries.put(name, size);
+            _bytes += size - (replaced == null ? 0 : replaced);
+            evict(name);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files while over the limit, but the
+     * given one. Called holding the lock of the entries.
+     */
+    private void evict(String keptName) {
+        final Iterator<Map.Entry<String, Long>> eldest = _entries.entrySet().iterator();
+        while( _bytes > _maxBytes && eldest.hasNext() ) {
+            final Map.Entry<String, Long> entry = eldest.next();
+            if( entry.getKey().equals(keptName) ) {
+                continue;
+            }
+            eldest.remove();
+            _bytes -= entry.getValue();
+            _evictions.incrementAndGet();
+            delete(_directory.resolve(entry.getKey()));
+        }
+    }
+
+    private void remove(String name) {
+        synchronized( _entries ) {
+            final Long size = _entries.remove(name);
+            if( size != null ) {
+                _bytes -= size;
+            }
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Can't delete " + file, e);
+        }
+    }
+
+    /**
+     * Deletes all the stored responses.
+     */
+    public void clear() {
+        synchronized( _entries ) {
+            for(String name : _entries.keySet()) {
+                delete(_directory.resolve(name));
+            }
+            _entries.clear();
+            _bytes = 0;
+        }
+    }
+
+    public File getDirectory() {
+        return _directory.toFile();
+    }
+
+    public long getMaxBytes() {
+        return _maxBytes;
+    }
+
+    public long getMinEntryBytes() {
+        return _minEntryBytes;
+    }
+
+    /**
+     * Sets the minimum size of the stored responses, smaller ones are cheap
+     * enough to be written again. Zero by default.
+     *
+     * @param minEntryBytes   size in bytes
+     */
+    public void setMinEntryBytes(long minEntryBytes) {
+        _minEntryBytes = minEntryBytes;
+    }
+
+    /**
+     * Total size of the stored responses.
+     *
+     * @return   size in bytes
+     */
+    public long getBytes() {
+        synchronized( _entries ) {
+            return _bytes;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized( _entries ) {
+            return _entries.size();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _misses.get();
+    }
+
+    public long getEvictionCount() {
+        return _evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "{directory=" + _directory + ", entries=" + getEntryCount() + ", bytes=" + getBytes() + ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "}";
+    }
+
+    /**
+     * Passes the response through to the wrapped stream and copies it into
+     * the partial file. A failure of the copy, or a response bigger than the
+     * store, abandons the copy but not the response.
+     */
+    public final class Recording extends OutputStream {
+        private final OutputStream _out;
+        private final String _key;
+        private final String _name;
+        private final Path _part;
+        private FileChannel _channel;
+        private OutputStream _copy;
+        private long _size;
+
+        Recording(OutputStream out, String key, String name, Path part) throws IOException {
+            _out = out;
+            _key = key;
+            _name = name;
+            _part = part;
+            _channel = FileChannel.open(part, StandardOpenOption.WRITE);
+            _copy = new BufferedOutputStream(Channels.newOutputStream(_channel), COPY_BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            _out.write(b);
+            if( _copy != null ) {
+                copy(new byte[] { (byte)b }, 0, 1);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            _out.write(bytes, offset, length);
+            if( _copy != null ) {
+                copy(bytes, offset, length);
+            }
+        }
+
+        private void copy(byte[] bytes, int offset, int length) {
+            _size += length;
+            if( _size > _maxBytes ) {
+                abandon(); // too big to be stored
+                return;
+            }
+            try {
+                _copy.write(bytes, offset, length);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Can't store the export in " + _part, e);
+                abandon();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /**
+         * Does not close the wrapped stream.
+         */
+        @Override
+        public void close() throws IOException {
+            _out.flush();
+        }
+
+        /**
+         * Publishes the stored response, to be called when the whole
+         * response was written successfully.
+         */
+        public void complete() {
+            if( _copy == null ) {
+                return;
+            }
+            if( _size < _minEntryBytes ) {
+                abandon();
+                return;
+            }
+            try {
+                _copy.flush();
+                _channel.force(false); // the data is on the disk before the file is published
+                _copy.close();
+                _copy = null;
+                publish(_name, _part, _size);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Can't store the export in " + _part, e);
+                abandon();
+            }
+        }
+
+        /**
+         * Deletes the partial file if the response was not published.
+         */
+        public void release() {
+            abandon();
+            _recordedKeys.remove(_key);
+        }
+
+        private void abandon() {
+            if( _copy != null ) {
+                try {
+                    _channel.close();
+                } catch (IOException e) {
+                    // deleted anyway
+                }
+                _copy = null;
+            }
+            _channel = null;
+            delete(_part);
+        }
+    }
+}
@@ -2,27 +2,51 @@ package com.test.rest.csv;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.lang.reflect.TypeVariable;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * <p>Class to store configuration of how to convert objects of a class to
  * CSV fields.
+ * </p><p>
+ * The configuration is shared by all the requests. Resolution of a class
+ * to its mapping (and to the toString flag) is done once per class and
+ * cached, lookups of already resolved classes do not lock. Changing the
+ * configuration clears the cache.
+ * </p><p>
+ * Default POJO mappings are discovered without recursion, walking the
+ * properties with an explicit work stack. A property whose class is already
+ * being flattened on the way from the row (a cycle, like a parent of a
+ * node) is left out, its columns are already there. A property that would
+ * be nested deeper than {@link #getMaxPojoDepth()} is not flattened, it is
+ * written into a single column with toString. The cycles are cut once, when
+ * the class is resolved, the rows are not checked for them.
  * </p>
  * 
  * @author sergey
  */
 public class CsvMapperConfig {
-    private Class[] _toStringClasses;
-    private Class[] _pojoClasses;
-    private boolean pojoDefault;
-    private Map<Class, PojoAttributeMapping> _pojoAttibutes;
-    private boolean _writeHeaders;
+    public static final int DEFAULT_MAX_POJO_DEPTH = 8;
+
+    private volatile Class[] _toStringClasses;
+    private volatile Class[] _pojoClasses;
+    private volatile boolean pojoDefault;
+    private volatile Map<Class, PojoAttributeMapping> _pojoAttibutes;
+    private volatile boolean _writeHeaders;
+    private volatile int _maxPojoDepth = DEFAULT_MAX_POJO_DEPTH;
+    private final ConcurrentMap<Class, ClassResolution> _resolved;
+    private final LongAdder _resolvedHits = new LongAdder();
+    private final LongAdder _resolvedMisses = new LongAdder();
 
     public CsvMapperConfig() {
-        _pojoAttibutes = new HashMap<Class, PojoAttributeMapping>();
+        _pojoAttibutes = Collections.emptyMap();
+        _resolved = new ConcurrentHashMap<Class, ClassResolution>();
     }
 
     /**
@@ -39,7 +63,8 @@ public class CsvMapperConfig {
      *      properties - via getters - will be mapped to the csv fields that are 
      *      named the same), if a property is a POJO, it will be mapped according
      *      to the same rules (and it will be flatten out, so property fields will
-     *      be listed on the 'top' level)</li>
+     *      be listed on the 'top' level), down to {@link #getMaxPojoDepth()}
+     *      levels and cutting the cycles</li>
      * </ul>
      * </p><p>
      * 
@@ -47,62 +72,112 @@ public class CsvMapperConfig {
      * @return  a mapping that describes how to render an class instances as CSV rows
      */
     public PojoAttributeMapping getAttributeMapping(Class aClass) {
-        for( Class mappedClass : _pojoAttibutes.keySet() ) {
-            if( mappedClass.isAssignableFrom(aClass) ) {
-                return _pojoAttibutes.get(mappedClass);
+        return resolve(aClass).getMapping();
+    }
+
+    private ClassResolution resolve(Class aClass) {
+        ClassResolution resolution = _resolved.get(aClass);
+        if( resolution == null ) {
+            _resolvedMisses.increment();
+            // not computeIfAbsent - resolving an array resolves the class of its elements too
+            resolution = new ClassResolution(resolveAttributeMapping(aClass), resolveNeedsToString(aClass));
+            ClassResolution existing = _resolved.putIfAbsent(aClass, resolution);
+            if( existing != null ) {
+                resolution = existing;
             }
+        } else {
+            _resolvedHits.increment();
         }
-        
-        boolean needDefaultClass = true;
-        if( !pojoDefault ) {           
-            needDefaultClass = false;
-            if( _pojoClasses != null ) {
-                for(Class pojoClass : _pojoClasses) {
-                    if( aClass == pojoClass )  {
-                        needDefaultClass = true;
-                        break;
-                    }
-                }
+        return resolution;
+    }
+
+    /**
+     * Hits and misses of the cache of the resolved classes.
+     * 
+     * @return   the statistics
+     */
+    public CacheStatistics getResolutionStatistics() {
+        return new CacheStatistics() {
+            @Override
+            public long getHitCount() {
+                return _resolvedHits.sum();
             }
-        } else {
-            if( _toStringClasses != null ) {
-                for(Class strClass : _toStringClasses) {
-                    if( aClass == strClass )  {
-                        needDefaultClass = true;
-                        break;
-                    }
-                }
+
+            @Override
+            public long getMissCount() {
+                return _resolvedMisses.sum();
             }
+        };
+    }
+
+    private PojoAttributeMapping resolveAttributeMapping(Class aClass) {
+        final PojoAttributeMapping explicitMapping = getExplicitMapping(aClass);
+        if( explicitMapping != null ) {
+            return explicitMapping;
         }
-        
-        if( !needDefaultClass ) {
+        if( !needsDefaultMapping(aClass) ) {
             return null;
         }
 
         Class componentClass = aClass.getComponentType();
-        if( componentClass != null || aClass.isAssignableFrom(Collection.class) ) {
-            _pojoAttibutes.put(aClass, null);
-            if( componentClass != null ) {
-                aClass = componentClass;
-            } else {
-                TypeVariable[] typeParameters = aClass.getTypeParameters();                
-                if( typeParameters != null && typeParameters.length > 0 ) {
-                    aClass = typeParameters[0].getClass();
-                }
-            }
-            
-            if( aClass != null ) { // prepare classes for array/collection elements in advance
-                getAttributeMapping(aClass);
+        if( componentClass != null || Iterable.class.isAssignableFrom(aClass) ) {
+            if( componentClass != null && !componentClass.isPrimitive() ) { // prepare classes for array elements in advance
+                getAttributeMapping(componentClass);
             }
+            // elements of collections are only known from the generic type, see CsvTypes.getElementClass
             
             return null; // array/collection itself does not have a mapping
         }
         
-        PojoAttributeMapping defaultPojoMapping = getDefaultPojoMapping(aClass);
-        _pojoAttibutes.put(aClass, defaultPojoMapping);
-        
-        
-        return defaultPojoMapping;
+        return getDefaultPojoMapping(aClass);
+    }
+
+    private PojoAttributeMapping getExplicitMapping(Class aClass) {
+        final Map<Class, PojoAttributeMapping> pojoAttibutes = _pojoAttibutes;
+        for( Map.Entry<Class, PojoAttributeMapping> mapped : pojoAttibutes.entrySet() ) {
+            if( mapped.getKey().isAssignableFrom(aClass) ) {
+                return mapped.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the class without an explicit mapping gets the default
+     * one: a POJO class if the POJO is the default, but the toString
+     * classes, an explicit POJO class otherwise.
+     */
+    private boolean needsDefaultMapping(Class aClass) {
+        if( !pojoDefault ) {           
+            final Class[] pojoClasses = _pojoClasses;
+            if( pojoClasses != null ) {
+                for(Class pojoClass : pojoClasses) {
+                    if( aClass == pojoClass )  {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        final Class[] toStringClasses = _toStringClasses;
+        if( toStringClasses != null ) {
+            for(Class strClass : toStringClasses) {
+                if( aClass == strClass )  {
+                    return false;
+                }
+            }
+        }
+        return !isValueClass(aClass);
+    }
+
+    /**
+     * Classes written as a single value by the serializer, whatever the
+     * configuration.
+     */
+    private static boolean isValueClass(Class aClass) {
+        return aClass.isPrimitive() || aClass.isEnum() || CharSequence.class.isAssignableFrom(aClass)
+                || Number.class.isAssignableFrom(aClass) || aClass == Boolean.class || aClass == Character.class;
     }
 
     /**
@@ -111,8 +186,11 @@ public class CsvMapperConfig {
      * @param aClass  a class to use the mapping for
      * @param pojoAttributeMapping  a class properties to csv fields mapping
      */
-    public void setAttributeMapping(Class aClass, PojoAttributeMapping pojoAttributeMapping) {
-        this._pojoAttibutes.put(aClass, pojoAttributeMapping);
+    public synchronized void setAttributeMapping(Class aClass, PojoAttributeMapping pojoAttributeMapping) {
+        Map<Class, PojoAttributeMapping> pojoAttibutes = new LinkedHashMap<Class, PojoAttributeMapping>(_pojoAttibutes);
+        pojoAttibutes.put(aClass, pojoAttributeMapping);
+        _pojoAttibutes = pojoAttibutes;
+        _resolved.clear();
     }
 
     /**
@@ -134,9 +212,14 @@ public class CsvMapperConfig {
      * @return   true if class needs to be serialized as toString string, false otherwise
      */
     public boolean needsToString(Class aClass) {
+        return resolve(aClass).isToString();
+    }
+
+    private boolean resolveNeedsToString(Class aClass) {
         // Explicitly string?
-        if( _toStringClasses != null ) {
-            for( Class strClass : _toStringClasses ) {
+        final Class[] toStringClasses = _toStringClasses;
+        if( toStringClasses != null ) {
+            for( Class strClass : toStringClasses ) {
                 if( strClass.isAssignableFrom(aClass) ) {
                     return true;
                 }
@@ -144,9 +227,10 @@ public class CsvMapperConfig {
         }
 
         // Not a pojo by default, but might be explicit pojo
-        if( !pojoDefault && _pojoClasses != null ) {
+        final Class[] pojoClasses = _pojoClasses;
+        if( !pojoDefault && pojoClasses != null ) {
             // Explicitly pojo?
-            for( Class pojoClass : _pojoClasses ) {
+            for( Class pojoClass : pojoClasses ) {
                 if( pojoClass.isAssignableFrom(aClass) ) {
                     return false;
                 }
@@ -164,6 +248,7 @@ public class CsvMapperConfig {
      */
     public void setToStringClasses(Class ... toStringClasses) {
         _toStringClasses = toStringClasses;
+        _resolved.clear();
     }
 
     /**
@@ -186,6 +271,7 @@ public class CsvMapperConfig {
      */
     public void setPojoClasses(Class ... pojoClasses) {
         _pojoClasses = pojoClasses;
+        _resolved.clear();
     }
 
     /**
@@ -209,14 +295,33 @@ public class CsvMapperConfig {
      * If false, the objects are converted to CSV just as a single value
      * that is toString method response from the object.
      * </p><p>
-     * Set it to true with the caution. The serializer will go through the 
-     * deep recursion when writing out the objects.
+     * The nested properties are flattened down to {@link #getMaxPojoDepth()}
+     * levels, properties leading back to an object being flattened are
+     * left out.
      * </p>
      *
      * @param pojoDefault
      */
     public void setPojoDefault(boolean pojoDefault) {
         this.pojoDefault = pojoDefault;
+        _resolved.clear();
+    }
+
+    public int getMaxPojoDepth() {
+        return _maxPojoDepth;
+    }
+
+    /**
+     * Sets how deep the properties of the default POJO mappings are
+     * flattened, {@value #DEFAULT_MAX_POJO_DEPTH} by default. The properties
+     * nested deeper are written into a single column with toString, and so
+     * are the objects inside the collection fields.
+     * 
+     * @param maxPojoDepth   number of nested levels, 0 writes the properties of the rows only
+     */
+    public void setMaxPojoDepth(int maxPojoDepth) {
+        _maxPojoDepth = Math.max(maxPojoDepth, 0);
+        _resolved.clear();
     }
 
     /**
@@ -237,37 +342,123 @@ public class CsvMapperConfig {
         _writeHeaders = writeHeaders;
     }
 
+    /**
+     * Discovers the default mapping of the class: its public bean
+     * properties, the POJO ones flattened out, walking the properties with a
+     * work stack instead of recursion.
+     */
     private PojoAttributeMapping getDefaultPojoMapping(Class aClass) {
-        PojoAttributeMapping pojoMapping = new PojoAttributeMapping();
-        Method[] methods = aClass.getDeclaredMethods();
-        for(Method method : methods) {
-            if( !Modifier.isPublic(method.getModifiers()) ) {
-                continue; // ignore non public methods
-            }
-            String methodName = method.getName();
-            int prefixLen = 0;
-            if( methodName.startsWith("get") ) {
-                prefixLen = 3;
-            } else if( methodName.startsWith("is") ) {
-                prefixLen = 2;
-            }
-            if( prefixLen > 0 && methodName.length() > prefixLen ) {
-                String attrName = Character.toLowerCase(methodName.charAt(prefixLen)) + methodName.substring(prefixLen+1);                
-                PojoCsvAttribute attribute;
-                
+        final PojoAttributeMapping pojoMapping = new PojoAttributeMapping();
+        final int maxDepth = _maxPojoDepth;
+        final Deque<DiscoveredClass> work = new ArrayDeque<DiscoveredClass>();
+        work.push(new DiscoveredClass(aClass, pojoMapping, null));
+        while( !work.isEmpty() ) {
+            final DiscoveredClass discovered = work.pop();
+            for(Method method : discovered._beanClass.getDeclaredMethods()) {
+                final String attrName = getPropertyName(method);
+                if( attrName == null ) {
+                    continue;
+                }
+
                 PojoAttributeMapping attrMapping = null;
                 Class<?> attrClass = method.getReturnType();                
                 if( !attrClass.isPrimitive() && attrClass != String.class ) { // assuming single class loader
-                    attrMapping = getAttributeMapping(attrClass);
-                    attribute = new PojoCsvAttribute(attrName, attrMapping);
-                } else {
-                    attribute = new PojoCsvAttribute(attrName, attrName);
+                    attrMapping = getExplicitMapping(attrClass);
+                    if( attrMapping == null && needsDefaultMapping(attrClass) && !attrClass.isArray()
+                            && !Iterable.class.isAssignableFrom(attrClass) ) {
+                        if( discovered.isFlattening(attrClass) ) {
+                            continue; // a cycle
+                        }
+                        if( discovered._depth < maxDepth ) {
+                            attrMapping = new PojoAttributeMapping(); // filled when taken from the stack
+                            work.push(new DiscoveredClass(attrClass, attrMapping, discovered));
+                        }
+                    }
+                }
+                if( attrMapping != null ) {
+                    discovered._mapping.add(new PojoCsvAttribute(attrName, attrMapping));
+                } else { // a value, a toString class, a collection or a too deep object written into a single column
+                    discovered._mapping.add(new PojoCsvAttribute(attrName, attrName));
                 }
-                
-                pojoMapping.add(attribute);
             }
         }
         
         return pojoMapping;
     }
+
+    /**
+     * Returns the name of the bean property of the public getter (get/is),
+     * null if the method is not a getter.
+     */
+    private static String getPropertyName(Method method) {
+        final int modifiers = method.getModifiers();
+        if( !Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers) || method.getParameterTypes().length > 0
+                || method.getReturnType() == void.class || method.isBridge() ) {
+            return null;
+        }
+        String methodName = method.getName();
+        int prefixLen = 0;
+        if( methodName.startsWith("get") ) {
+            prefixLen = 3;
+        } else if( methodName.startsWith("is") ) {
+            prefixLen = 2;
+        }
+        if( prefixLen == 0 || methodName.length() == prefixLen ) {
+            return null;
+        }
+        return Character.toLowerCase(methodName.charAt(prefixLen)) + methodName.substring(prefixLen+1);
+    }
+
+    /**
+     * Class being flattened by {@link #getDefaultPojoMapping(Class)}, with
+     * the way it was reached from the row.
+     */
+    private static final class DiscoveredClass {
+        private final Class<?> _beanClass;
+        private final PojoAttributeMapping _mapping;
+        private final DiscoveredClass _parent;
+        private final int _depth;
+
+        DiscoveredClass(Class<?> beanClass, PojoAttributeMapping mapping, DiscoveredClass parent) {
+            _beanClass = beanClass;
+            _mapping = mapping;
+            _parent = parent;
+            _depth = (parent == null ? 0 : parent._depth + 1);
+        }
+
+        /**
+         * Returns true if the class is this one or one of the classes it is
+         * nested in, so flattening it again would never end.
+         */
+        boolean isFlattening(Class<?> beanClass) {
+            for(DiscoveredClass discovered = this; discovered != null; discovered = discovered._parent) {
+                if( discovered._beanClass == beanClass ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Cached result of resolving a class: its mapping (null for toString 
+     * classes, arrays and collections) and if it is rendered with toString.
+     */
+    private static final class ClassResolution {
+        private final PojoAttributeMapping _mapping;
+        private final boolean _toString;
+
+        ClassResolution(PojoAttributeMapping mapping, boolean toString) {
+            _mapping = mapping;
+            _toString = toString;
+        }
+
+        PojoAttributeMapping getMapping() {
+            return _mapping;
+        }
+
+        boolean isToString() {
+            return _toString;
+        }
+    }
 }
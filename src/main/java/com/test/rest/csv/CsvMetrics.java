@@ -0,0 +1,352 @@
+package com.test.rest.csv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * Metrics of the CSV exports: counts of the exports, rows (written by
+ * compiled plans or reflectively) and bytes, and histograms of the duration
+ * and of the time to the first byte, kept per media type and per class of
+ * the rows (see {@link ExportMetrics}). Hits and misses of the caches of
+ * the provider are published next to them (see {@link CacheStatistics}),
+ * with the state of the {@link CsvAdmissionControl}.
+ * </p><p>
+ * {@link PojoToCsvSerializer} records a serialization once it is done, the
+ * rows and the time of the first byte are collected by its
+ * {@link CsvByteEncoder}, so nothing is recorded per row. Recording does
+ * not lock, and does not allocate once the media type and the class were
+ * seen.
+ * </p><p>
+ * The metrics are published as MXBeans (see {@link #registerMBeans(MBeanServer)})
+ * and as text (see {@link #getReport()} and {@link CsvMetricsResource}).
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvMetrics implements CsvMetricsMXBean {
+    public static final String JMX_DOMAIN = "com.test.rest.csv";
+
+    private final ConcurrentMap<String, ConcurrentMap<Class<?>, ExportMetrics>> _exports;
+    private final Map<String, CacheStatistics> _caches;
+    private CsvAdmissionControl _admissionControl;
+    private final List<ObjectName> _registered;
+    private MBeanServer _mbeanServer;
+
+    public CsvMetrics() {
+        _exports = new ConcurrentHashMap<String, ConcurrentMap<Class<?>, ExportMetrics>>();
+        _caches = new LinkedHashMap<String, CacheStatistics>();
+        _registered = new ArrayList<ObjectName>();
+    }
+
+    /**
+     * Records a finished serialization.
+     *
+     * @param mediaType  media type of the output
+     * @param entity  the serialized object
+     * @param stream  the encoder the object was written through
+     * @param startNanos  {@link System#nanoTime()} when the serialization started
+     * @param failed  true if the serialization failed
+     */
+    public void record(String mediaType, Object entity, CsvByteEncoder stream, long startNanos, boolean failed) {
+        final long endNanos = System.nanoTime();
+        Class<?> rowClass = stream.getFirstRowClass();
+        if( rowClass == null ) { // no rows or a null first row
+            rowClass = entity == null ? Void.class : entity.getClass();
+        }
+        getExportMetrics(mediaType, rowClass).record(stream, startNanos, endNanos, failed);
+    }
+
+    /**
+     * Returns the metrics of the exports of the media type and the class of
+     * the rows, creating (and registering) them on the first call.
+     *
+     * @param mediaType  media type of the output
+     * @param rowClass  class of the rows
+     * @return   the metrics
+     */
+    public ExportMetrics getExportMetrics(String mediaType, Class<?> rowClass) {
+        ConcurrentMap<Class<?>, ExportMetrics> byClass = _exports.get(mediaType);
+        if( byClass == null ) {
+            byClass = new ConcurrentHashMap<Class<?>, ExportMetrics>();
+            ConcurrentMap<Class<?>, ExportMetrics> existing = _exports.putIfAbsent(mediaType, byClass);
+            if( existing != null ) {
+                byClass = existing;
+            }
+        }
+
+        ExportMetrics metrics = byClass.get(rowClass);
+        if( metrics == null ) {
+            metrics = new ExportMetrics(mediaType, rowClass);
+            ExportMetrics existing = byClass.putIfAbsent(rowClass, metrics);
+            if( existing != null ) {
+                return existing;
+            }
+            synchronized( _registered ) {
+                if( _mbeanServer != null ) {
+                    register(metrics, getObjectName(metrics));
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of all the exports recorded so far.
+     *
+     * @return   the metrics, sorted by media type and class
+     */
+    public List<ExportMetrics> getExportMetrics() {
+        List<ExportMetrics> all = new ArrayList<ExportMetrics>();
+        for(ConcurrentMap<Class<?>, ExportMetrics> byClass : _exports.values()) {
+            all.addAll(byClass.values());
+        }
+        Collections.sort(all, new Comparator<ExportMetrics>() {
+            @Override
+            public int compare(ExportMetrics left, ExportMetrics right) {
+                int result = left.getMediaType().compareTo(right.getMediaType());
+                return result != 0 ? result : left.getRowClass().compareTo(right.getRowClass());
+            }
+        });
+        return all;
+    }
+
+    /**
+     * Adds a cache to be published together with the exports.
+     *
+     * @param name  name of the cache
+     * @param statistics  hit and miss counters of the cache
+     */
+    public void addCacheStatistics(String name, CacheStatistics statistics) {
+        synchronized( _registered ) {
+            _caches.put(name, statistics);
+            if( _mbeanServer != null ) {
+                register(new CacheMetrics(name, statistics), getCacheObjectName(name));
+            }
+        }
+    }
+
+    /**
+     * Sets the admission control to be published, replacing the previous
+     * one.
+     *
+     * @param admissionControl  the admission control or null
+     */
+    public void setAdmissionControl(CsvAdmissionControl admissionControl) {
+        synchronized( _registered ) {
+            if( _mbeanServer != null && _admissionControl != null ) {
+                unregister(getObjectName("CsvAdmission"));
+            }
+            _admissionControl = admissionControl;
+            if( _mbeanServer != null && admissionControl != null ) {
+                register(admissionControl, getObjectName("CsvAdmission"));
+            }
+        }
+    }
+
+    public CsvAdmissionControl getAdmissionControl() {
+        synchronized( _registered ) {
+            return _admissionControl;
+        }
+    }
+
+    public Map<String, CacheStatistics> getCacheStatistics() {
+        synchronized( _registered ) {
+            return new LinkedHashMap<String, CacheStatistics>(_caches);
+        }
+    }
+
+    @Override
+    public long getExports() {
+        long exports = 0;
+        for(ExportMetrics metrics : getExportMetrics()) {
+            exports += metrics.getExports();
+        }
+        return exports;
+    }
+
+    @Override
+    public long getFailures() {
+        long failures = 0;
+        for(ExportMetrics metrics : getExportMetrics()) {
+            failures += metrics.getFailures();
+        }
+        return failures;
+    }
+
+    @Override
+    public long getRows() {
+        long rows = 0;
+        for(ExportMetrics metrics : getExportMetrics()) {
+            rows += metrics.getRows();
+        }
+        return rows;
+    }
+
+    @Override
+    public long getBytes() {
+        long bytes = 0;
+        for(ExportMetrics metrics : getExportMetrics()) {
+            bytes += metrics.getBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String getReport() {
+        final StringBuilder text = new StringBuilder();
+        text.append("# exports\n");
+        for(ExportMetrics metrics : getExportMetrics()) {
+            metrics.appendTo(text);
+        }
+        text.append("# caches\n");
+        for(Map.Entry<String, CacheStatistics> cache : getCacheStatistics().entrySet()) {
+            final long hits = cache.getValue().getHitCount();
+            final long misses = cache.getValue().getMissCount();
+            text.append(cache.getKey()).append(": hits=").append(hits).append(" misses=").append(misses)
+                    .append(" hitRatio=").append(CacheMetrics.getHitRatio(hits, misses)).append('\n');
+        }
+        final CsvAdmissionControl admissionControl = getAdmissionControl();
+        if( admissionControl != null ) {
+            text.append("# admission\n");
+            admissionControl.appendTo(text);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Registers the MXBeans of the metrics: this object, every cache and
+     * every media type and class of the rows, including the ones seen later.
+     * Names already registered (i.e. by another instance of the provider)
+     * are skipped.
+     *
+     * @param mbeanServer  the server, e.g. the platform one
+     */
+    public void registerMBeans(MBeanServer mbeanServer) {
+        synchronized( _registered ) {
+            if( _mbeanServer != null ) {
+                return;
+            }
+            _mbeanServer = mbeanServer;
+
+            register(this, getObjectName("CsvMetrics"));
+            for(Map.Entry<String, CacheStatistics> cache : _caches.entrySet()) {
+                register(new CacheMetrics(cache.getKey(), cache.getValue()), getCacheObjectName(cache.getKey()));
+            }
+            if( _admissionControl != null ) {
+                register(_admissionControl, getObjectName("CsvAdmission"));
+            }
+            for(ExportMetrics metrics : getExportMetrics()) {
+                register(metrics, getObjectName(metrics));
+            }
+        }
+    }
+
+    /**
+     * Unregisters the MXBeans registered by {@link #registerMBeans(MBeanServer)}.
+     */
+    public void unregisterMBeans() {
+        synchronized( _registered ) {
+            if( _mbeanServer == null ) {
+                return;
+            }
+            for(ObjectName name : new ArrayList<ObjectName>(_registered)) {
+                unregister(name);
+            }
+            _mbeanServer = null;
+        }
+    }
+
+    private void register(Object mbean, ObjectName name) {
+        try {
+            _mbeanServer.registerMBean(mbean, name);
+            _registered.add(name);
+        } catch (InstanceAlreadyExistsException e) {
+            // another instance publishes under the same name
+        } catch (JMException e) {
+            //                            logger.error("Exception", e);
+        }
+    }
+
+    private void unregister(ObjectName name) {
+        if( !_registered.remove(name) ) {
+            return; // registered by another instance
+        }
+        try {
+            _mbeanServer.unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // already unregistered
+        } catch (JMException e) {
+            //                            logger.error("Exception", e);
+        }
+    }
+
+    private static ObjectName getObjectName(String type) {
+        return toObjectName(JMX_DOMAIN + ":type=" + type);
+    }
+
+    private static ObjectName getCacheObjectName(String name) {
+        return toObjectName(JMX_DOMAIN + ":type=CsvCache,name=" + ObjectName.quote(name));
+    }
+
+    private static ObjectName getObjectName(ExportMetrics metrics) {
+        return toObjectName(JMX_DOMAIN + ":type=CsvExport,mediaType=" + ObjectName.quote(metrics.getMediaType())
+                + ",rowClass=" + ObjectName.quote(metrics.getRowClass()));
+    }
+
+    private static ObjectName toObjectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(name, e);
+        }
+    }
+
+    /**
+     * Publishes a {@link CacheStatistics} as an MXBean.
+     */
+    private static final class CacheMetrics implements CacheMetricsMXBean {
+        private final String _name;
+        private final CacheStatistics _statistics;
+
+        CacheMetrics(String name, CacheStatistics statistics) {
+            _name = name;
+            _statistics = statistics;
+        }
+
+        @Override
+        public String getName() {
+            return _name;
+        }
+
+        @Override
+        public long getHitCount() {
+            return _statistics.getHitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return _statistics.getMissCount();
+        }
+
+        @Override
+        public double getHitRatio() {
+            return getHitRatio(getHitCount(), getMissCount());
+        }
+
+        static double getHitRatio(long hits, long misses) {
+            return hits + misses == 0 ? 0 : Math.round(hits * 10000.0 / (hits + misses)) / 10000.0;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.test.rest.csv;
+
+/**
+ * JMX view of the {@link CsvMetrics} totals.
+ *
+ * @author sergey
+ */
+public interface CsvMetricsMXBean {
+    long getExports();
+
+    long getFailures();
+
+    long getRows();
+
+    long getBytes();
+
+    /**
+     * @return   the whole report, as returned by the metrics resource
+     */
+    String getReport();
+}
@@ -0,0 +1,31 @@
+package com.test.rest.csv;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+
+/**
+ * Publishes the {@link CsvMetrics} of the {@link CsvObjectMapperProvider}
+ * as text, for the monitoring that does not read JMX.
+ *
+ * @author sergey
+ */
+@Path("/csv-metrics")
+public class CsvMetricsResource {
+
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public String report(@Context Providers providers) {
+        MessageBodyWriter<Object> csvWriter = providers.getMessageBodyWriter(Object.class, Object.class, null,
+                MediaType.valueOf(CsvObjectMapperProvider.TEXT_CSV));
+        if( !(csvWriter instanceof CsvObjectMapperProvider) || ((CsvObjectMapperProvider)csvWriter).getMetrics() == null ) {
+            throw new NotFoundException("CSV metrics are not collected");
+        }
+        return ((CsvObjectMapperProvider)csvWriter).getMetrics().getReport();
+    }
+}
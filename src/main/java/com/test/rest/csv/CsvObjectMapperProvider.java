@@ -2,17 +2,47 @@ package com.test.rest.csv;
 
 import com.test.rest.Person;
 import com.test.rest.UsAddress;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
 import java.lang.reflect.Type;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.BaseStream;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
+import org.glassfish.jersey.server.ChunkedOutput;
 
 /**
  * <p>
@@ -27,20 +57,111 @@ import javax.ws.rs.ext.Provider;
  * </p>
  * The provider has build in instructions ({@link CsvMapperConfig}) on how to 
  * serialize to CSV specific classes.
- * <p>
+ * </p><p>
+ * Large exports can be written asynchronously, see 
+ * {@link #writeAsync(Object, MediaType)}, or rendered into a file in the
+ * background and downloaded when done, see
+ * {@link #submitExport(Object, MediaType)}.
+ * </p><p>
+ * If the client accepts it, the output is compressed by the 
+ * {@link CsvCompression} stage (set it to null to disable compression).
+ * </p><p>
+ * Large arrays and lists are encoded in parallel by the common 
+ * {@link ForkJoinPool}.
+ * </p><p>
+ * Responses of {@link VersionedCsvEntity}s are cached by the
+ * {@link EncodedResponseCache} (set it to null to disable caching), the
+ * large ones can be stored on the disk by a {@link CsvExportStore}.
+ * </p><p>
+ * Small responses are held by the {@link CsvResponseBuffer} and sent with
+ * their {@code Content-Length}, larger ones are streamed (set it to null to
+ * always stream).
+ * </p><p>
+ * The writers take their output buffers from a shared {@link CsvBufferPool}.
+ * </p><p>
+ * The exports written at the same time are limited by the
+ * {@link CsvAdmissionControl}, globally and per client (set it to null to
+ * admit all of them).
+ * </p><p>
+ * Every export is recorded in the {@link CsvMetrics}, published over JMX
+ * and by the {@link CsvMetricsResource}.
+ * </p><p>
+ * Clients can select the columns to be written with the {@code columns}
+ * query parameter (see {@link CsvProjection}), and a window of the rows
+ * with the {@code offset} and {@code limit} query parameters or the
+ * {@code Range: rows=} header (see {@link CsvRowRange} and
+ * {@link CsvRowRangeFilter}).
+ * </p><p>
+ * The {@code application/vnd.openxmlformats-officedocument.spreadsheetml.sheet}
+ * media type ({@code format=xlsx}) is written as an Excel workbook by the
+ * {@link PojoToXlsxSerializer}, streamed with constant memory.
+ * </p><p>
+ * The CSV text is written in the {@link CsvDialect} requested by the
+ * client: the {@code text/tab-separated-values} media type
+ * ({@code format=tsv}) is written as {@link CsvDialect#TSV}, the
+ * {@code dialect} query parameter selects any other dialect. Every dialect
+ * has its own writer, created when it is first requested.
+ * </p><p>
+ * The provider also reads CSV request entities back into objects, using
+ * the same mappings (see {@link CsvToPojoDeserializer}). A resource method
+ * can take the rows as an array, a {@code List} or, to process large uploads
+ * without reading them into memory, as an {@code Iterator} or a 
+ * {@link CsvRowSource} that read the rows as they are consumed.
+ * </p>
  * 
  * @author sergey
  */
 @Provider
-@Produces({CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.APPLICATION_EXCEL })
+@Produces({CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.TEXT_TSV, CsvObjectMapperProvider.APPLICATION_EXCEL, CsvObjectMapperProvider.APPLICATION_XLSX })
+@Consumes({CsvObjectMapperProvider.TEXT_CSV, CsvObjectMapperProvider.APPLICATION_EXCEL })
 public class CsvObjectMapperProvider
-        implements MessageBodyWriter<Object>
+        implements MessageBodyWriter<Object>, MessageBodyReader<Object>
 {
+    private static final Logger LOGGER = Logger.getLogger(CsvObjectMapperProvider.class.getName());
+
     public static final String TEXT_CSV = "text/csv";
+    public static final String TEXT_TSV = "text/tab-separated-values";
     public static final String APPLICATION_EXCEL = "application/vnd.ms-excel";
+    public static final String APPLICATION_XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
     private static final Object FILENAME = "result.csv";
+    private static final Object XLSX_FILENAME = "result.xlsx";
+    private static final Object TSV_FILENAME = "result.tsv";
+    private static final int FLUSH_EVERY_ROWS = 1000;
+    private static final int ASYNC_PRODUCER_THREADS = 4;
+    private static final int ASYNC_QUEUED_EXPORTS = 32;
+    private static final int EXPORT_JOB_THREADS = 2;
+    private static final int QUEUED_EXPORT_JOBS = 16;
+    private static final int COMPRESSION_LEVEL = 6;
+    private static final int MAX_POOLED_DEFLATERS = 16;
+    private static final int RESPONSE_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final int RESPONSE_CACHE_ENTRY_BYTES = 8 * 1024 * 1024;
+    private static final int RESPONSE_CACHE_SIZE_HINT = 64 * 1024;
+    private static final int RESPONSE_BUFFER_BYTES = 64 * 1024;
+    private static final int OUTPUT_BUFFER_BYTES = 8192;
+    private static final int MAX_POOLED_OUTPUT_BUFFERS = 256;
+    private static final int MAX_EXPORT_COST = 2 * Runtime.getRuntime().availableProcessors();
+    private static final int MAX_EXPORTS_PER_CLIENT = 4;
+    private static final int MAX_QUEUED_EXPORTS = 64;
     private PojoToCsvSerializer _csvWriter;
     private PojoToCsvSerializer _excelWriter;
+    private final ConcurrentMap<CsvDialect, PojoToCsvSerializer> _dialectWriters = new ConcurrentHashMap<CsvDialect, PojoToCsvSerializer>();
+    private PojoToXlsxSerializer _xlsxWriter;
+    private CsvToPojoDeserializer _reader;
+    private CsvAsyncWriter _asyncWriter;
+    private CsvExportJobs _exportJobs;
+    private CsvCompression _compression;
+    private EncodedResponseCache _responseCache;
+    private CsvResponseBuffer _responseBuffer;
+    private CsvExportStore _exportStore;
+    private CsvBufferPool _bufferPool;
+    private CsvAdmissionControl _admissionControl;
+    private CsvMetrics _metrics;
+
+    @Context
+    private HttpHeaders _requestHeaders;
+
+    @Context
+    private javax.inject.Provider<ContainerRequestContext> _requestContext;
 
     private CsvMapperConfig _config;
 
@@ -53,13 +174,88 @@ public class CsvObjectMapperProvider
         _config.setWriteHeaders(true);        
         _config.setPojoDefault(false);
 
+        _bufferPool = new CsvBufferPool(OUTPUT_BUFFER_BYTES, MAX_POOLED_OUTPUT_BUFFERS);
+
         _csvWriter = new PojoToCsvSerializer(_config);
         _csvWriter.setImproveFormattingForExcel(false);
+        _csvWriter.setFlushEveryRows(FLUSH_EVERY_ROWS);
+        _csvWriter.setParallelPool(ForkJoinPool.commonPool());
+        _csvWriter.setBufferPool(_bufferPool);
 
         _excelWriter = new PojoToCsvSerializer(_config);
         _excelWriter.setImproveFormattingForExcel(true);        
+        _excelWriter.setFlushEveryRows(FLUSH_EVERY_ROWS);
+        _excelWriter.setParallelPool(ForkJoinPool.commonPool());
+        _excelWriter.setBufferPool(_bufferPool);
+
+        _xlsxWriter = new PojoToXlsxSerializer(_config);
+        _xlsxWriter.setFlushEveryRows(FLUSH_EVERY_ROWS);
+        _xlsxWriter.setParallelPool(ForkJoinPool.commonPool());
+        _xlsxWriter.setBufferPool(_bufferPool);
         
+        _reader = new CsvToPojoDeserializer(_config);
+
         addClassesCongigs(_config);
+
+        _asyncWriter = new CsvAsyncWriter(ASYNC_PRODUCER_THREADS, ASYNC_QUEUED_EXPORTS);
+        _exportJobs = new CsvExportJobs(EXPORT_JOB_THREADS, QUEUED_EXPORT_JOBS);
+        _compression = new CsvCompression(COMPRESSION_LEVEL, MAX_POOLED_DEFLATERS);
+        _responseCache = new EncodedResponseCache(RESPONSE_CACHE_BYTES, RESPONSE_CACHE_ENTRY_BYTES);
+        _responseBuffer = new CsvResponseBuffer(RESPONSE_BUFFER_BYTES, CsvResponseBuffer.DEFAULT_MAX_POOLED_BUFFERS);
+        _admissionControl = new CsvAdmissionControl(MAX_EXPORT_COST, MAX_EXPORTS_PER_CLIENT, MAX_QUEUED_EXPORTS);
+
+        _metrics = new CsvMetrics();
+        _csvWriter.setMetrics(_metrics, TEXT_CSV);
+        _excelWriter.setMetrics(_metrics, APPLICATION_EXCEL);
+        _xlsxWriter.setMetrics(_metrics, APPLICATION_XLSX);
+        _metrics.addCacheStatistics("mappings", _config.getResolutionStatistics());
+        _metrics.addCacheStatistics("csvRowPlans", _csvWriter.getRowPlanStatistics());
+        _metrics.addCacheStatistics("excelRowPlans", _excelWriter.getRowPlanStatistics());
+        _metrics.addCacheStatistics("xlsxRowPlans", _xlsxWriter.getRowPlanStatistics());
+        _metrics.addCacheStatistics("outputBuffers", _bufferPool);
+        _metrics.addCacheStatistics("encodedResponses", new CacheStatistics() {
+            @Override
+            public long getHitCount() {
+                final EncodedResponseCache responseCache = _responseCache; // can be replaced or disabled
+                return responseCache == null ? 0 : responseCache.getHitCount();
+            }
+
+            @Override
+            public long getMissCount() {
+                final EncodedResponseCache responseCache = _responseCache;
+                return responseCache == null ? 0 : responseCache.getMissCount();
+            }
+        });
+        _metrics.addCacheStatistics("storedExports", new CacheStatistics() {
+            @Override
+            public long getHitCount() {
+                final CsvExportStore exportStore = _exportStore;
+                return exportStore == null ? 0 : exportStore.getHitCount();
+            }
+
+            @Override
+            public long getMissCount() {
+                final CsvExportStore exportStore = _exportStore;
+                return exportStore == null ? 0 : exportStore.getMissCount();
+            }
+        });
+        _metrics.setAdmissionControl(_admissionControl);
+        _metrics.registerMBeans(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        _asyncWriter.shutdown();
+        if( _exportJobs != null ) {
+            _exportJobs.shutdown();
+        }
+        if( _compression != null ) {
+            _compression.clear();
+        }
+        if( _responseCache != null ) {
+            _responseCache.clear();
+        }
+        _metrics.unregisterMBeans();
     }
 
     private PojoAttributeMapping getPersonAttributeMapping() {
@@ -90,23 +286,661 @@ public class CsvObjectMapperProvider
         _config = config;
     }
 
+    public CsvCompression getCompression() {
+        return _compression;
+    }
+
+    /**
+     * Sets the compression stage, null disables compression.
+     * 
+     * @param compression   the compression stage or null
+     */
+    public void setCompression(CsvCompression compression) {
+        _compression = compression;
+    }
+
+    public EncodedResponseCache getResponseCache() {
+        return _responseCache;
+    }
+
+    /**
+     * Sets the cache of encoded {@link VersionedCsvEntity} responses, null 
+     * disables caching.
+     * 
+     * @param responseCache   the cache or null
+     */
+    public void setResponseCache(EncodedResponseCache responseCache) {
+        _responseCache = responseCache;
+    }
+
+    public CsvExportStore getExportStore() {
+        return _exportStore;
+    }
+
+    /**
+     * Sets the store of the {@link VersionedCsvEntity} responses on the
+     * disk, null (default) disables it. The responses small enough for the
+     * {@link EncodedResponseCache} are better left out of the store, see
+     * {@link CsvExportStore#setMinEntryBytes(long)}.
+     * 
+     * @param exportStore   the store or null
+     */
+    public void setExportStore(CsvExportStore exportStore) {
+        _exportStore = exportStore;
+    }
+
+    /**
+     * Returns the pool of the output buffers shared by the writers, its leak
+     * detection can be turned on with {@link CsvBufferPool#setLeakDetection(boolean)}.
+     * 
+     * @return   the pool
+     */
+    public CsvBufferPool getBufferPool() {
+        return _bufferPool;
+    }
+
+    public CsvResponseBuffer getResponseBuffer() {
+        return _responseBuffer;
+    }
+
+    /**
+     * Sets the buffer of the responses sent with their length, null streams
+     * all the responses.
+     * 
+     * @param responseBuffer   the buffer or null
+     */
+    public void setResponseBuffer(CsvResponseBuffer responseBuffer) {
+        _responseBuffer = responseBuffer;
+    }
+
+    public CsvAdmissionControl getAdmissionControl() {
+        return _admissionControl;
+    }
+
+    /**
+     * Sets the limits of the exports written at the same time, null admits
+     * all the exports. Cached and stored responses and the asynchronous
+     * exports (limited by their own threads) are not counted.
+     * 
+     * @param admissionControl   the admission control or null
+     */
+    public void setAdmissionControl(CsvAdmissionControl admissionControl) {
+        _admissionControl = admissionControl;
+        if( _metrics != null ) {
+            _metrics.setAdmissionControl(admissionControl);
+        }
+    }
+
+    public CsvMetrics getMetrics() {
+        return _metrics;
+    }
+
+    public CsvAsyncWriter getAsyncWriter() {
+        return _asyncWriter;
+    }
+
+    public CsvExportJobs getExportJobs() {
+        return _exportJobs;
+    }
+
+    /**
+     * Sets the background export jobs, null disables them.
+     * 
+     * @param exportJobs   the jobs or null
+     */
+    public void setExportJobs(CsvExportJobs exportJobs) {
+        _exportJobs = exportJobs;
+    }
+
+    public CsvToPojoDeserializer getReader() {
+        return _reader;
+    }
+
+    /**
+     * <p>Builds response that writes the rows asynchronously: the rows are
+     * encoded by the {@link CsvAsyncWriter} threads as the client reads them,
+     * the calling request thread is released right away.
+     * </p><p>
+     * To be returned from a resource method, the method can get the provider
+     * instance from {@code Providers.getMessageBodyWriter}.
+     * </p>
+     * 
+     * @param rows  the rows, anything that can be returned as a CSV entity
+     * @param mediaType  {@link #TEXT_CSV}, {@link #APPLICATION_EXCEL} or {@link #APPLICATION_XLSX}
+     * @return   the response, 503 if too many asynchronous exports are running
+     */
+    public Response writeAsync(Object rows, MediaType mediaType) {
+        final PojoToCsvSerializer writer;
+        final CsvRowRange rowRange;
+        try {
+            writer = getWriter(mediaType);
+            rowRange = getRowRange();
+        } catch (BadRequestException e) {
+            closeRows(rows);
+            throw e;
+        }
+        if( rows instanceof VersionedCsvEntity ) { // not cached, written as it is produced
+            rows = ((VersionedCsvEntity)rows).getEntity();
+        }
+        final ChunkedOutput<CsvChunk> output;
+        try {
+            output = _asyncWriter.write(rowRange == null ? rows : rowRange.select(rows), writer, getProjection());
+        } catch (RejectedExecutionException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        return Response.ok(output, mediaType)
+                .header("Content-Disposition", "attachment; filename=\"" + getFilename(mediaType) + "\"")
+                .build();
+    }
+
+    /**
+     * <p>Submits the rows to be rendered into a file by the
+     * {@link CsvExportJobs} in the background. The response is 202 Accepted
+     * with the status of the job, its {@code Location} is the status to be
+     * polled, see {@link CsvExportJobResource}.
+     * </p><p>
+     * The columns and the window of the rows selected by the client of the
+     * current request are applied to the job.
+     * </p>
+     * 
+     * @param rows  the rows, anything that can be returned as a CSV entity
+     * @param mediaType  {@link #TEXT_CSV}, {@link #APPLICATION_EXCEL} or {@link #APPLICATION_XLSX}
+     * @return   the response, 503 if too many jobs are running and queued
+     * @throws IOException   if the directory of the jobs can't be created
+     */
+    public Response submitExport(Object rows, MediaType mediaType) throws IOException {
+        final CsvExportJobs exportJobs = _exportJobs;
+        if( exportJobs == null ) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+        final PojoToCsvSerializer writer;
+        final CsvRowRange rowRange;
+        try {
+            writer = getWriter(mediaType);
+            rowRange = getRowRange();
+        } catch (BadRequestException e) {
+            closeRows(rows);
+            throw e;
+        }
+        if( rows instanceof VersionedCsvEntity ) {
+            rows = ((VersionedCsvEntity)rows).getEntity();
+        }
+        final CsvExportJob job;
+        try {
+            job = exportJobs.submit(rowRange == null ? rows : rowRange.select(rows), writer, mediaType,
+                    getFilename(mediaType).toString(), getProjection(), null);
+        } catch (RejectedExecutionException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        return Response.accepted(job.getReport())
+                .type(MediaType.TEXT_PLAIN_TYPE)
+                .location(getJobLocation(job))
+                .build();
+    }
+
+    private URI getJobLocation(CsvExportJob job) {
+        if( _requestContext == null ) {
+            return URI.create("csv-jobs/" + job.getId());
+        }
+        return _requestContext.get().getUriInfo().getBaseUriBuilder().path(CsvExportJobResource.class)
+                .path(job.getId()).build();
+    }
+
+    /**
+     * Prepares the CSV, Excel and xlsx writers for the rows of the class, 
+     * see {@link PojoToCsvSerializer#warmUp(Class, int)}. Called on the 
+     * application startup by the {@link CsvWarmUpListener}.
+     * 
+     * @param rowClass  class of the rows
+     * @param rows  number of synthetic rows each writer serializes, 0 to only prepare the mappings
+     * @return   true if the rows of the class are written by compiled plans
+     * @throws IOException 
+     */
+    public boolean warmUp(Class<?> rowClass, int rows) throws IOException {
+        boolean compiled = _csvWriter.warmUp(rowClass, rows);
+        compiled &= _excelWriter.warmUp(rowClass, rows);
+        compiled &= _xlsxWriter.warmUp(rowClass, rows);
+        return compiled;
+    }
+
+    /**
+     * Returns the columns selected by the client of the current request,
+     * see {@link AcceptsMimeTypeSetterFilter}.
+     * 
+     * @return   the projection or null to write all the columns
+     */
+    protected CsvProjection getProjection() {
+        if( _requestContext == null ) { // not injected, i.e. created outside of Jersey
+            return null;
+        }
+        final Object projection = _requestContext.get().getProperty(CsvProjection.PROPERTY_NAME);
+        return projection instanceof CsvProjection ? (CsvProjection)projection : null;
+    }
+
+    /**
+     * Returns the window of the rows requested by the client of the current
+     * request, see {@link AcceptsMimeTypeSetterFilter}.
+     * 
+     * @return   the range or null to write all the rows
+     * @throws BadRequestException   if the offset or limit is invalid
+     */
+    protected CsvRowRange getRowRange() {
+        if( _requestContext == null ) {
+            return null;
+        }
+        final Object rowRange = _requestContext.get().getProperty(CsvRowRange.PROPERTY_NAME);
+        if( rowRange instanceof IllegalArgumentException ) { // validated only by the CSV responses
+            throw new BadRequestException(((IllegalArgumentException)rowRange).getMessage());
+        }
+        return rowRange instanceof CsvRowRange ? (CsvRowRange)rowRange : null;
+    }
+
+    /**
+     * Closes the rows that are not written, the streams and row sources
+     * may hold a cursor.
+     */
+    private static void closeRows(Object rows) {
+        if( rows instanceof VersionedCsvEntity ) {
+            ((VersionedCsvEntity)rows).close();
+        } else if( rows instanceof AutoCloseable ) {
+            try {
+                ((AutoCloseable)rows).close();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to close rows", e);
+            }
+        }
+    }
+
     @Override
     public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
-        return true;
+        return !ChunkedOutput.class.isAssignableFrom(type); // written by Jersey, chunk by chunk
     }
 
     @Override
     public long getSize(Object o, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
-        return -1;
+        return -1; // not known before the rows are written, the length is set by the CsvResponseBuffer
     }
 
     @Override
     public void writeTo(Object o, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
-        httpHeaders.putSingle("Content-Disposition", "attachment; filename=\"" + FILENAME + "\"");
-        if( CsvObjectMapperProvider.APPLICATION_EXCEL.equals(mediaType.toString()) ) {
-            _excelWriter.serialize(o, entityStream);
-        } else {
-            _csvWriter.serialize(o, entityStream);
+        if( o instanceof CsvChunk ) { // part of asynchronous export, headers are already sent
+            ((CsvChunk)o).writeTo(entityStream);
+            return;
+        }
+        if( o instanceof CsvExportJob ) { // download of a finished job
+            writeJob((CsvExportJob)o, httpHeaders, entityStream);
+            return;
+        }
+
+        final CsvDialect dialect;
+        final PojoToCsvSerializer writer;
+        final CsvRowRange rowRange;
+        try {
+            dialect = getDialect(mediaType);
+            writer = getWriter(mediaType);
+            rowRange = getRowRange();
+        } catch (BadRequestException e) { // nothing is written yet
+            closeRows(o);
+            throw e;
+        }
+        httpHeaders.putSingle("Content-Disposition", "attachment; filename=\"" + getFilename(mediaType) + "\"");
+        final String format = getFormat(mediaType, dialect);
+        final CsvProjection projection = getProjection();
+        final Class<?> rowClass = getRowClass(type, genericType); // resolved once, not for every row
+
+        final CsvCompression compression = _compression;
+        final String contentEncoding = getContentEncoding(compression, mediaType,
+                _requestHeaders.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if( contentEncoding != null ) {
+            httpHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+            httpHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        OutputStream stream = entityStream;
+        EncodedResponseCache.RecordingStream recordingStream = null;
+        CsvExportStore.Recording storeRecording = null;
+        if( o instanceof VersionedCsvEntity ) {
+            final VersionedCsvEntity versionedEntity = (VersionedCsvEntity)o;
+            o = versionedEntity.getEntity();
+            final String key = EncodedResponseCache.getKey(versionedEntity, format, contentEncoding, projection, rowRange);
+
+            final EncodedResponseCache responseCache = _responseCache;
+            if( responseCache != null ) {
+                final byte[] cached = responseCache.get(key);
+                if( cached != null ) {
+                    versionedEntity.close(); // not written
+                    httpHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, cached.length);
+                    entityStream.write(cached);
+                    return;
+                }
+                recordingStream = responseCache.record(entityStream, key, RESPONSE_CACHE_SIZE_HINT);
+                stream = recordingStream;
+            }
+
+            final CsvExportStore exportStore = _exportStore;
+            if( exportStore != null ) {
+                final FileChannel stored = exportStore.open(key);
+                if( stored != null ) {
+                    versionedEntity.close(); // not written
+                    try {
+                        httpHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, stored.size());
+                        CsvExportStore.transferTo(stored, entityStream);
+                    } finally {
+                        stored.close();
+                    }
+                    return;
+                }
+                storeRecording = exportStore.record(stream, key);
+                if( storeRecording != null ) { // null if another request is storing it
+                    stream = storeRecording;
+                }
+            }
+        }
+
+        if( rowRange != null ) {
+            o = rowRange.select(o);
+        }
+
+        final CsvResponseBuffer responseBuffer = _responseBuffer;
+        final CsvResponseBuffer.BufferedResponse bufferedResponse =
+                (responseBuffer == null ? null : responseBuffer.open(stream, httpHeaders));
+        if( bufferedResponse != null ) {
+            stream = bufferedResponse;
+        }
+        final CsvAdmissionControl admissionControl = _admissionControl;
+        CsvAdmissionControl.Permit permit = null;
+        try {
+            if( admissionControl != null ) { // before anything is written, so the rejection is still a 503
+                permit = admissionControl.admit(admissionControl.getCost(o),
+                        admissionControl.getClientKey(_requestContext == null ? null : _requestContext.get()));
+            }
+            if( contentEncoding == null ) {
+                writer.serialize(o, stream, writer.getFlushEveryRows(), projection, rowClass);
+            } else {
+                final OutputStream compressedStream = compression.compress(stream, contentEncoding);
+                try {
+                    writer.serialize(o, compressedStream, compression.getFlushEveryRows(), projection, rowClass);
+                } finally {
+                    compressedStream.close(); // finishes compression, keeps the entity stream open
+                }
+            }
+            if( bufferedResponse != null ) {
+                bufferedResponse.complete();
+            }
+            if( storeRecording != null ) {
+                storeRecording.complete();
+            }
+        } finally {
+            if( permit != null ) {
+                permit.release();
+            }
+            if( bufferedResponse != null ) {
+                bufferedResponse.release();
+            }
+            if( storeRecording != null ) {
+                storeRecording.release();
+            }
+        }
+
+        if( recordingStream != null ) {
+            recordingStream.complete();
+        }
+    }
+
+    private static void writeJob(CsvExportJob job, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        httpHeaders.putSingle("Content-Disposition", "attachment; filename=\"" + job.getFilename() + "\"");
+        final FileChannel file;
+        try {
+            file = FileChannel.open(job.getFile());
+        } catch (NoSuchFileException e) { // removed since the download started
+            throw new WebApplicationException(Response.Status.GONE);
+        }
+        try {
+            httpHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, file.size());
+            CsvExportStore.transferTo(file, entityStream);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        if( isContainer(type) ) {
+            Class<?> elementClass = CsvTypes.getElementClass(type, genericType);
+            return elementClass != null && _reader.isReadable(elementClass);
+        }
+        return _reader.isReadable(type);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException, WebApplicationException {
+        final Charset charset = getCharset(mediaType);
+        final boolean single = !isContainer(type);
+        final Class<?> rowClass = single ? type : CsvTypes.getElementClass(type, genericType);
+        final LazyRows rows = new LazyRows(_reader.iterator(entityStream, charset, rowClass), entityStream);
+
+        if( (Class<?>)type == Iterator.class || (Class<?>)type == CsvRowSource.class ) {
+            return rows; // Closeable, so Jersey keeps the entity stream open for the resource
+        }
+
+        try {
+            if( single ) {
+                return rows.hasNext() ? rows.next() : null;
+            }
+
+            List<Object> list = new ArrayList<Object>();
+            while( rows.hasNext() ) {
+                list.add(rows.next());
+            }
+            if( type.isArray() ) {
+                return list.toArray((Object[])Array.newInstance(rowClass, list.size()));
+            }
+            return list;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the content encoding the response is compressed with.
+     *
+     * @param mediaType  media type of the response
+     * @param acceptEncoding  value of Accept-Encoding request header, can be null
+     * @return   the content encoding or null if the response is not compressed
+     */
+    public String getContentEncoding(MediaType mediaType, String acceptEncoding) {
+        return getContentEncoding(_compression, mediaType, acceptEncoding);
+    }
+
+    private static String getContentEncoding(CsvCompression compression, MediaType mediaType, String acceptEncoding) {
+        if( compression == null || "xlsx".equals(getFormat(mediaType)) ) { // xlsx is already deflated
+            return null;
+        }
+        return compression.negotiate(acceptEncoding);
+    }
+
+    /**
+     * Returns the declared class of the rows of a written entity, i.e.
+     * {@code Person} of {@code List<Person>} or {@code Person[]}.
+     * 
+     * @param type  class of the entity
+     * @param genericType  generic type of the entity, can be null
+     * @return   the class or null if the entity is not a collection of rows or the class is not known
+     */
+    private static Class<?> getRowClass(Class<?> type, Type genericType) {
+        if( type.isArray() || Iterable.class.isAssignableFrom(type) || Iterator.class.isAssignableFrom(type)
+                || BaseStream.class.isAssignableFrom(type) ) {
+            return CsvTypes.getElementClass(type, genericType);
+        }
+        return null;
+    }
+
+    /**
+     * Entity types the rows are read into, besides a single row.
+     */
+    private static boolean isContainer(Class<?> type) {
+        return type.isArray() || type == Iterator.class || type == CsvRowSource.class ||
+                (type != Object.class && type.isAssignableFrom(ArrayList.class));
+    }
+
+    private Charset getCharset(MediaType mediaType) {
+        String charset = mediaType.getParameters().get(MediaType.CHARSET_PARAMETER);
+        if( charset == null ) {
+            return null;
+        }
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalCharsetNameException e) {
+            throw new BadRequestException("Unsupported charset " + charset, e);
+        } catch (UnsupportedCharsetException e) {
+            throw new BadRequestException("Unsupported charset " + charset, e);
+        }
+    }
+
+    /**
+     * Returns the short name of the output format of the media type, the
+     * one of the {@code format} query parameter.
+     *
+     * @param mediaType  media type of the response
+     * @return   {@code xlsx}, {@code xls}, {@code tsv} or {@code csv}
+     */
+    public static String getFormat(MediaType mediaType) {
+        final String type = (mediaType == null ? TEXT_CSV : mediaType.getType() + "/" + mediaType.getSubtype());
+        if( APPLICATION_XLSX.equals(type) ) {
+            return "xlsx";
+        }
+        if( TEXT_TSV.equals(type) ) {
+            return "tsv";
+        }
+        return APPLICATION_EXCEL.equals(type) ? "xls" : "csv";
+    }
+
+    /**
+     * Returns the output format of the media type written in the dialect,
+     * the name of the dialect for the CSV not written in the default one.
+     * Responses of different formats are cached and tagged apart.
+     *
+     * @param mediaType  media type of the response
+     * @param dialect  the dialect requested by the client, null for the default one
+     * @return   the format
+     */
+    public static String getFormat(MediaType mediaType, CsvDialect dialect) {
+        final String format = getFormat(mediaType);
+        if( "csv".equals(format) && dialect != null && dialect != CsvDialect.DEFAULT ) {
+            return dialect.getName();
+        }
+        return format;
+    }
+
+    /**
+     * Returns the dialect of the CSV text of the current request, see
+     * {@link AcceptsMimeTypeSetterFilter}.
+     *
+     * @param mediaType  media type of the response
+     * @return   the dialect, {@link CsvDialect#DEFAULT} if not requested
+     */
+    protected CsvDialect getDialect(MediaType mediaType) {
+        if( "tsv".equals(getFormat(mediaType)) ) {
+            return CsvDialect.TSV;
+        }
+        if( _requestContext == null ) {
+            return CsvDialect.DEFAULT;
+        }
+        final Object dialect = _requestContext.get().getProperty(CsvDialect.PROPERTY_NAME);
+        return dialect instanceof CsvDialect ? (CsvDialect)dialect : CsvDialect.DEFAULT;
+    }
+
+    private PojoToCsvSerializer getWriter(MediaType mediaType) {
+        final String format = getFormat(mediaType);
+        if( "xlsx".equals(format) ) {
+            return _xlsxWriter;
+        }
+        if( "xls".equals(format) ) {
+            return _excelWriter;
+        }
+        final CsvDialect dialect = getDialect(mediaType);
+        return dialect == _csvWriter.getDialect() ? _csvWriter : getDialectWriter(dialect);
+    }
+
+    /**
+     * Returns the writer of the dialect, configured as the CSV writer.
+     */
+    private PojoToCsvSerializer getDialectWriter(CsvDialect dialect) {
+        PojoToCsvSerializer writer = _dialectWriters.get(dialect);
+        if( writer == null ) {
+            writer = new PojoToCsvSerializer(_config);
+            writer.setDialect(dialect);
+            writer.setCharset(_csvWriter.getCharset());
+            writer.setCompileRowPlans(_csvWriter.isCompileRowPlans());
+            writer.setFlushEveryRows(_csvWriter.getFlushEveryRows());
+            writer.setParallelPool(_csvWriter.getParallelPool());
+            writer.setParallelThreshold(_csvWriter.getParallelThreshold());
+            writer.setParallelChunkRows(_csvWriter.getParallelChunkRows());
+            writer.setMaxBufferedChunks(_csvWriter.getMaxBufferedChunks());
+            writer.setBufferPool(_csvWriter.getBufferPool());
+            writer.setMetrics(_metrics, dialect == CsvDialect.TSV ? TEXT_TSV : TEXT_CSV + ";dialect=" + dialect.getName());
+            final PojoToCsvSerializer existing = _dialectWriters.putIfAbsent(dialect, writer);
+            if( existing != null ) {
+                writer = existing;
+            }
+        }
+        return writer;
+    }
+
+    private static Object getFilename(MediaType mediaType) {
+        final String format = getFormat(mediaType);
+        if( "tsv".equals(format) ) {
+            return TSV_FILENAME;
+        }
+        return "xlsx".equals(format) ? XLSX_FILENAME : FILENAME;
+    }
+
+    /**
+     * Rows read as the resource consumes them. Rows that can't be read are
+     * reported as 400 Bad Request.
+     */
+    private static class LazyRows implements Iterator<Object>, CsvRowSource<Object> {
+        private final Iterator<?> _rows;
+        private final Closeable _input;
+
+        LazyRows(Iterator<?> rows, Closeable input) {
+            _rows = rows;
+            _input = input;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _rows.hasNext();
+        }
+
+        @Override
+        public Object next() {
+            try {
+                return _rows.next();
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object nextRow() throws IOException {
+            try {
+                return hasNext() ? next() : null;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            _input.close();
         }
     }
 
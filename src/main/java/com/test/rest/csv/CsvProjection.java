@@ -0,0 +1,105 @@
+package com.test.rest.csv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * Columns selected by the client, by their header names (the
+ * {@code columns} query parameter, see {@link AcceptsMimeTypeSetterFilter}).
+ * </p><p>
+ * The projection prunes the {@link PojoAttributeMapping}s (see
+ * {@link #prune(PojoAttributeMapping)}): attributes of unselected columns
+ * are left out, as well as nested objects none of whose columns are
+ * selected, so their getters are never called. The columns are written in
+ * the order of the mapping, names not matching any header are ignored.
+ * </p><p>
+ * Immutable, equal projections select the same columns.
+ * </p>
+ *
+ * @author sergey
+ */
+public final class CsvProjection {
+    /**
+     * Name of the request property the filter stores the projection in.
+     */
+    public static final String PROPERTY_NAME = CsvProjection.class.getName();
+
+    private final Set<String> _columns;
+    private final int _hashCode;
+
+    private CsvProjection(Set<String> columns) {
+        _columns = Collections.unmodifiableSet(columns);
+        _hashCode = columns.hashCode();
+    }
+
+    /**
+     * Parses comma separated header names.
+     *
+     * @param columns  the names, e.g. {@code FirstName,LastName}
+     * @return   the projection or null if no columns are listed
+     */
+    public static CsvProjection parse(String columns) {
+        if( columns == null ) {
+            return null;
+        }
+
+        Set<String> names = new LinkedHashSet<String>();
+        for(String name : columns.split(",")) {
+            name = name.trim();
+            if( !name.isEmpty() ) {
+                names.add(name);
+            }
+        }
+        return names.isEmpty() ? null : new CsvProjection(names);
+    }
+
+    public Set<String> getColumns() {
+        return _columns;
+    }
+
+    /**
+     * Returns a copy of the mapping with only the selected columns.
+     *
+     * @param mapping  the full mapping
+     * @return   the pruned mapping, without attributes if no column is selected
+     */
+    public PojoAttributeMapping prune(PojoAttributeMapping mapping) {
+        final List<PojoCsvAttribute> attributes = new ArrayList<PojoCsvAttribute>();
+        for(PojoCsvAttribute attribute : mapping.getPojoAttributes()) {
+            final PojoAttributeMapping childMapping = attribute.getAttributeMapping();
+            if( childMapping == null ) {
+                if( _columns.contains(attribute.getCsvHeaderName()) ) {
+                    attributes.add(attribute);
+                }
+            } else {
+                final PojoAttributeMapping prunedChild = prune(childMapping);
+                if( !prunedChild.getPojoAttributes().isEmpty() ) {
+                    attributes.add(new PojoCsvAttribute(attribute.getAttributeName()[0], prunedChild));
+                }
+            }
+        }
+
+        final PojoAttributeMapping pruned = new PojoAttributeMapping();
+        pruned.setPojoAttributes(attributes);
+        return pruned;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof CsvProjection && _columns.equals(((CsvProjection)o)._columns));
+    }
+
+    @Override
+    public int hashCode() {
+        return _hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return _columns.toString();
+    }
+}
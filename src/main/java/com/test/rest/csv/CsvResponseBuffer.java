@@ -0,0 +1,306 @@
+package com.test.rest.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * <p>
+ * Optional stage of the CSV/Excel output sending responses with an exact
+ * {@code Content-Length} instead of the chunked transfer encoding.
+ * </p><p>
+ * The output is held in a pooled buffer of {@link #getThresholdBytes()}
+ * bytes, a response that fits into it is sent at once with its length, so
+ * the small lookups cost a single write and no chunk framing. A larger
+ * response switches to streaming: the held bytes are written and the rest
+ * goes through as it is produced, flushed as usual.
+ * </p><p>
+ * With a spill limit (see {@link #setSpillLimitBytes(long)}) a larger
+ * response is written to a temporary file first and sent with its length
+ * too, so clients can show the progress of the download; only the
+ * responses over the limit are streamed. The first bytes of a spilled
+ * response reach the client only when the whole response is written.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvResponseBuffer {
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 32;
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+    private final int _thresholdBytes;
+    private final BlockingQueue<byte[]> _buffers;
+    private long _spillLimitBytes;
+    private File _spillDirectory;
+    private final LongAdder _bufferedCount = new LongAdder();
+    private final LongAdder _spilledCount = new LongAdder();
+    private final LongAdder _streamedCount = new LongAdder();
+
+    /**
+     * @param thresholdBytes  maximum size of the responses held in memory
+     * @param maxPooledBuffers  maximum number of idle buffers kept
+     */
+    public CsvResponseBuffer(int thresholdBytes, int maxPooledBuffers) {
+        if( thresholdBytes <= 0 ) {
+            throw new IllegalArgumentException("Invalid threshold: " + thresholdBytes);
+        }
+        _thresholdBytes = thresholdBytes;
+        _buffers = new ArrayBlockingQueue<byte[]>(Math.max(maxPooledBuffers, 1));
+    }
+
+    public int getThresholdBytes() {
+        return _thresholdBytes;
+    }
+
+    public long getSpillLimitBytes() {
+        return _spillLimitBytes;
+    }
+
+    /**
+     * Sets the maximum size of the responses spilled to a temporary file to
+     * be sent with their length. Zero (default) disables spilling, responses
+     * over the threshold are streamed.
+     *
+     * @param spillLimitBytes   the limit in bytes
+     */
+    public void setSpillLimitBytes(long spillLimitBytes) {
+        _spillLimitBytes = spillLimitBytes;
+    }
+
+    public File getSpillDirectory() {
+        return _spillDirectory;
+    }
+
+    /**
+     * Sets the directory of the temporary files, the default temporary
+     * directory if null.
+     *
+     * @param spillDirectory   the directory or null
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        _spillDirectory = spillDirectory;
+    }
+
+    /**
+     * @return   number of responses sent from the memory buffer
+     */
+    public long getBufferedCount() {
+        return _bufferedCount.sum();
+    }
+
+    /**
+     * @return   number of responses sent from a temporary file
+     */
+    public long getSpilledCount() {
+        return _spilledCount.sum();
+    }
+
+    /**
+     * @return   number of responses streamed without the length
+     */
+    public long getStreamedCount() {
+        return _streamedCount.sum();
+    }
+
+    /**
+     * Wraps the entity stream of a response. The returned stream must be
+     * {@link BufferedResponse#complete() completed} when the whole response
+     * is written and {@link BufferedResponse#release() released} in any case.
+     *
+     * @param out  the entity stream, nothing is written to it before the response is streamed or completed
+     * @param httpHeaders  headers of the response, the {@code Content-Length} is set on them
+     * @return   the stream to write the response to
+     */
+    public BufferedResponse open(OutputStream out, MultivaluedMap<String, Object> httpHeaders) {
+        return new BufferedResponse(out, httpHeaders);
+    }
+
+    private byte[] acquire() {
+        final byte[] buffer = _buffers.poll();
+        return buffer != null ? buffer : new byte[_thresholdBytes];
+    }
+
+    private void release(byte[] buffer) {
+        _buffers.offer(buffer); // dropped if the pool is full
+    }
+
+    /**
+     * Response held in the buffer or in the temporary file until it is
+     * complete or too big.
+     */
+    public final class BufferedResponse extends OutputStream {
+        private final OutputStream _out;
+        private final MultivaluedMap<String, Object> _httpHeaders;
+        private byte[] _buffer;
+        private int _count;
+        private Path _spillFile;
+        private OutputStream _spill;
+        private long _spilledBytes;
+        private boolean _streaming;
+
+        BufferedResponse(OutputStream out, MultivaluedMap<String, Object> httpHeaders) {
+            _out = out;
+            _httpHeaders = httpHeaders;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if( !_streaming && _spill == null && _buffer != null && _count < _buffer.length ) {
+                _buffer[_count++] = (byte)b;
+            } else {
+                write(new byte[] { (byte)b }, 0, 1);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if( _streaming ) {
+                _out.write(bytes, offset, length);
+                return;
+            }
+            if( _spill != null ) {
+                if( _spilledBytes + length > _spillLimitBytes ) {
+                    startStreaming();
+                    _out.write(bytes, offset, length);
+                } else {
+                    _spill.write(bytes, offset, length);
+                    _spilledBytes += length;
+                }
+                return;
+            }
+
+            if( _count + length <= _thresholdBytes ) {
+                if( _buffer == null ) {
+                    _buffer = acquire();
+                }
+                System.arraycopy(bytes, offset, _buffer, _count, length);
+                _count += length;
+                return;
+            }
+            if( _spillLimitBytes > _thresholdBytes ) {
+                startSpilling();
+            } else {
+                startStreaming();
+            }
+            write(bytes, offset, length);
+        }
+
+        private void startSpilling() throws IOException {
+            final File directory = _spillDirectory;
+            _spillFile = (directory == null ? Files.createTempFile("csv-response-", ".tmp")
+                    : Files.createTempFile(directory.toPath(), "csv-response-", ".tmp"));
+            _spill = new BufferedOutputStream(Files.newOutputStream(_spillFile), SPILL_BUFFER_SIZE);
+            if( _count > 0 ) {
+                _spill.write(_buffer, 0, _count);
+            }
+            _spilledBytes = _count;
+            releaseBuffer();
+        }
+
+        /**
+         * Writes what is held and lets the rest through.
+         */
+        private void startStreaming() throws IOException {
+            _streaming = true;
+            _streamedCount.increment();
+            if( _spill != null ) {
+                _spill.close();
+                _spill = null;
+                Files.copy(_spillFile, _out);
+                deleteSpillFile();
+            } else if( _count > 0 ) {
+                _out.write(_buffer, 0, _count);
+            }
+            releaseBuffer();
+        }
+
+        /**
+         * Flushes the streamed response, a held response is not flushed as
+         * its length is not known yet.
+         */
+        @Override
+        public void flush() throws IOException {
+            if( _streaming ) {
+                _out.flush();
+            }
+        }
+
+        /**
+         * Does not close the wrapped stream.
+         */
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * Sends the held response with its {@code Content-Length}, to be
+         * called when the whole response was written successfully.
+         *
+         * @throws IOException
+         */
+        public void complete() throws IOException {
+            if( _streaming ) {
+                return;
+            }
+            _streaming = true;
+            if( _spill != null ) {
+                _spill.close();
+                _spill = null;
+                _httpHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, _spilledBytes);
+                Files.copy(_spillFile, _out);
+                _spilledCount.increment();
+            } else {
+                _httpHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, _count);
+                if( _count > 0 ) {
+                    _out.write(_buffer, 0, _count);
+                }
+                _bufferedCount.increment();
+            }
+            release();
+        }
+
+        /**
+         * Returns the buffer to the pool and deletes the temporary file,
+         * whether the response was completed or failed.
+         */
+        public void release() {
+            releaseBuffer();
+            if( _spill != null ) {
+                try {
+                    _spill.close();
+                } catch (IOException e) {
+                    // the file is deleted anyway
+                }
+                _spill = null;
+            }
+            deleteSpillFile();
+        }
+
+        private void releaseBuffer() {
+            if( _buffer != null ) {
+                CsvResponseBuffer.this.release(_buffer);
+                _buffer = null;
+            }
+        }
+
+        private void deleteSpillFile() {
+            if( _spillFile != null ) {
+                try {
+                    Files.deleteIfExists(_spillFile);
+                } catch (IOException e) {
+                    _spillFile.toFile().deleteOnExit();
+                }
+                _spillFile = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.stream.BaseStream;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * Window of the rows to be exported: the rows to skip and the maximum
+ * number of rows to write. Requested with the {@code offset} and
+ * {@code limit} query parameters or with the {@code Range: rows=first-last}
+ * header (see {@link AcceptsMimeTypeSetterFilter}), so a client can resume
+ * a failed export from the last row it received, or download ranges of a
+ * large export in parallel.
+ * </p><p>
+ * The window is applied to the entity before it is serialized (see
+ * {@link #select(Object)}): arrays and random access lists are cut with
+ * {@link List#subList(int, int)}, lazy sources skip the rows before the
+ * window without writing them, so getters of the skipped rows are never
+ * called, and stop reading at the end of the window.
+ * </p><p>
+ * Immutable.
+ * </p>
+ *
+ * @author sergey
+ */
+public final class CsvRowRange {
+    /**
+     * Name of the request property the filter stores the range in.
+     */
+    public static final String PROPERTY_NAME = CsvRowRange.class.getName();
+    /**
+     * Range unit of the rows, in the {@code Range}, {@code Content-Range}
+     * and {@code Accept-Ranges} headers.
+     */
+    public static final String UNIT = "rows";
+    public static final String RANGE = "Range";
+    public static final String CONTENT_RANGE = "Content-Range";
+    public static final String ACCEPT_RANGES = "Accept-Ranges";
+    public static final long UNLIMITED = -1;
+
+    private final long _offset;
+    private final long _limit;
+    private final boolean _fromRangeHeader;
+
+    /**
+     * @param offset  number of rows to skip
+     * @param limit  maximum number of rows to write, {@link #UNLIMITED} for all the rest
+     * @param fromRangeHeader  true if requested with the {@code Range} header
+     */
+    public CsvRowRange(long offset, long limit, boolean fromRangeHeader) {
+        if( offset < 0 || limit < UNLIMITED ) {
+            throw new IllegalArgumentException("Invalid row range: offset " + offset + ", limit " + limit);
+        }
+        _offset = offset;
+        _limit = limit;
+        _fromRangeHeader = fromRangeHeader;
+    }
+
+    /**
+     * Parses the {@code offset} and {@code limit} query parameters.
+     *
+     * @param offset  the offset or null
+     * @param limit  the limit or null
+     * @return   the range or null if neither is given
+     * @throws IllegalArgumentException if a value is not a non-negative number
+     */
+    public static CsvRowRange parse(String offset, String limit) {
+        if( offset == null && limit == null ) {
+            return null;
+        }
+        return new CsvRowRange(offset == null ? 0 : parseRowNumber(offset),
+                limit == null ? UNLIMITED : parseRowNumber(limit), false);
+    }
+
+    /**
+     * Parses the {@code Range} header with the rows unit, i.e.
+     * {@code rows=100-199} (both inclusive) or {@code rows=100-}. Headers
+     * with other units, multiple ranges or suffix ranges are ignored.
+     *
+     * @param range  value of the header or null
+     * @return   the range or null if the header does not request a single range of rows
+     */
+    public static CsvRowRange parseRangeHeader(String range) {
+        if( range == null || !range.regionMatches(true, 0, UNIT + "=", 0, UNIT.length() + 1) ) {
+            return null;
+        }
+
+        final String spec = range.substring(UNIT.length() + 1).trim();
+        final int dash = spec.indexOf('-');
+        if( dash <= 0 || spec.indexOf(',') != -1 ) {
+            return null;
+        }
+        try {
+            final long first = parseRowNumber(spec.substring(0, dash).trim());
+            final String lastText = spec.substring(dash + 1).trim();
+            if( lastText.isEmpty() ) {
+                return new CsvRowRange(first, UNLIMITED, true);
+            }
+            final long last = parseRowNumber(lastText);
+            return last < first ? null : new CsvRowRange(first, last - first + 1, true);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long parseRowNumber(String text) {
+        final long number;
+        try {
+            number = Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid row number: " + text);
+        }
+        if( number < 0 ) {
+            throw new IllegalArgumentException("Invalid row number: " + text);
+        }
+        return number;
+    }
+
+    public long getOffset() {
+        return _offset;
+    }
+
+    /**
+     * @return   maximum number of rows, {@link #UNLIMITED} for all the rest
+     */
+    public long getLimit() {
+        return _limit;
+    }
+
+    /**
+     * @return   true if the range was requested with the {@code Range} header,
+     *      the response is then 206 Partial Content
+     */
+    public boolean isFromRangeHeader() {
+        return _fromRangeHeader;
+    }
+
+    /**
+     * Returns the rows of the window. Anything the {@link PojoToCsvSerializer}
+     * accepts can be passed, a single object is a single row.
+     *
+     * @param rows  the entity
+     * @return   the rows of the window, of a type the serializer accepts
+     */
+    public Object select(Object rows) {
+        if( rows == null ) {
+            return null;
+        }
+
+        final List list = toRandomAccessList(rows);
+        if( list != null ) {
+            final int size = list.size();
+            final int from = (int)Math.min(_offset, size);
+            final int to = (_limit == UNLIMITED ? size : (int)Math.min(from + _limit, size));
+            return list.subList(from, to);
+        }
+        if( rows instanceof Stream ) { // skip and limit keep the stream lazy and closeable
+            Stream stream = ((Stream)rows).skip(_offset);
+            return _limit == UNLIMITED ? stream : stream.limit(_limit);
+        }
+        if( rows instanceof CsvRowSource ) {
+            return new RowSourceWindow((CsvRowSource)rows);
+        }
+        if( rows instanceof Iterable ) {
+            return new IteratorWindow(((Iterable)rows).iterator());
+        }
+        if( rows instanceof Iterator ) {
+            return new IteratorWindow((Iterator)rows);
+        }
+        if( rows instanceof BaseStream ) {
+            return new IteratorWindow(((BaseStream)rows).iterator());
+        }
+        return _offset == 0 && _limit != 0 ? rows : new Object[0];
+    }
+
+    private static List toRandomAccessList(Object rows) {
+        if( rows instanceof Object[] ) {
+            return Arrays.asList((Object[])rows);
+        }
+        if( rows.getClass().isArray() ) {
+            return new PrimitiveArrayList(rows);
+        }
+        if( rows instanceof List && rows instanceof RandomAccess ) {
+            return (List)rows;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of the rows of the entity, if it is known without
+     * reading the rows.
+     *
+     * @param rows  the entity
+     * @return   number of rows or -1 if not known
+     */
+    public static long getSize(Object rows) {
+        if( rows == null ) {
+            return 0;
+        }
+        if( rows.getClass().isArray() ) {
+            return Array.getLength(rows);
+        }
+        if( rows instanceof Collection ) {
+            return ((Collection)rows).size();
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the {@code Content-Range} of the window, e.g.
+     * {@code rows 100-199/5000}. The last row and the total are {@code *}
+     * when they are not known before the rows are written.
+     *
+     * @param size  number of rows of the entity, -1 if not known
+     * @return   the header value
+     */
+    public String getContentRange(long size) {
+        final String total = (size < 0 ? "*" : Long.toString(size));
+        if( size >= 0 && (_offset >= size || _limit == 0) ) {
+            return UNIT + " */" + total; // nothing in the window
+        }
+
+        long end = (_limit == UNLIMITED ? -1 : _offset + _limit);
+        if( size >= 0 ) {
+            end = (end < 0 ? size : Math.min(end, size));
+        }
+        return UNIT + " " + _offset + "-" + (end < 0 ? "*" : Long.toString(end - 1)) + "/" + total;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if( this == o ) {
+            return true;
+        }
+        if( !(o instanceof CsvRowRange) ) {
+            return false;
+        }
+        CsvRowRange other = (CsvRowRange)o;
+        return _offset == other._offset && _limit == other._limit && _fromRangeHeader == other._fromRangeHeader;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int)(_offset * 31 + _limit);
+    }
+
+    /**
+     * @return   the range in the {@code Range} header syntax
+     */
+    @Override
+    public String toString() {
+        return UNIT + "=" + _offset + "-" + (_limit == UNLIMITED ? "" : Long.toString(_offset + _limit - 1));
+    }
+
+    /**
+     * Rows of a primitive array, boxed on access.
+     */
+    private static final class PrimitiveArrayList extends AbstractList implements RandomAccess {
+        private final Object _array;
+
+        PrimitiveArrayList(Object array) {
+            _array = array;
+        }
+
+        @Override
+        public Object get(int index) {
+            return Array.get(_array, index);
+        }
+
+        @Override
+        public int size() {
+            return Array.getLength(_array);
+        }
+    }
+
+    /**
+     * Skips the rows before the window on the first call, stops at the end
+     * of the window.
+     */
+    private final class IteratorWindow implements Iterator {
+        private final Iterator _rows;
+        private long _remaining = _limit;
+        private boolean _skipped;
+
+        IteratorWindow(Iterator rows) {
+            _rows = rows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if( !_skipped ) {
+                _skipped = true;
+                for(long i = 0; i < _offset && _rows.hasNext(); i++) {
+                    _rows.next();
+                }
+            }
+            return _remaining != 0 && _rows.hasNext();
+        }
+
+        @Override
+        public Object next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            if( _remaining > 0 ) {
+                _remaining--;
+            }
+            return _rows.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Same as {@link IteratorWindow}, for the row sources, closes the source.
+     */
+    private final class RowSourceWindow implements CsvRowSource {
+        private final CsvRowSource _rows;
+        private long _remaining = _limit;
+        private boolean _skipped;
+
+        RowSourceWindow(CsvRowSource rows) {
+            _rows = rows;
+        }
+
+        @Override
+        public Object nextRow() throws IOException {
+            if( !_skipped ) {
+                _skipped = true;
+                for(long i = 0; i < _offset; i++) {
+                    if( _rows.nextRow() == null ) {
+                        return null;
+                    }
+                }
+            }
+            if( _remaining == 0 ) {
+                return null;
+            }
+            if( _remaining > 0 ) {
+                _remaining--;
+            }
+            return _rows.nextRow();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _rows.close();
+        }
+    }
+}
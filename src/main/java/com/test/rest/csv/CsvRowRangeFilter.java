@@ -0,0 +1,58 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * <p>
+ * Executes on the CSV and Excel responses.
+ * </p><p>
+ * Advertises the rows range unit ({@code Accept-Ranges: rows}) and, if the
+ * request selected a window of the rows (see {@link CsvRowRange}), sets
+ * the {@code Content-Range} of the window. A window requested with the
+ * {@code Range} header is answered with 206 Partial Content.
+ * </p><p>
+ * The number of the rows is known only for arrays and collections, for lazy
+ * sources the total (and the last row of an open ended window) is
+ * {@code *}. A client resuming an export continues from the offset plus
+ * the number of the rows it received.
+ * </p>
+ *
+ * @author sergey
+ */
+@Provider
+public class CsvRowRangeFilter implements ContainerResponseFilter {
+    private static final MediaType TEXT_CSV_TYPE = MediaType.valueOf(CsvObjectMapperProvider.TEXT_CSV);
+    private static final MediaType TEXT_TSV_TYPE = MediaType.valueOf(CsvObjectMapperProvider.TEXT_TSV);
+    private static final MediaType APPLICATION_EXCEL_TYPE = MediaType.valueOf(CsvObjectMapperProvider.APPLICATION_EXCEL);
+    private static final MediaType APPLICATION_XLSX_TYPE = MediaType.valueOf(CsvObjectMapperProvider.APPLICATION_XLSX);
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        final MediaType mediaType = responseContext.getMediaType();
+        if( mediaType == null || (!TEXT_CSV_TYPE.isCompatible(mediaType) && !TEXT_TSV_TYPE.isCompatible(mediaType)
+                && !APPLICATION_EXCEL_TYPE.isCompatible(mediaType) && !APPLICATION_XLSX_TYPE.isCompatible(mediaType)) ) {
+            return;
+        }
+        responseContext.getHeaders().putSingle(CsvRowRange.ACCEPT_RANGES, CsvRowRange.UNIT);
+
+        final Object rowRange = requestContext.getProperty(CsvRowRange.PROPERTY_NAME);
+        if( !(rowRange instanceof CsvRowRange) || responseContext.getStatus() != Response.Status.OK.getStatusCode() ) {
+            return;
+        }
+
+        Object entity = responseContext.getEntity();
+        if( entity instanceof VersionedCsvEntity ) {
+            entity = ((VersionedCsvEntity)entity).getEntity();
+        }
+        responseContext.getHeaders().putSingle(CsvRowRange.CONTENT_RANGE, ((CsvRowRange)rowRange).getContentRange(CsvRowRange.getSize(entity)));
+        if( ((CsvRowRange)rowRange).isFromRangeHeader() ) {
+            responseContext.setStatus(Response.Status.PARTIAL_CONTENT.getStatusCode());
+        }
+    }
+}
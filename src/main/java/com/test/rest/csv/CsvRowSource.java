@@ -0,0 +1,26 @@
+package com.test.rest.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Pull style source of the rows to be serialized, i.e. a database cursor.
+ * </p><p>
+ * {@link PojoToCsvSerializer} asks for the rows one by one while writing
+ * them out, so the rows never have to be all in memory, and closes the
+ * source when it is done (or failed).
+ * </p>
+ *
+ * @param <T>  type of the rows
+ * @author sergey
+ */
+public interface CsvRowSource<T> extends Closeable {
+    /**
+     * Returns the next row.
+     *
+     * @return   the row, or null if there are no more rows
+     * @throws IOException   if the row can't be read
+     */
+    T nextRow() throws IOException;
+}
@@ -0,0 +1,227 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Reads CSV (or its Excel flavor) written by {@link PojoToCsvSerializer}
+ * back into objects, using the same {@link CsvMapperConfig} mappings.
+ * </p><p>
+ * If the configuration writes headers, the first record is expected to be
+ * the headers and the fields are bound to the properties by the header
+ * names, otherwise by position. Rows are read one at a time (see
+ * {@link #iterator(Reader, Class)}), so the input never has to fit in memory.
+ * </p><p>
+ * The mappings are compiled into {@link PojoRowReader}s once per class.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvToPojoDeserializer {
+    private static final Object NOT_READABLE = new Object();
+
+    private final CsvMapperConfig _config;
+    private final ConcurrentMap<Class<?>, Object> _rowReaders;
+    private Charset _charset = StandardCharsets.UTF_8;
+    private int _bufferSize = CsvTokenizer.DEFAULT_BUFFER_SIZE;
+
+    public CsvToPojoDeserializer(CsvMapperConfig config) {
+        _config = config;
+        _rowReaders = new ConcurrentHashMap<Class<?>, Object>();
+    }
+
+    public CsvMapperConfig getConfig() {
+        return _config;
+    }
+
+    public Charset getCharset() {
+        return _charset;
+    }
+
+    /**
+     * Sets the charset of the input used when it is not known from the
+     * request, UTF-8 by default.
+     *
+     * @param charset   the charset
+     */
+    public void setCharset(Charset charset) {
+        _charset = charset;
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    /**
+     * Sets size of the char buffer the input is read through.
+     *
+     * @param bufferSize   buffer size in chars
+     */
+    public void setBufferSize(int bufferSize) {
+        _bufferSize = bufferSize;
+    }
+
+    /**
+     * Checks if objects of the class can be read: the class has a mapping
+     * and a public no argument constructor.
+     *
+     * @param rowClass  class of the rows
+     * @return   true if the rows can be read
+     */
+    public boolean isReadable(Class<?> rowClass) {
+        return getRowReader(rowClass) != null;
+    }
+
+    /**
+     * Reads the rows lazily, a row is read from the stream only when it is
+     * requested from the iterator. The stream is not closed.
+     *
+     * @param inputStream  the CSV input
+     * @param charset  charset of the input, null for the default one
+     * @param rowClass  class of the rows
+     * @return   iterator over the rows, it throws {@link IllegalArgumentException}
+     *      if a row can't be read and {@link UncheckedIOException} if the input fails
+     */
+    public <T> Iterator<T> iterator(InputStream inputStream, Charset charset, Class<T> rowClass) {
+        return iterator(new InputStreamReader(inputStream, charset == null ? _charset : charset), rowClass);
+    }
+
+    /**
+     * Reads the rows lazily, a row is read only when it is requested from
+     * the iterator. The reader is not closed.
+     *
+     * @param reader  the CSV input
+     * @param rowClass  class of the rows
+     * @return   iterator over the rows, it throws {@link IllegalArgumentException}
+     *      if a row can't be read and {@link UncheckedIOException} if the input fails
+     */
+    public <T> Iterator<T> iterator(Reader reader, Class<T> rowClass) {
+        PojoRowReader rowReader = getRowReader(rowClass);
+        if( rowReader == null ) {
+            throw new IllegalArgumentException("No mapping to read " + rowClass.getName() + " from CSV");
+        }
+        return new RowIterator<T>(new CsvTokenizer(reader, _bufferSize), rowReader, rowClass, _config.isWriteHeaders());
+    }
+
+    /**
+     * Reads all the rows into a list.
+     *
+     * @param inputStream  the CSV input
+     * @param charset  charset of the input, null for the default one
+     * @param rowClass  class of the rows
+     * @return   the rows
+     * @throws IOException
+     * @throws IllegalArgumentException if a row can't be read
+     */
+    public <T> List<T> readList(InputStream inputStream, Charset charset, Class<T> rowClass) throws IOException {
+        List<T> rows = new ArrayList<T>();
+        try {
+            Iterator<T> iterator = iterator(inputStream, charset, rowClass);
+            while( iterator.hasNext() ) {
+                rows.add(iterator.next());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the compiled reader for rows of the class, compiling and
+     * caching it on the first call.
+     *
+     * @param rowClass  class of the rows
+     * @return   the reader or null if the rows can't be read
+     */
+    protected PojoRowReader getRowReader(Class<?> rowClass) {
+        final PojoAttributeMapping mapping = _config.getAttributeMapping(rowClass);
+        if( mapping == null ) {
+            return null;
+        }
+
+        Object rowReader = _rowReaders.get(rowClass);
+        if( rowReader instanceof PojoRowReader && ((PojoRowReader)rowReader).getMapping() == mapping ) {
+            return (PojoRowReader)rowReader;
+        }
+        if( rowReader == NOT_READABLE ) {
+            return null;
+        }
+
+        if( rowClass.isArray() || Iterable.class.isAssignableFrom(rowClass) || _config.needsToString(rowClass) ) {
+            rowReader = null;
+        } else {
+            rowReader = PojoRowReader.compile(rowClass, mapping);
+        }
+        _rowReaders.put(rowClass, rowReader == null ? NOT_READABLE : rowReader);
+
+        return (PojoRowReader)rowReader;
+    }
+
+    private static class RowIterator<T> implements Iterator<T> {
+        private final CsvTokenizer _tokenizer;
+        private final PojoRowReader _rowReader;
+        private final Class<T> _rowClass;
+        private final List<String> _fields;
+        private final Object[] _slots;
+        private boolean _readHeaders;
+        private PojoRowReader.Column[] _binding;
+        private Boolean _hasNext;
+
+        RowIterator(CsvTokenizer tokenizer, PojoRowReader rowReader, Class<T> rowClass, boolean readHeaders) {
+            _tokenizer = tokenizer;
+            _rowReader = rowReader;
+            _rowClass = rowClass;
+            _readHeaders = readHeaders;
+            _fields = new ArrayList<String>();
+            _slots = new Object[rowReader.getSlotCount()];
+        }
+
+        @Override
+        public boolean hasNext() {
+            if( _hasNext == null ) {
+                try {
+                    if( _readHeaders ) {
+                        _readHeaders = false;
+                        _binding = _tokenizer.readRecord(_fields) ? _rowReader.bind(_fields) : null;
+                    } else if( _binding == null ) {
+                        _binding = _rowReader.bindByPosition();
+                    }
+                    _hasNext = _tokenizer.readRecord(_fields);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return _hasNext;
+        }
+
+        @Override
+        public T next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            _hasNext = null;
+            try {
+                return _rowClass.cast(_rowReader.read(_fields, _binding, _slots));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Row " + _tokenizer.getRecordCount() + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
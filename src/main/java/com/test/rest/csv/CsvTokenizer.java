@@ -0,0 +1,172 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * <p>
+ * Incremental CSV tokenizer: reads the input in a single pass through a
+ * reused char buffer and returns one record at a time.
+ * </p><p>
+ * Handles quoted fields with escaped (doubled) quotes and line breaks, CRLF
+ * and LF line ends, and the Excel flavor written by
+ * {@link PojoToCsvSerializer} ({@code ="..."} fields). Empty lines are
+ * skipped.
+ * </p><p>
+ * Not thread safe.
+ * </p>
+ *
+ * @author sergey
+ */
+public class CsvTokenizer {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final char EXCEL_PREFIX = '=';
+    private static final char BOM = '\uFEFF';
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+    private static final int EXCEL_PREFIXED = 4;
+
+    private final Reader _reader;
+    private final char[] _buffer;
+    private final StringBuilder _field;
+    private int _position;
+    private int _limit;
+    private boolean _skipLineFeed;
+    private boolean _started;
+    private long _recordCount;
+
+    public CsvTokenizer(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvTokenizer(Reader reader, int bufferSize) {
+        _reader = reader;
+        _buffer = new char[bufferSize];
+        _field = new StringBuilder();
+    }
+
+    /**
+     * Number of records read so far.
+     *
+     * @return   record count
+     */
+    public long getRecordCount() {
+        return _recordCount;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @param fields  list to be filled with the fields of the record, it is cleared first
+     * @return   false if there are no more records
+     * @throws IOException
+     */
+    public boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        _field.setLength(0);
+
+        int state = FIELD_START;
+        boolean empty = true;
+        while( true ) {
+            if( _position == _limit && !fill() ) {
+                if( empty ) {
+                    return false;
+                }
+                if( state == EXCEL_PREFIXED ) {
+                    _field.append(EXCEL_PREFIX);
+                }
+                fields.add(_field.toString());
+                _recordCount++;
+                return true;
+            }
+
+            char c = _buffer[_position++];
+            if( _skipLineFeed ) {
+                _skipLineFeed = false;
+                if( c == '\n' ) {
+                    continue;
+                }
+            }
+            if( !_started ) {
+                _started = true;
+                if( c == BOM ) {
+                    continue;
+                }
+            }
+
+            if( state == QUOTED ) {
+                if( c == QUOTE ) {
+                    state = QUOTE_IN_QUOTED;
+                } else {
+                    _field.append(c);
+                }
+                continue;
+            }
+
+            if( c == SEPARATOR || c == '\n' || c == '\r' ) {
+                if( c != SEPARATOR && empty ) { // empty line
+                    _skipLineFeed = (c == '\r');
+                    continue;
+                }
+                if( state == EXCEL_PREFIXED ) {
+                    _field.append(EXCEL_PREFIX);
+                }
+                fields.add(_field.toString());
+                _field.setLength(0);
+                empty = false;
+                if( c == SEPARATOR ) {
+                    state = FIELD_START;
+                    continue;
+                }
+                _skipLineFeed = (c == '\r');
+                _recordCount++;
+                return true;
+            }
+
+            empty = false;
+            switch( state ) {
+                case FIELD_START:
+                    if( c == QUOTE ) {
+                        state = QUOTED;
+                    } else if( c == EXCEL_PREFIX ) {
+                        state = EXCEL_PREFIXED;
+                    } else {
+                        _field.append(c);
+                        state = UNQUOTED;
+                    }
+                    break;
+                case EXCEL_PREFIXED:
+                    if( c == QUOTE ) {
+                        state = QUOTED;
+                    } else {
+                        _field.append(EXCEL_PREFIX).append(c);
+                        state = UNQUOTED;
+                    }
+                    break;
+                case QUOTE_IN_QUOTED:
+                    _field.append(c); // escaped quote, or a text after the closing quote
+                    state = (c == QUOTE ? QUOTED : UNQUOTED);
+                    break;
+                default:
+                    _field.append(c);
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int count = _reader.read(_buffer, 0, _buffer.length);
+        if( count <= 0 ) {
+            return false;
+        }
+        _position = 0;
+        _limit = count;
+        return true;
+    }
+}
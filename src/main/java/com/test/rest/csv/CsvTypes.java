@@ -0,0 +1,55 @@
+package com.test.rest.csv;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+
+/**
+ * Resolves classes of the rows from the types JAX-RS gives to the providers.
+ *
+ * @author sergey
+ */
+final class CsvTypes {
+    private CsvTypes() {
+    }
+
+    /**
+     * Returns the class of the elements of an array, or of a generic
+     * container type like {@code List<Person>} or {@code Iterator<Person>}.
+     *
+     * @param type  raw type of the entity
+     * @param genericType  generic type of the entity, can be null
+     * @return   the element class or null if it is not known
+     */
+    static Class<?> getElementClass(Class<?> type, Type genericType) {
+        if( type.isArray() ) {
+            return type.getComponentType();
+        }
+        if( genericType instanceof ParameterizedType ) {
+            Type[] arguments = ((ParameterizedType)genericType).getActualTypeArguments();
+            if( arguments.length == 1 ) {
+                return toClass(arguments[0]);
+            }
+        }
+        return null;
+    }
+
+    private static Class<?> toClass(Type type) {
+        if( type instanceof Class ) {
+            return (Class<?>)type;
+        }
+        if( type instanceof ParameterizedType ) {
+            return toClass(((ParameterizedType)type).getRawType());
+        }
+        if( type instanceof WildcardType ) {
+            Type[] upperBounds = ((WildcardType)type).getUpperBounds();
+            return upperBounds.length == 1 ? toClass(upperBounds[0]) : null;
+        }
+        if( type instanceof GenericArrayType ) {
+            Class<?> componentClass = toClass(((GenericArrayType)type).getGenericComponentType());
+            return componentClass == null ? null : java.lang.reflect.Array.newInstance(componentClass, 0).getClass();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,207 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.BaseStream;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.Providers;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.model.Invocable;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.model.ResourceModel;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+/**
+ * <p>
+ * Warms the {@link CsvObjectMapperProvider} up when the application starts,
+ * before it takes any traffic, so the first export of a class does not pay
+ * for the introspection of the class and the compilation of its plans.
+ * </p><p>
+ * The classes of the rows are found in the resource model: return types of
+ * the resource methods producing CSV, Excel or xlsx, or the element types
+ * of the arrays, collections, iterators and streams they return (like the
+ * {@code Person} of {@code Stream<Person>}). Methods returning
+ * {@link Response} or a {@link VersionedCsvEntity} don't tell the class.
+ * </p><p>
+ * Set the {@value #WARM_UP_ROWS_PROPERTY} property (a {@code web.xml}
+ * init-param) to also serialize that many synthetic rows of every class,
+ * so the writers get compiled by the JIT too, or the
+ * {@value #WARM_UP_PROPERTY} property to {@code false} to disable the
+ * warm-up. The time spent on every class is logged.
+ * </p>
+ *
+ * @author sergey
+ */
+@Provider
+public class CsvWarmUpListener implements ApplicationEventListener {
+    private static final Logger LOGGER = Logger.getLogger(CsvWarmUpListener.class.getName());
+
+    /**
+     * Property enabling the warm-up, true by default.
+     */
+    public static final String WARM_UP_PROPERTY = "com.test.rest.csv.warmUp";
+    /**
+     * Property with the number of synthetic rows to serialize per class and
+     * writer, 0 by default.
+     */
+    public static final String WARM_UP_ROWS_PROPERTY = "com.test.rest.csv.warmUpRows";
+
+    private static final MediaType[] CSV_MEDIA_TYPES = {
+        MediaType.valueOf(CsvObjectMapperProvider.TEXT_CSV),
+        MediaType.valueOf(CsvObjectMapperProvider.APPLICATION_EXCEL),
+        MediaType.valueOf(CsvObjectMapperProvider.APPLICATION_XLSX),
+    };
+
+    @Context
+    private Providers _providers;
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+        if( event.getType() != ApplicationEvent.Type.INITIALIZATION_FINISHED
+                && event.getType() != ApplicationEvent.Type.RELOAD_FINISHED ) {
+            return;
+        }
+        final ResourceConfig config = event.getResourceConfig();
+        if( "false".equalsIgnoreCase(String.valueOf(config.getProperty(WARM_UP_PROPERTY))) ) {
+            return;
+        }
+
+        final MessageBodyWriter<Object> writer = _providers.getMessageBodyWriter(Object.class, Object.class,
+                new Annotation[0], CSV_MEDIA_TYPES[0]);
+        if( !(writer instanceof CsvObjectMapperProvider) ) {
+            LOGGER.warning("CSV warm-up skipped, the CSV writer is " + writer);
+            return;
+        }
+        warmUp((CsvObjectMapperProvider)writer, getRowClasses(event.getResourceModel()), getWarmUpRows(config));
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return null; // only the application events are of interest
+    }
+
+    /**
+     * Warms the provider up for every class, logging the time spent.
+     *
+     * @param provider  the provider
+     * @param rowClasses  classes of the rows
+     * @param rows  number of synthetic rows to serialize per class and writer
+     */
+    public void warmUp(CsvObjectMapperProvider provider, Set<Class<?>> rowClasses, int rows) {
+        final StringBuilder report = new StringBuilder();
+        final long startNanos = System.nanoTime();
+        for(Class<?> rowClass : rowClasses) {
+            final long classStartNanos = System.nanoTime();
+            String result;
+            try {
+                result = provider.warmUp(rowClass, rows) ? "compiled" : "reflective";
+            } catch (IOException e) {
+                result = "failed: " + e;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "CSV warm-up of " + rowClass.getName() + " failed", e);
+                result = "failed: " + e;
+            }
+            report.append("\n    ").append(rowClass.getName()).append(": ").append(result)
+                    .append(", ").append(toMillis(System.nanoTime() - classStartNanos)).append(" ms");
+        }
+
+        LOGGER.info("CSV warm-up of " + rowClasses.size() + " row classes"
+                + (rows > 0 ? " with " + rows + " synthetic rows" : "")
+                + " took " + toMillis(System.nanoTime() - startNanos) + " ms" + report);
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 100000.0) / 10.0;
+    }
+
+    private static int getWarmUpRows(ResourceConfig config) {
+        final Object rows = config.getProperty(WARM_UP_ROWS_PROPERTY);
+        if( rows == null ) {
+            return 0;
+        }
+        try {
+            return Math.max(Integer.parseInt(rows.toString().trim()), 0);
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid " + WARM_UP_ROWS_PROPERTY + ": " + rows);
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the classes of the rows the resource methods producing CSV
+     * return.
+     *
+     * @param resourceModel  the model of the application
+     * @return   the classes, in the order of the resources
+     */
+    public static Set<Class<?>> getRowClasses(ResourceModel resourceModel) {
+        final Set<Class<?>> rowClasses = new LinkedHashSet<Class<?>>();
+        addRowClasses(resourceModel.getResources(), rowClasses);
+        return rowClasses;
+    }
+
+    private static void addRowClasses(List<Resource> resources, Set<Class<?>> rowClasses) {
+        for(Resource resource : resources) {
+            for(ResourceMethod method : resource.getResourceMethods()) {
+                if( producesCsv(method) ) {
+                    final Invocable invocable = method.getInvocable();
+                    final Class<?> rowClass = getRowClass(invocable);
+                    if( isRowClass(rowClass) ) {
+                        rowClasses.add(rowClass);
+                    }
+                }
+            }
+            addRowClasses(resource.getChildResources(), rowClasses);
+        }
+    }
+
+    private static boolean producesCsv(ResourceMethod method) {
+        for(MediaType producedType : method.getProducedTypes()) {
+            for(MediaType csvMediaType : CSV_MEDIA_TYPES) {
+                if( csvMediaType.isCompatible(producedType) ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Class<?> getRowClass(Invocable invocable) {
+        final Class<?> type = invocable.getRawResponseType();
+        if( type == null ) {
+            return null;
+        }
+        if( type.isArray() || Iterable.class.isAssignableFrom(type) || Iterator.class.isAssignableFrom(type)
+                || BaseStream.class.isAssignableFrom(type) ) {
+            return CsvTypes.getElementClass(type, invocable.getResponseType());
+        }
+        return type;
+    }
+
+    /**
+     * Classes the rows can be created from: concrete classes but the
+     * standard ones and the wrappers of the responses.
+     */
+    private static boolean isRowClass(Class<?> rowClass) {
+        return rowClass != null && !rowClass.isPrimitive() && !rowClass.isArray() && !rowClass.isInterface()
+                && !Modifier.isAbstract(rowClass.getModifiers()) && !rowClass.getName().startsWith("java")
+                && !Response.class.isAssignableFrom(rowClass) && !ChunkedOutput.class.isAssignableFrom(rowClass)
+                && rowClass != VersionedCsvEntity.class;
+    }
+}
@@ -0,0 +1,61 @@
+package com.test.rest.csv;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ * Bounded pool of {@link Deflater}s of the same compression level and
+ * format.
+ * </p><p>
+ * A deflater holds native zlib state of a few hundred KB, allocating one
+ * per response is expensive and the native memory is freed only when the
+ * deflater is ended or finalized. Deflaters returned to the pool are
+ * reset and reused, the ones that don't fit into the pool are ended.
+ * </p>
+ *
+ * @author sergey
+ */
+public class DeflaterPool {
+    private final int _level;
+    private final boolean _nowrap;
+    private final BlockingQueue<Deflater> _deflaters;
+
+    /**
+     * @param level  compression level, 0-9
+     * @param nowrap  true for raw deflate (used inside gzip), false for zlib format
+     * @param maxPooled  maximum number of idle deflaters kept
+     */
+    public DeflaterPool(int level, boolean nowrap, int maxPooled) {
+        _level = level;
+        _nowrap = nowrap;
+        _deflaters = new ArrayBlockingQueue<Deflater>(maxPooled);
+    }
+
+    public int getLevel() {
+        return _level;
+    }
+
+    public Deflater acquire() {
+        Deflater deflater = _deflaters.poll();
+        return deflater != null ? deflater : new Deflater(_level, _nowrap);
+    }
+
+    public void release(Deflater deflater) {
+        deflater.reset();
+        if( !_deflaters.offer(deflater) ) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Ends all the pooled deflaters.
+     */
+    public void clear() {
+        Deflater deflater;
+        while( (deflater = _deflaters.poll()) != null ) {
+            deflater.end();
+        }
+    }
+}
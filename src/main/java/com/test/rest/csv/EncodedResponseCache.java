@@ -0,0 +1,255 @@
+package com.test.rest.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Cache of encoded responses of {@link VersionedCsvEntity}s, least recently
+ * used entries are evicted when the total size of the cached bytes goes over
+ * the limit.
+ * </p><p>
+ * The key is the version of the entity together with the flavor (CSV or
+ * Excel), the content encoding and the selected columns and rows, so the cached bytes are exactly what
+ * is sent to the client and a hit is served by copying them to the stream.
+ * A miss is recorded while the response is written (see
+ * {@link #record(OutputStream, String, int)}), responses bigger than
+ * the maximum entry size are not cached.
+ * </p>
+ *
+ * @author sergey
+ */
+public class EncodedResponseCache implements CacheStatistics {
+    public static final int DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private final long _maxBytes;
+    private final int _maxEntryBytes;
+    private final LinkedHashMap<String, byte[]> _entries;
+    private long _bytes;
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+
+    public EncodedResponseCache() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_MAX_BYTES / 4);
+    }
+
+    /**
+     * @param maxBytes  maximum total size of the cached responses
+     * @param maxEntryBytes  maximum size of a single cached response
+     */
+    public EncodedResponseCache(long maxBytes, int maxEntryBytes) {
+        _maxBytes = maxBytes;
+        _maxEntryBytes = (int)Math.min(maxEntryBytes, maxBytes);
+        _entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true); // access order
+    }
+
+    /**
+     * Builds the cache key.
+     *
+     * @param entity  the entity
+     * @param excel  true for the Excel flavor of the CSV
+     * @param contentEncoding  content encoding of the response, null if not compressed
+     * @return   the key
+     */
+    public static String getKey(VersionedCsvEntity entity, boolean excel, String contentEncoding) {
+        return getKey(entity, excel ? "xls" : "csv", contentEncoding, null, null);
+    }
+
+    /**
+     * Builds the cache key of the response with the selected columns and
+     * rows only.
+     *
+     * @param entity  the entity
+     * @param format  the format, e.g. {@code csv}, {@code xls} or {@code xlsx}
+     * @param contentEncoding  content encoding of the response, null if not compressed
+     * @param projection  the selected columns, null for all of them
+     * @param rowRange  the selected rows, null for all of them
+     * @return   the key
+     */
+    public static String getKey(VersionedCsvEntity entity, String format, String contentEncoding,
+            CsvProjection projection, CsvRowRange rowRange) {
+        return entity.getVersion() + "|" + format + "|" + (contentEncoding == null ? "identity" : contentEncoding)
+                + (projection == null ? "" : "|" + projection) + (rowRange == null ? "" : "|" + rowRange);
+    }
+
+    /**
+     * Returns the cached response, counting a hit or a miss.
+     *
+     * @param key  the key, see {@link #getKey(VersionedCsvEntity, boolean, String)}
+     * @return   the bytes to send or null
+     */
+    public byte[] get(String key) {
+        byte[] bytes;
+        synchronized( _entries ) {
+            bytes = _entries.get(key);
+        }
+        (bytes == null ? _misses : _hits).incrementAndGet();
+        return bytes;
+    }
+
+    /**
+     * Caches the response, evicting the least recently used ones if needed.
+     *
+     * @param key  the key
+     * @param bytes  encoded response
+     */
+    public void put(String key, byte[] bytes) {
+        if( bytes.length > _maxEntryBytes ) {
+            return;
+        }
+
+        synchronized( _entries ) {
+            byte[] replaced = _entries.put(key, bytes);
+            _bytes += bytes.length - (replaced == null ? 0 : replaced.length);
+
+            Iterator<Map.Entry<String, byte[]>> eldest = _entries.entrySet().iterator();
+            while( _bytes > _maxBytes && eldest.hasNext() ) {
+                Map.Entry<String, byte[]> entry = eldest.next();
+                if( entry.getValue() == bytes ) {
+                    break; // the new entry is the last one
+                }
+                eldest.remove();
+                _bytes -= entry.getValue().length;
+                _evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Wraps the stream to copy everything written to it, up to the maximum
+     * entry size. When the response is complete, {@link RecordingStream#complete()}
+     * caches the copy.
+     *
+     * @param stream  the stream the response is written to
+     * @param key  the key to cache the response under
+     * @param sizeHint  expected size of the response, to size the copy
+     * @return   the recording stream
+     */
+    public RecordingStream record(OutputStream stream, String key, int sizeHint) {
+        return new RecordingStream(stream, key, Math.min(Math.max(sizeHint, 256), _maxEntryBytes));
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        synchronized( _entries ) {
+            _entries.clear();
+            _bytes = 0;
+        }
+    }
+
+    public long getMaxBytes() {
+        return _maxBytes;
+    }
+
+    public int getMaxEntryBytes() {
+        return _maxEntryBytes;
+    }
+
+    /**
+     * Total size of the cached responses.
+     *
+     * @return   size in bytes
+     */
+    public long getBytes() {
+        synchronized( _entries ) {
+            return _bytes;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized( _entries ) {
+            return _entries.size();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _misses.get();
+    }
+
+    public long getEvictionCount() {
+        return _evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "{entries=" + getEntryCount() + ", bytes=" + getBytes() + ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "}";
+    }
+
+    /**
+     * Passes the response through to the wrapped stream and keeps its copy.
+     */
+    public final class RecordingStream extends OutputStream {
+        private final OutputStream _out;
+        private final String _key;
+        private ByteArrayOutputStream _copy;
+
+        RecordingStream(OutputStream out, String key, int initialSize) {
+            _out = out;
+            _key = key;
+            _copy = new ByteArrayOutputStream(initialSize);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            _out.write(b);
+            if( _copy != null ) {
+                _copy.write(b);
+                checkSize();
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            _out.write(bytes, offset, length);
+            if( _copy != null ) {
+                _copy.write(bytes, offset, length);
+                checkSize();
+            }
+        }
+
+        private void checkSize() {
+            if( _copy.size() > _maxEntryBytes ) {
+                _copy = null; // too big to be cached
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /**
+         * Does not close the wrapped stream.
+         */
+        @Override
+        public void close() throws IOException {
+            _out.flush();
+        }
+
+        /**
+         * Caches the recorded response, to be called when the whole response
+         * was written successfully.
+         */
+        public void complete() {
+            if( _copy != null ) {
+                put(_key, _copy.toByteArray());
+                _copy = null;
+            }
+        }
+    }
+}
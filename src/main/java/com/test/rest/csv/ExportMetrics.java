@@ -0,0 +1,155 @@
+package com.test.rest.csv;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Counters and latency histograms of the exports of a media type and a row
+ * class, see {@link CsvMetrics}.
+ * </p><p>
+ * Recording does not lock or allocate.
+ * </p>
+ *
+ * @author sergey
+ */
+public class ExportMetrics implements ExportMetricsMXBean {
+    private final String _mediaType;
+    private final Class<?> _rowClass;
+    private final LongAdder _exports = new LongAdder();
+    private final LongAdder _failures = new LongAdder();
+    private final LongAdder _rows = new LongAdder();
+    private final LongAdder _compiledRows = new LongAdder();
+    private final LongAdder _bytes = new LongAdder();
+    private final LatencyHistogram _duration = new LatencyHistogram();
+    private final LatencyHistogram _firstByte = new LatencyHistogram();
+
+    public ExportMetrics(String mediaType, Class<?> rowClass) {
+        _mediaType = mediaType;
+        _rowClass = rowClass;
+    }
+
+    /**
+     * Records a finished export.
+     *
+     * @param stream  the encoder the export was written through
+     * @param startNanos  {@link System#nanoTime()} when the export started
+     * @param endNanos  {@link System#nanoTime()} when the export ended
+     * @param failed  true if the export failed
+     */
+    public void record(CsvByteEncoder stream, long startNanos, long endNanos, boolean failed) {
+        _exports.increment();
+        if( failed ) {
+            _failures.increment();
+        }
+        _rows.add(stream.getRowCount());
+        _compiledRows.add(stream.getCompiledRowCount());
+        _bytes.add(stream.getByteCount());
+        _duration.record(endNanos - startNanos);
+        if( stream.getFirstWriteNanos() != 0 ) {
+            _firstByte.record(stream.getFirstWriteNanos() - startNanos);
+        }
+    }
+
+    @Override
+    public String getMediaType() {
+        return _mediaType;
+    }
+
+    @Override
+    public String getRowClass() {
+        return _rowClass.getName();
+    }
+
+    @Override
+    public long getExports() {
+        return _exports.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return _failures.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return _rows.sum();
+    }
+
+    @Override
+    public long getCompiledRows() {
+        return _compiledRows.sum();
+    }
+
+    @Override
+    public long getReflectiveRows() {
+        return getRows() - getCompiledRows();
+    }
+
+    @Override
+    public long getBytes() {
+        return _bytes.sum();
+    }
+
+    public LatencyHistogram getDuration() {
+        return _duration;
+    }
+
+    /**
+     * Time from the start of the export until the first bytes were written
+     * to the entity stream.
+     *
+     * @return   the histogram
+     */
+    public LatencyHistogram getFirstByte() {
+        return _firstByte;
+    }
+
+    @Override
+    public double getDurationMeanMillis() {
+        return LatencyHistogram.toMillis(_duration.getMeanNanos());
+    }
+
+    @Override
+    public double getDurationP50Millis() {
+        return LatencyHistogram.toMillis(_duration.getPercentileNanos(50));
+    }
+
+    @Override
+    public double getDurationP99Millis() {
+        return LatencyHistogram.toMillis(_duration.getPercentileNanos(99));
+    }
+
+    @Override
+    public double getDurationMaxMillis() {
+        return LatencyHistogram.toMillis(_duration.getMaxNanos());
+    }
+
+    @Override
+    public double getFirstByteP50Millis() {
+        return LatencyHistogram.toMillis(_firstByte.getPercentileNanos(50));
+    }
+
+    @Override
+    public double getFirstByteP99Millis() {
+        return LatencyHistogram.toMillis(_firstByte.getPercentileNanos(99));
+    }
+
+    /**
+     * Appends the metrics as text, a line per counters/histogram.
+     *
+     * @param text  builder to append to
+     * @return   the builder
+     */
+    public StringBuilder appendTo(StringBuilder text) {
+        text.append(_mediaType).append(' ').append(getRowClass())
+                .append(": exports=").append(getExports())
+                .append(" failures=").append(getFailures())
+                .append(" rows=").append(getRows())
+                .append(" compiledRows=").append(getCompiledRows())
+                .append(" reflectiveRows=").append(getReflectiveRows())
+                .append(" bytes=").append(getBytes()).append('\n');
+        _duration.appendTo(text.append("  duration: ")).append('\n');
+        _firstByte.appendTo(text.append("  firstByte: ")).append('\n');
+        return text;
+    }
+}
@@ -0,0 +1,36 @@
+package com.test.rest.csv;
+
+/**
+ * JMX view of the {@link ExportMetrics} of a media type and a row class.
+ *
+ * @author sergey
+ */
+public interface ExportMetricsMXBean {
+    String getMediaType();
+
+    String getRowClass();
+
+    long getExports();
+
+    long getFailures();
+
+    long getRows();
+
+    long getCompiledRows();
+
+    long getReflectiveRows();
+
+    long getBytes();
+
+    double getDurationMeanMillis();
+
+    double getDurationP50Millis();
+
+    double getDurationP99Millis();
+
+    double getDurationMaxMillis();
+
+    double getFirstByteP50Millis();
+
+    double getFirstByteP99Millis();
+}
@@ -0,0 +1,120 @@
+package com.test.rest.csv;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * <p>
+ * Histogram of durations with power of two buckets: bucket {@code i} counts
+ * the durations from 2<sup>i</sup> to 2<sup>i+1</sup>-1 nanoseconds.
+ * </p><p>
+ * Recording is lock free and does not allocate, percentiles are
+ * approximated by the upper bound of the bucket, i.e. they are at most
+ * twice the real value.
+ * </p>
+ *
+ * @author sergey
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder _count = new LongAdder();
+    private final LongAdder _sum = new LongAdder();
+    private final LongAccumulator _max = new LongAccumulator(MAX, 0);
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos  the duration in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        if( nanos < 0 ) {
+            nanos = 0;
+        }
+        _buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+        _count.increment();
+        _sum.add(nanos);
+        _max.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return _count.sum();
+    }
+
+    /**
+     * @return   the longest duration recorded, in nanoseconds
+     */
+    public long getMaxNanos() {
+        return _max.get();
+    }
+
+    /**
+     * @return   the average duration, in nanoseconds
+     */
+    public long getMeanNanos() {
+        long count = _count.sum();
+        return count == 0 ? 0 : _sum.sum() / count;
+    }
+
+    /**
+     * Returns the approximate percentile.
+     *
+     * @param percentile  the percentile, 0-100
+     * @return   upper bound of the duration in nanoseconds
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            buckets[i] = _buckets.get(i);
+            count += buckets[i];
+        }
+        if( count == 0 ) {
+            return 0;
+        }
+
+        long rank = (long)Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if( seen >= Math.max(rank, 1) ) {
+                return Math.min(i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Appends count, mean, percentiles and max in milliseconds.
+     *
+     * @param text  builder to append to
+     * @return   the builder
+     */
+    public StringBuilder appendTo(StringBuilder text) {
+        return text.append("count=").append(getCount())
+                .append(" mean=").append(toMillis(getMeanNanos()))
+                .append(" p50=").append(toMillis(getPercentileNanos(50)))
+                .append(" p99=").append(toMillis(getPercentileNanos(99)))
+                .append(" max=").append(toMillis(getMaxNanos()))
+                .append("ms");
+    }
+
+    static double toMillis(long nanos) {
+        return Math.round(nanos / (double)TimeUnit.MILLISECONDS.toNanos(1) * 1000) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+}
@@ -1,24 +1,32 @@
 package com.test.rest.csv;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
 * @author sergey
 */
 public class PojoAttributeMapping {
     private List<PojoCsvAttribute> _pojoAttributes;
+    private final ConcurrentMap<Class<?>, PojoGetterBinding> _getterBindings;
 
     public PojoAttributeMapping() {
         _pojoAttributes = new LinkedList<PojoCsvAttribute>();
+        _getterBindings = new ConcurrentHashMap<Class<?>, PojoGetterBinding>();
     }
 
     public void add(PojoCsvAttribute pojoCsvAttribute) {
         _pojoAttributes.add(pojoCsvAttribute);
+        _getterBindings.clear();
     }
 
     public void add(String csvHeaderName, String... attributeName) {
         _pojoAttributes.add(new PojoCsvAttribute(csvHeaderName, attributeName));
+        _getterBindings.clear();
     }
 
     public List<PojoCsvAttribute> getPojoAttributes() {
@@ -27,6 +35,48 @@ public class PojoAttributeMapping {
 
     public void setPojoAttributes(List<PojoCsvAttribute> pojoAttributes) {
         _pojoAttributes = pojoAttributes;
+        _getterBindings.clear();
+    }
+
+    /**
+     * Returns the number of CSV columns of the mapping, the attributes with
+     * a mapping of their own are flattened out.
+     * 
+     * @return   the column count
+     */
+    public int getColumnCount() {
+        int count = 0;
+        final Deque<PojoAttributeMapping> mappings = new ArrayDeque<PojoAttributeMapping>();
+        mappings.push(this);
+        while( !mappings.isEmpty() ) {
+            for(PojoCsvAttribute attribute : mappings.pop().getPojoAttributes()) {
+                if( attribute.getAttributeMapping() == null ) {
+                    count++;
+                } else {
+                    mappings.push(attribute.getAttributeMapping());
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns getters of the attributes resolved for the class, resolving
+     * them on the first call for the class.
+     * 
+     * @param beanClass  concrete class of the objects the mapping is applied to
+     * @return   the getters binding
+     */
+    public PojoGetterBinding getGetterBinding(Class<?> beanClass) {
+        PojoGetterBinding binding = _getterBindings.get(beanClass);
+        if( binding == null ) {
+            binding = PojoGetterBinding.bind(beanClass, this);
+            PojoGetterBinding existing = _getterBindings.putIfAbsent(beanClass, binding);
+            if( existing != null ) {
+                binding = existing;
+            }
+        }
+        return binding;
     }
 
     @Override
@@ -42,7 +42,10 @@ public class PojoCsvAttribute {
      * or fixed Objects to be used as a values (their toString, actually).
      * 
      * @return 
+     * @deprecated the serializer no longer stores getters in the attribute,
+     *      they are resolved per class, see {@link PojoAttributeMapping#getGetterBinding(Class)}
      */
+    @Deprecated
     public Object[] getGetter() {
         return _getter;
     }
@@ -53,7 +56,10 @@ public class PojoCsvAttribute {
      * expected).
      * 
      * @param getter   array of getter/values for the attribute or CSV field
+     * @deprecated the serializer no longer stores getters in the attribute,
+     *      they are resolved per class, see {@link PojoAttributeMapping#getGetterBinding(Class)}
      */
+    @Deprecated
     public void setGetter(Object[] getter) {
         _getter = getter;
     }
@@ -0,0 +1,103 @@
+package com.test.rest.csv;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * <p>
+ * Getters of a {@link PojoAttributeMapping} resolved for a concrete bean
+ * class.
+ * </p><p>
+ * The binding is immutable and is created once per mapping and class (see
+ * {@link PojoAttributeMapping#getGetterBinding(Class)}), so the same mapping
+ * can be used by concurrent requests and for different classes, i.e.
+ * for subclasses mixed in the same collection.
+ * </p>
+ *
+ * @author sergey
+ */
+public final class PojoGetterBinding {
+    private final Class<?> _beanClass;
+    private final PojoCsvAttribute[] _attributes;
+    private final Object[][] _getters;
+
+    private PojoGetterBinding(Class<?> beanClass, PojoCsvAttribute[] attributes, Object[][] getters) {
+        _beanClass = beanClass;
+        _attributes = attributes;
+        _getters = getters;
+    }
+
+    /**
+     * Resolves getters of all the mapping attributes on the class.
+     *
+     * @param beanClass  class of the beans
+     * @param mapping  the mapping to bind
+     * @return   the binding
+     */
+    static PojoGetterBinding bind(Class<?> beanClass, PojoAttributeMapping mapping) {
+        final List<PojoCsvAttribute> pojoAttributes = mapping.getPojoAttributes();
+        PojoCsvAttribute[] attributes = pojoAttributes.toArray(new PojoCsvAttribute[pojoAttributes.size()]);
+        Object[][] getters = new Object[attributes.length][];
+        for(int i = 0; i < attributes.length; i++) {
+            String[] attributeNames = attributes[i].getAttributeName();
+            getters[i] = new Object[attributeNames.length];
+            for(int j = 0; j < attributeNames.length; j++) {
+                getters[i][j] = resolveGetter(beanClass, attributeNames[j]);
+            }
+        }
+
+        return new PojoGetterBinding(beanClass, attributes, getters);
+    }
+
+    /**
+     * Finds public getter (get/is) for the attribute. If there is no getter,
+     * the attribute name (capitalized) is returned to be used as a fixed value.
+     *
+     * @param objectClass  class to find the getter in
+     * @param attributeName  bean property name
+     * @return   getter {@link Method} or attribute name
+     */
+    static Object resolveGetter(Class<?> objectClass, String attributeName) {
+        attributeName = attributeName.substring(0,1).toUpperCase() + (attributeName.length() == 1 ? "" : attributeName.substring(1));
+
+        try {
+            return objectClass.getMethod("get" + attributeName);
+        } catch (NoSuchMethodException e) {
+            try {
+                return objectClass.getMethod("is" + attributeName);
+            } catch (NoSuchMethodException ex) {
+                //throw new IllegalArgumentException("No getter (is/get) found for " + attributeName + " on " + objectClass.getSimpleName());
+                return attributeName;
+            }
+        }
+    }
+
+    public Class<?> getBeanClass() {
+        return _beanClass;
+    }
+
+    /**
+     * Attributes of the mapping at the time of binding.
+     *
+     * @return   the attributes
+     */
+    public PojoCsvAttribute[] getAttributes() {
+        return _attributes;
+    }
+
+    /**
+     * Either getter methods to get the values representing the attribute
+     * or fixed Objects to be used as a values (their toString, actually).
+     *
+     * @param attributeIndex  index of the attribute in {@link #getAttributes()}
+     * @return   getter {@link Method}s or fixed values
+     */
+    public Object[] getGetters(int attributeIndex) {
+        return _getters[attributeIndex];
+    }
+
+    @Override
+    public String toString() {
+        return "{" + _beanClass.getName() + ":" + _attributes.length + " attributes}";
+    }
+}
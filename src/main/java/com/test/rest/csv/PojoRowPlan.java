@@ -0,0 +1,300 @@
+package com.test.rest.csv;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * <p>
+ * Immutable, flattened form of a {@link PojoAttributeMapping} compiled for
+ * a concrete class of the rows.
+ * </p><p>
+ * The mapping tree is walked only once, when the plan is compiled (with a
+ * work stack, so deep mappings don't use up the thread stack). Nested
+ * object attributes (like an address of a person) become <i>loads</i> that
+ * read the nested object into a slot, and every CSV column becomes a
+ * {@link Column} with its accessors reading from those slots. Writing a row
+ * is then a loop over the loads followed by a loop over the columns, with
+ * no recursion and no {@code Method.invoke}.
+ * </p><p>
+ * Slot 0 always holds the row object itself.
+ * </p>
+ *
+ * @author sergey
+ */
+public final class PojoRowPlan {
+    private final Class<?> _rowClass;
+    private final PojoAttributeMapping _mapping;
+    private final Load[] _loads;
+    private final Column[] _columns;
+    private final int _slotCount;
+
+    private PojoRowPlan(Class<?> rowClass, PojoAttributeMapping mapping, Load[] loads, Column[] columns, int slotCount) {
+        _rowClass = rowClass;
+        _mapping = mapping;
+        _loads = loads;
+        _columns = columns;
+        _slotCount = slotCount;
+    }
+
+    /**
+     * <p>Compiles the mapping for the class of the rows.
+     * </p><p>
+     * Returns null if the mapping can't be flattened, i.e. a nested object
+     * attribute has no getter or its class is configured to be rendered
+     * with toString. Such rows are written by the reflective path of the
+     * {@link PojoToCsvSerializer}.
+     * </p>
+     *
+     * @param rowClass  concrete class of the rows
+     * @param mapping  mapping to compile
+     * @param config  configuration used to check for toString classes
+     * @return   the plan, or null if the mapping needs the reflective path
+     */
+    public static PojoRowPlan compile(Class<?> rowClass, PojoAttributeMapping mapping, CsvMapperConfig config) {
+        Compiler compiler = new Compiler(config);
+        if( !compiler.flatten(rowClass, mapping) ) {
+            return null;
+        }
+
+        return new PojoRowPlan(rowClass, mapping,
+                compiler._loads.toArray(new Load[compiler._loads.size()]),
+                compiler._columns.toArray(new Column[compiler._columns.size()]),
+                compiler._slotCount);
+    }
+
+    public Class<?> getRowClass() {
+        return _rowClass;
+    }
+
+    public PojoAttributeMapping getMapping() {
+        return _mapping;
+    }
+
+    /**
+     * Nested objects to be read into the slots, parents always come before
+     * their children.
+     *
+     * @return   the loads in execution order
+     */
+    public Load[] getLoads() {
+        return _loads;
+    }
+
+    /**
+     * CSV columns, in the order they are written.
+     *
+     * @return   the columns
+     */
+    public Column[] getColumns() {
+        return _columns;
+    }
+
+    /**
+     * Number of slots needed to write a row, including the slot of the row.
+     *
+     * @return   slot count
+     */
+    public int getSlotCount() {
+        return _slotCount;
+    }
+
+    /**
+     * Fills the slots for the row: slot 0 gets the row, the other slots get
+     * the nested objects (null if a parent is null or its getter failed).
+     *
+     * @param row  the row object
+     * @param slots  array of at least {@link #getSlotCount()} elements
+     */
+    public void load(Object row, Object[] slots) {
+        slots[0] = row;
+        for(Load load : _loads) {
+            Object parent = slots[load._parentSlot];
+            Object value = null;
+            if( parent != null ) {
+                try {
+                    value = load._accessor.get(parent);
+                } catch (RuntimeException e) {
+                    // nested object is left out, the same way the reflective path skips failing getters
+                }
+            }
+            slots[load._targetSlot] = value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "{" + _rowClass.getName() + ":" + _columns.length + " columns}";
+    }
+
+    /**
+     * Reads a nested object into a slot.
+     */
+    public static final class Load {
+        private final int _parentSlot;
+        private final PropertyAccessor _accessor;
+        private final int _targetSlot;
+
+        Load(int parentSlot, PropertyAccessor accessor, int targetSlot) {
+            _parentSlot = parentSlot;
+            _accessor = accessor;
+            _targetSlot = targetSlot;
+        }
+
+        public int getParentSlot() {
+            return _parentSlot;
+        }
+
+        public PropertyAccessor getAccessor() {
+            return _accessor;
+        }
+
+        public int getTargetSlot() {
+            return _targetSlot;
+        }
+    }
+
+    /**
+     * A single CSV column. Has one segment, or multiple segments when several
+     * properties are concatenated into the column.
+     */
+    public static final class Column {
+        private final String _header;
+        private final Segment[] _segments;
+
+        Column(String header, Segment[] segments) {
+            _header = header;
+            _segments = segments;
+        }
+
+        public String getHeader() {
+            return _header;
+        }
+
+        public Segment[] getSegments() {
+            return _segments;
+        }
+    }
+
+    /**
+     * A part of a column value: either a property read from a slot or a
+     * fixed text.
+     */
+    public static final class Segment {
+        private final int _slot;
+        private final PropertyAccessor _accessor;
+        private final Object _constant;
+
+        Segment(int slot, PropertyAccessor accessor, Object constant) {
+            _slot = slot;
+            _accessor = accessor;
+            _constant = constant;
+        }
+
+        public int getSlot() {
+            return _slot;
+        }
+
+        /**
+         * Accessor for the property, null if the segment is a fixed text.
+         *
+         * @return   the accessor
+         */
+        public PropertyAccessor getAccessor() {
+            return _accessor;
+        }
+
+        public Object getConstant() {
+            return _constant;
+        }
+
+        /**
+         * Returns the segment value for the row loaded into the slots. The
+         * value is null if the object holding the property is null.
+         *
+         * @param slots  slots filled by {@link PojoRowPlan#load(Object, Object[])}
+         * @return   the value
+         */
+        public Object getValue(Object[] slots) {
+            if( _accessor == null ) {
+                return _constant;
+            }
+            Object bean = slots[_slot];
+            return bean == null ? null : _accessor.get(bean);
+        }
+    }
+
+    private static class Compiler {
+        private final CsvMapperConfig _config;
+        private final List<Load> _loads = new ArrayList<Load>();
+        private final List<Column> _columns = new ArrayList<Column>();
+        private int _slotCount = 1;
+
+        Compiler(CsvMapperConfig config) {
+            _config = config;
+        }
+
+        /**
+         * Walks the mapping depth first, so the columns of a nested object
+         * come in place of its attribute and the loads of the parents come
+         * before the loads of their children.
+         */
+        boolean flatten(Class<?> rowClass, PojoAttributeMapping mapping) {
+            final Deque<Frame> stack = new ArrayDeque<Frame>();
+            stack.push(new Frame(mapping.getGetterBinding(rowClass), 0));
+            while( !stack.isEmpty() ) {
+                final Frame frame = stack.peek();
+                final PojoCsvAttribute[] attributes = frame._getterBinding.getAttributes();
+                if( frame._attributeIndex == attributes.length ) {
+                    stack.pop();
+                    continue;
+                }
+                final int attributeIndex = frame._attributeIndex++;
+                final PojoCsvAttribute attribute = attributes[attributeIndex];
+                final Object[] getters = frame._getterBinding.getGetters(attributeIndex);
+                PojoAttributeMapping childMapping = attribute.getAttributeMapping();
+                if( childMapping != null ) {
+                    Object getter = getters[0];
+                    if( !(getter instanceof Method) ) {
+                        return false;
+                    }
+                    Class<?> childClass = ((Method)getter).getReturnType();
+                    if( childClass.isPrimitive() || _config.needsToString(childClass) ) {
+                        return false;
+                    }
+
+                    int childSlot = _slotCount++;
+                    _loads.add(new Load(frame._slot, PropertyAccessor.forGetter((Method)getter), childSlot));
+                    stack.push(new Frame(childMapping.getGetterBinding(childClass), childSlot));
+                } else {
+                    Segment[] segments = new Segment[getters.length];
+                    for(int i = 0; i < getters.length; i++) {
+                        Object getter = getters[i];
+                        segments[i] = (getter instanceof Method) ?
+                                new Segment(frame._slot, PropertyAccessor.forGetter((Method)getter), null) :
+                                new Segment(frame._slot, null, getter);
+                    }
+                    _columns.add(new Column(attribute.getCsvHeaderName(), segments));
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Object of the mapping being flattened: its getters, its slot and the
+     * next attribute to flatten.
+     */
+    private static final class Frame {
+        private final PojoGetterBinding _getterBinding;
+        private final int _slot;
+        private int _attributeIndex;
+
+        Frame(PojoGetterBinding getterBinding, int slot) {
+            _getterBinding = getterBinding;
+            _slot = slot;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.test.rest.csv;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Immutable, flattened form of a {@link PojoAttributeMapping} compiled for
+ * reading CSV rows back into objects of a concrete class, the reverse of
+ * {@link PojoRowPlan}.
+ * </p><p>
+ * Every column that maps to a single bean property becomes a
+ * {@link Column} with the property setter. Nested object attributes become
+ * <i>nests</i>: the nested object is created (or taken from the parent, if
+ * the parent constructor already created it) only when one of its columns
+ * has a value. Columns combining several properties can't be split back and
+ * are ignored, as are the properties without setters.
+ * </p><p>
+ * Slot 0 always holds the row object itself.
+ * </p>
+ *
+ * @author sergey
+ */
+public final class PojoRowReader {
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private final Class<?> _rowClass;
+    private final PojoAttributeMapping _mapping;
+    private final MethodHandle _constructor;
+    private final Nest[] _nests;
+    private final Column[] _columns;
+
+    private PojoRowReader(Class<?> rowClass, PojoAttributeMapping mapping, MethodHandle constructor, Nest[] nests, Column[] columns) {
+        _rowClass = rowClass;
+        _mapping = mapping;
+        _constructor = constructor;
+        _nests = nests;
+        _columns = columns;
+    }
+
+    /**
+     * <p>Compiles the mapping for reading objects of the class.
+     * </p><p>
+     * Returns null if the class has no public no argument constructor.
+     * </p>
+     *
+     * @param rowClass  class of the objects to create
+     * @param mapping  mapping to compile
+     * @return   the reader, or null if objects of the class can't be created
+     */
+    public static PojoRowReader compile(Class<?> rowClass, PojoAttributeMapping mapping) {
+        MethodHandle constructor = findConstructor(rowClass);
+        if( constructor == null ) {
+            return null;
+        }
+
+        Compiler compiler = new Compiler();
+        compiler.flatten(rowClass, mapping, 0);
+        return new PojoRowReader(rowClass, mapping, constructor,
+                compiler._nests.toArray(new Nest[compiler._nests.size()]),
+                compiler._columns.toArray(new Column[compiler._columns.size()]));
+    }
+
+    public Class<?> getRowClass() {
+        return _rowClass;
+    }
+
+    public PojoAttributeMapping getMapping() {
+        return _mapping;
+    }
+
+    /**
+     * Readable columns, in the order the serializer writes them.
+     *
+     * @return   the columns
+     */
+    public Column[] getColumns() {
+        return _columns;
+    }
+
+    /**
+     * Number of slots needed to read a row, including the slot of the row.
+     *
+     * @return   slot count
+     */
+    public int getSlotCount() {
+        return _nests.length + 1;
+    }
+
+    /**
+     * Binds CSV fields to the columns by the header names.
+     *
+     * @param headers  the header record
+     * @return   for every field the column it is read into, null for unknown headers
+     */
+    public Column[] bind(List<String> headers) {
+        Column[] binding = new Column[headers.size()];
+        for(int i = 0; i < binding.length; i++) {
+            String header = headers.get(i).trim();
+            for(Column column : _columns) {
+                if( header.equals(column._header) ) {
+                    binding[i] = column;
+                    break;
+                }
+            }
+        }
+        return binding;
+    }
+
+    /**
+     * Binds CSV fields to the columns by position, for the input without
+     * headers. The position of the columns skipped by the reader (i.e.
+     * combined properties) is still respected.
+     *
+     * @return   for every field the column it is read into, null for skipped fields
+     */
+    public Column[] bindByPosition() {
+        int fieldCount = 0;
+        for(Column column : _columns) {
+            fieldCount = Math.max(fieldCount, column._position + 1);
+        }
+
+        Column[] binding = new Column[fieldCount];
+        for(Column column : _columns) {
+            binding[column._position] = column;
+        }
+        return binding;
+    }
+
+    /**
+     * Creates an object for the CSV record. Empty fields are not set.
+     *
+     * @param fields  fields of the record
+     * @param binding  result of {@link #bind(List)} or {@link #bindByPosition()}
+     * @param slots  array of at least {@link #getSlotCount()} elements, overwritten
+     * @return   the object
+     * @throws IllegalArgumentException if a field can't be converted to its property type
+     */
+    public Object read(List<String> fields, Column[] binding, Object[] slots) {
+        slots[0] = newInstance(_constructor, _rowClass);
+        Arrays.fill(slots, 1, _nests.length + 1, null);
+
+        final int count = Math.min(fields.size(), binding.length);
+        for(int i = 0; i < count; i++) {
+            final Column column = binding[i];
+            final String text = fields.get(i);
+            if( column == null || text.isEmpty() ) {
+                continue;
+            }
+            if( column._slot != 0 && slots[column._slot] == null ) {
+                fillSlot(column._slot, slots);
+            }
+            column.setText(slots[column._slot], text);
+        }
+        return slots[0];
+    }
+
+    private void fillSlot(int slot, Object[] slots) {
+        final Nest nest = _nests[slot - 1];
+        if( nest._parentSlot != 0 && slots[nest._parentSlot] == null ) {
+            fillSlot(nest._parentSlot, slots);
+        }
+
+        final Object parent = slots[nest._parentSlot];
+        Object child = nest._getter == null ? null : nest._getter.get(parent);
+        if( child == null ) {
+            child = newInstance(nest._constructor, nest._setter.getType());
+            nest._setter.set(parent, child);
+        }
+        slots[slot] = child;
+    }
+
+    private static Object newInstance(MethodHandle constructor, Class<?> type) {
+        try {
+            return (Object)constructor.invokeExact();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't create " + type.getName(), e);
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> type) {
+        if( type.isInterface() || Modifier.isAbstract(type.getModifiers()) ) {
+            return null;
+        }
+        try {
+            return MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class)).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "{" + _rowClass.getName() + ":" + _columns.length + " columns}";
+    }
+
+    /**
+     * A nested object, created when any of its columns has a value.
+     */
+    private static final class Nest {
+        private final int _parentSlot;
+        private final PropertyAccessor _getter;
+        private final PropertyWriter _setter;
+        private final MethodHandle _constructor;
+
+        Nest(int parentSlot, PropertyAccessor getter, PropertyWriter setter, MethodHandle constructor) {
+            _parentSlot = parentSlot;
+            _getter = getter;
+            _setter = setter;
+            _constructor = constructor;
+        }
+    }
+
+    /**
+     * A CSV column read into a single property.
+     */
+    public static final class Column {
+        private final String _header;
+        private final int _position;
+        private final int _slot;
+        private final PropertyWriter _writer;
+
+        Column(String header, int position, int slot, PropertyWriter writer) {
+            _header = header;
+            _position = position;
+            _slot = slot;
+            _writer = writer;
+        }
+
+        public String getHeader() {
+            return _header;
+        }
+
+        /**
+         * Position of the column in the CSV written by the serializer.
+         *
+         * @return   zero based position
+         */
+        public int getPosition() {
+            return _position;
+        }
+
+        public PropertyWriter getWriter() {
+            return _writer;
+        }
+
+        void setText(Object bean, String text) {
+            if( _writer.getType() != String.class && PojoToCsvSerializer.NULL_TEXT.equals(text) ) {
+                return; // written for null values by the serializer
+            }
+            try {
+                _writer.setText(bean, text);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(_header + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class Compiler {
+        private final List<Nest> _nests = new ArrayList<Nest>();
+        private final List<Column> _columns = new ArrayList<Column>();
+        private int _position;
+
+        /**
+         * @param slot  slot of the bean, -1 if the bean can't be read (only column positions are counted)
+         */
+        void flatten(Class<?> beanClass, PojoAttributeMapping mapping, int slot) {
+            final PojoGetterBinding getterBinding = mapping.getGetterBinding(beanClass);
+            final PojoCsvAttribute[] attributes = getterBinding.getAttributes();
+            for(int attributeIndex = 0; attributeIndex < attributes.length; attributeIndex++) {
+                final PojoCsvAttribute attribute = attributes[attributeIndex];
+                final String[] attributeNames = attribute.getAttributeName();
+                final Object getter = getterBinding.getGetters(attributeIndex)[0];
+                final Class<?> getterType = (getter instanceof Method) ? ((Method)getter).getReturnType() : null;
+                final Method setter = (slot < 0 || attributeNames.length != 1) ? null :
+                        PropertyWriter.resolveSetter(beanClass, attributeNames[0], getterType);
+
+                PojoAttributeMapping childMapping = attribute.getAttributeMapping();
+                if( childMapping != null ) {
+                    int childSlot = -1;
+                    Class<?> childClass = (setter != null ? setter.getParameterTypes()[0] : getterType);
+                    MethodHandle constructor = (setter == null ? null : findConstructor(childClass));
+                    if( constructor != null ) {
+                        childSlot = _nests.size() + 1;
+                        _nests.add(new Nest(slot,
+                                getterType == childClass ? PropertyAccessor.forGetter((Method)getter) : null,
+                                PropertyWriter.forSetter(setter), constructor));
+                    }
+                    if( childClass != null ) {
+                        flatten(childClass, childMapping, childSlot);
+                    }
+                } else {
+                    int position = _position++;
+                    PropertyWriter writer = (setter == null ? null : PropertyWriter.forSetter(setter));
+                    if( writer != null && writer.isConvertible() ) {
+                        _columns.add(new Column(attribute.getCsvHeaderName(), position, slot, writer));
+                    }
+                }
+            }
+        }
+    }
+}
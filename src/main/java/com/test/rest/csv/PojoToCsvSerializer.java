@@ -1,22 +1,67 @@
 package com.test.rest.csv;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Collection;
+import java.lang.reflect.Modifier;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.BaseStream;
 
 /**
  * Class to serialize objects to csv using the instructions in the configuration 
  * provided to the constructor.
+ * <p>
+ * The output is encoded with the configured charset (UTF-8 by default) into
+ * a buffer of a {@link CsvByteEncoder} created for every serialization.
+ * </p><p>
+ * Arrays, {@link Iterable}s, {@link Iterator}s, {@link java.util.stream.Stream}s
+ * and {@link CsvRowSource}s are written row by row in a single pass, the 
+ * header is derived from the first row. Lazy sources (iterators, streams,
+ * row sources) are therefore never held in memory, and with 
+ * {@link #setFlushEveryRows(int)} the rows are pushed to the client as they
+ * are produced.
+ * </p><p>
+ * With a {@link ForkJoinPool} set (see {@link #setParallelPool(ForkJoinPool)}),
+ * large arrays and {@link RandomAccess} lists are encoded in parallel: the
+ * rows are split into chunks encoded by the pool into their own buffers,
+ * and the buffers are written out strictly in order.
+ * </p><p>
+ * A {@link CsvProjection} limits the output to the columns selected by the
+ * client, the rows are then written with mappings (and plans) pruned to
+ * those columns.
+ * </p><p>
+ * The delimiter, quoting and line separator are those of the
+ * {@link CsvDialect}, {@link CsvDialect#DEFAULT} unless set.
+ * </p>
  * 
 * @author sergey
 */
 public class PojoToCsvSerializer {
+    /**
+     * @deprecated   platform dependent, the rows end with the line separator of the {@link CsvDialect}
+     */
+    @Deprecated
     public static final String NEWLINE = System.getProperty("line.separator");
     public static final String SPACE = " ";
     public static final String VALUE_SEPARATOR = ",";  //must not have a space after the separator
@@ -25,25 +70,235 @@ public class PojoToCsvSerializer {
     public static final String ESCAPED_QUOTE = "\"\"";
     public static final String NULL_TEXT = "null";
     public static final String ZERO_PRESERVER = "=";
+    public static final char QUOTE_CHAR = '"';
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 50000;
+    public static final int DEFAULT_PARALLEL_CHUNK_ROWS = 4096;
+
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final Object[] NO_SLOTS = new Object[0];
+    private static final Object NOT_COMPILABLE = new Object();
+    private static final int MAX_CACHED_PROJECTIONS = 64;
 
     private boolean _improveFormattingForExcel;
+    private boolean _compileRowPlans = true;
+    private int _bufferSize = CsvByteEncoder.DEFAULT_BUFFER_SIZE;
+    private CsvBufferPool _bufferPool;
+    private int _flushEveryRows;
+    private ForkJoinPool _parallelPool;
+    private int _parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private int _parallelChunkRows = DEFAULT_PARALLEL_CHUNK_ROWS;
+    private int _maxBufferedChunks;
+    private CsvMetrics _metrics;
+    private String _metricsMediaType;
+    private Charset _charset;
+    private CsvDialect _dialect = CsvDialect.DEFAULT;
+    private char[] _escapes;
+    private byte[] _newlineBytes;
+    private byte[] _valueSeparatorBytes;
+    private byte[] _spacedValueSeparatorBytes;
+    private byte[] _quoteBytes;
+    private byte[] _nullTextBytes;
+    private byte[] _zeroPreserverBytes;
+    private byte[] _trueBytes;
+    private byte[] _falseBytes;
 
     private final CsvMapperConfig _config;
+    private final ConcurrentMap<Class<?>, Object> _rowPlans;
+    private final LongAdder _rowPlanHits = new LongAdder();
+    private final LongAdder _rowPlanMisses = new LongAdder();
+    private final ConcurrentMap<CsvProjection, ProjectedMappings> _projections;
 
     public PojoToCsvSerializer(CsvMapperConfig config) {
         _config = config;
+        _rowPlans = new ConcurrentHashMap<Class<?>, Object>();
+        _projections = new ConcurrentHashMap<CsvProjection, ProjectedMappings>();
+        setCharset(StandardCharsets.UTF_8);
     }
 
-    public void serialize(Object obj, OutputStream stream) throws IOException {
-        if( _config.isWriteHeaders() ) {
-            writeHeaders(obj, stream);
+    public void serialize(Object obj, OutputStream outputStream) throws IOException {
+        serialize(obj, outputStream, _flushEveryRows);
+    }
+
+    /**
+     * Serializes the object, flushing the output with the given frequency 
+     * instead of the configured one, see {@link #setFlushEveryRows(int)}.
+     * 
+     * @param obj  object to be serialized
+     * @param outputStream  stream to write to
+     * @param flushEveryRows  number of rows between flushes, 0 to flush only full buffers
+     * @throws IOException 
+     */
+    public void serialize(Object obj, OutputStream outputStream, int flushEveryRows) throws IOException {
+        serialize(obj, outputStream, flushEveryRows, null);
+    }
+
+    /**
+     * Serializes only the columns selected by the projection, getters of
+     * the other columns are not called.
+     * 
+     * @param obj  object to be serialized
+     * @param outputStream  stream to write to
+     * @param flushEveryRows  number of rows between flushes, 0 to flush only full buffers
+     * @param projection  the columns to write, null for all of them
+     * @throws IOException 
+     */
+    public void serialize(Object obj, OutputStream outputStream, int flushEveryRows, CsvProjection projection) throws IOException {
+        serialize(obj, outputStream, flushEveryRows, projection, null);
+    }
+
+    /**
+     * Serializes the rows knowing their declared class, i.e. {@code Person}
+     * of a {@code List<Person>} (see {@link CsvTypes#getElementClass}): the
+     * mapping and the plan of the class are bound before the first row is
+     * read, and the headers are written even if there are no rows.
+     * 
+     * @param obj  object to be serialized
+     * @param outputStream  stream to write to
+     * @param flushEveryRows  number of rows between flushes, 0 to flush only full buffers
+     * @param projection  the columns to write, null for all of them
+     * @param rowClass  declared class of the rows, null if not known
+     * @throws IOException 
+     */
+    public void serialize(Object obj, OutputStream outputStream, int flushEveryRows, CsvProjection projection, Class<?> rowClass) throws IOException {
+        final CsvBufferPool bufferPool = _bufferPool;
+        encode(obj, bufferPool == null ? new CsvByteEncoder(outputStream, _charset, _bufferSize)
+                : new CsvByteEncoder(outputStream, _charset, bufferPool), flushEveryRows, projection, rowClass);
+    }
+
+    /**
+     * Serializes the object into the channel, the buffers of the output are
+     * written to it as they are.
+     * 
+     * @param obj  object to be serialized
+     * @param channel  channel to write to, not closed
+     * @param flushEveryRows  number of rows between flushes, 0 to flush only full buffers
+     * @param projection  the columns to write, null for all of them
+     * @param rowClass  declared class of the rows, null if not known
+     * @throws IOException 
+     */
+    public void serialize(Object obj, WritableByteChannel channel, int flushEveryRows, CsvProjection projection, Class<?> rowClass) throws IOException {
+        encode(obj, new CsvByteEncoder(channel, _charset, _bufferPool), flushEveryRows, projection, rowClass);
+    }
+
+    private void encode(Object obj, CsvByteEncoder stream, int flushEveryRows, CsvProjection projection, Class<?> rowClass) throws IOException {
+        final CsvMetrics metrics = _metrics;
+        final long startNanos = metrics == null ? 0 : System.nanoTime();
+        boolean failed = true;
+        try {
+            serialize(obj, stream, flushEveryRows, projection, rowClass);
+            stream.flushBuffer();
+            failed = false;
+        } finally {
+            stream.release();
+            if( metrics != null ) {
+                metrics.record(_metricsMediaType, obj, stream, startNanos, failed);
+            }
+        }
+    }
+
+    protected void serialize(Object obj, CsvByteEncoder stream, int flushEveryRows, CsvProjection projection, Class<?> rowClass) throws IOException {
+        if( obj == null ) {
+            return;
+        }
+
+        final Iterator rows = toRowIterator(obj);
+        if( rows == null ) { // single object, written as a single row without the new line
+            if( _config.isWriteHeaders() ) {
+                writeHeaders(obj, stream, projection);
+            }
+            writeRecord(stream, obj, new RowBinding(projection));
+            return;
+        }
+
+        if( !isBindable(rowClass) ) {
+            rowClass = null;
+        }
+        final List randomAccessRows = toParallelRows(obj);
+        if( randomAccessRows != null ) {
+            writeRowsParallel(stream, randomAccessRows, flushEveryRows, projection, rowClass);
+            return;
+        }
+
+        try {
+            final RowBinding binding = new RowBinding(projection);
+            if( rowClass != null ) {
+                binding.bind(rowClass);
+            }
+            if( rows.hasNext() ) {
+                final Object firstRow = rows.next();
+                if( _config.isWriteHeaders() ) {
+                    if( firstRow == null && rowClass != null ) {
+                        writeHeaders(rowClass, stream, projection);
+                    } else {
+                        writeHeaders(firstRow, stream, projection);
+                    }
+                }
+                writeRows(stream, firstRow, rows, flushEveryRows, binding);
+            } else if( rowClass != null && _config.isWriteHeaders() ) { // headers of an empty collection
+                writeHeaders(rowClass, stream, projection);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); // failure of the CsvRowSource
+        } finally {
+            if( obj instanceof BaseStream ) {
+                ((BaseStream)obj).close();
+            } else if( obj instanceof CsvRowSource ) {
+                ((CsvRowSource)obj).close();
+            }
         }
+    }
 
-        if( obj != null ) {
-            final PojoAttributeMapping pojoAttributeMapping = _config.getAttributeMapping(obj.getClass());
+    /**
+     * Declared classes worth binding before the rows are read: concrete
+     * classes other than {@code Object}, rows of the interfaces are bound to
+     * their own classes.
+     */
+    private static boolean isBindable(Class<?> rowClass) {
+        return rowClass != null && rowClass != Object.class && !rowClass.isPrimitive() && !rowClass.isArray()
+                && !rowClass.isInterface() && !Modifier.isAbstract(rowClass.getModifiers());
+    }
+
+    /**
+     * Returns iterator over the rows if the object is a collection/array or 
+     * a lazy source of the rows, null if the object is a single row.
+     * 
+     * @param obj  object to be serialized
+     * @return   iterator over the rows or null
+     */
+    protected Iterator toRowIterator(Object obj) {
+        if( obj.getClass().isArray() ) {
+            return new IterableArray(obj).iterator();
+        } else if( obj instanceof Iterable ) {
+            return ((Iterable)obj).iterator();
+        } else if( obj instanceof Iterator ) {
+            return (Iterator)obj;
+        } else if( obj instanceof BaseStream ) {
+            return ((BaseStream)obj).iterator();
+        } else if( obj instanceof CsvRowSource ) {
+            return new RowSourceIterator((CsvRowSource)obj);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the rows to be encoded in parallel: the array or the random
+     * access list, if it is big enough and a pool is set.
+     * 
+     * @param obj  object to be serialized
+     * @return   the rows or null if the rows are written sequentially
+     */
+    protected List toParallelRows(Object obj) {
+        if( _parallelPool == null ) {
+            return null;
+        }
 
-            writeContent(obj, stream, true, pojoAttributeMapping, true);
+        List rows = null;
+        if( obj instanceof Object[] ) {
+            rows = Arrays.asList((Object[])obj);
+        } else if( obj instanceof List && obj instanceof RandomAccess ) {
+            rows = (List)obj;
         }
+        return rows != null && rows.size() >= Math.max(_parallelThreshold, 1) ? rows : null;
     }
 
     public CsvMapperConfig getConfig() {
@@ -58,7 +313,328 @@ public class PojoToCsvSerializer {
         _improveFormattingForExcel = improveFormattingForExcel;
     }
 
-    protected void writeHeaders(Object obj, OutputStream stream) throws IOException {
+    public Charset getCharset() {
+        return _charset;
+    }
+
+    /**
+     * Sets the charset the CSV text is encoded with, UTF-8 by default.
+     * 
+     * @param charset   the charset
+     */
+    public void setCharset(Charset charset) {
+        _charset = charset;
+        encodeDialect();
+        _nullTextBytes = NULL_TEXT.getBytes(charset);
+        _zeroPreserverBytes = ZERO_PRESERVER.getBytes(charset);
+        _trueBytes = Boolean.TRUE.toString().getBytes(charset);
+        _falseBytes = Boolean.FALSE.toString().getBytes(charset);
+    }
+
+    public CsvDialect getDialect() {
+        return _dialect;
+    }
+
+    /**
+     * Sets the delimiter, quoting and line separator of the CSV text,
+     * {@link CsvDialect#DEFAULT} by default.
+     * 
+     * @param dialect   the dialect
+     */
+    public void setDialect(CsvDialect dialect) {
+        _dialect = dialect;
+        encodeDialect();
+    }
+
+    private void encodeDialect() {
+        final CsvDialect dialect = _dialect;
+        final Charset charset = _charset;
+        _escapes = dialect.getEscapes();
+        _newlineBytes = dialect.getLineSeparator().getBytes(charset);
+        _valueSeparatorBytes = String.valueOf(dialect.getDelimiter()).getBytes(charset);
+        _spacedValueSeparatorBytes = dialect.escape(SPACED_VALUE_SEPARATOR).getBytes(charset);
+        _quoteBytes = (dialect.getQuoting() == CsvDialect.Quoting.NONE ? NO_BYTES : String.valueOf(dialect.getQuote()).getBytes(charset));
+    }
+
+    public int getFlushEveryRows() {
+        return _flushEveryRows;
+    }
+
+    /**
+     * Sets how often the output is flushed to the client: after the first 
+     * row and then after every {@code flushEveryRows} rows. Zero (default) 
+     * means the output is sent only when the buffer is full.
+     * 
+     * @param flushEveryRows   number of rows between flushes, 0 to flush only full buffers
+     */
+    public void setFlushEveryRows(int flushEveryRows) {
+        _flushEveryRows = flushEveryRows;
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    /**
+     * Sets size of the buffer the output is collected in before it is written
+     * to the output stream.
+     * 
+     * @param bufferSize   buffer size in bytes
+     */
+    public void setBufferSize(int bufferSize) {
+        _bufferSize = bufferSize;
+    }
+
+    public CsvBufferPool getBufferPool() {
+        return _bufferPool;
+    }
+
+    /**
+     * Sets the pool the output buffers are taken from, the buffer size is
+     * then the size of the pooled buffers. Null (default) allocates a buffer
+     * of {@link #getBufferSize()} for every serialization.
+     * 
+     * @param bufferPool   the pool or null
+     */
+    public void setBufferPool(CsvBufferPool bufferPool) {
+        _bufferPool = bufferPool;
+    }
+
+    public CsvMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Sets the metrics every serialization is recorded in, null (default)
+     * to not record them.
+     * 
+     * @param metrics  the metrics or null
+     * @param mediaType  media type the serializer writes, the metrics are kept per media type
+     */
+    public void setMetrics(CsvMetrics metrics, String mediaType) {
+        _metrics = metrics;
+        _metricsMediaType = mediaType;
+    }
+
+    /**
+     * Hits and misses of the cache of the compiled row plans, see 
+     * {@link #getRowPlan(Class, PojoAttributeMapping, CsvProjection)}.
+     * 
+     * @return   the statistics
+     */
+    public CacheStatistics getRowPlanStatistics() {
+        return new CacheStatistics() {
+            @Override
+            public long getHitCount() {
+                return _rowPlanHits.sum();
+            }
+
+            @Override
+            public long getMissCount() {
+                return _rowPlanMisses.sum();
+            }
+        };
+    }
+
+    public ForkJoinPool getParallelPool() {
+        return _parallelPool;
+    }
+
+    /**
+     * Sets the pool to encode large arrays and random access lists in
+     * parallel, null (default) to always encode on the calling thread.
+     * 
+     * @param parallelPool   the pool or null
+     */
+    public void setParallelPool(ForkJoinPool parallelPool) {
+        _parallelPool = parallelPool;
+    }
+
+    public int getParallelThreshold() {
+        return _parallelThreshold;
+    }
+
+    /**
+     * Sets the minimum number of rows to encode in parallel, smaller arrays
+     * and lists are encoded sequentially.
+     * 
+     * @param parallelThreshold   number of rows
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        _parallelThreshold = parallelThreshold;
+    }
+
+    public int getParallelChunkRows() {
+        return _parallelChunkRows;
+    }
+
+    /**
+     * Sets the number of rows encoded by a single parallel task into its
+     * own buffer.
+     * 
+     * @param parallelChunkRows   rows per chunk
+     */
+    public void setParallelChunkRows(int parallelChunkRows) {
+        _parallelChunkRows = parallelChunkRows;
+    }
+
+    public int getMaxBufferedChunks() {
+        return _maxBufferedChunks;
+    }
+
+    /**
+     * Sets how many encoded (or being encoded) chunks can wait to be written,
+     * which bounds the memory used by a parallel serialization. Zero (default)
+     * means twice the parallelism of the pool.
+     * 
+     * @param maxBufferedChunks   maximum number of chunks in memory
+     */
+    public void setMaxBufferedChunks(int maxBufferedChunks) {
+        _maxBufferedChunks = maxBufferedChunks;
+    }
+
+    /**
+     * Returns true if rows are written using mappings compiled into
+     * {@link PojoRowPlan}s, false if the rows are written by walking the
+     * mappings with reflection.
+     * 
+     * @return   true if compiled plans are used
+     */
+    public boolean isCompileRowPlans() {
+        return _compileRowPlans;
+    }
+
+    /**
+     * Enables/disables use of compiled {@link PojoRowPlan}s. Rows that can't
+     * be compiled are always written with the reflective path.
+     * 
+     * @param compileRowPlans   true to use compiled plans, false to always use reflection
+     */
+    public void setCompileRowPlans(boolean compileRowPlans) {
+        _compileRowPlans = compileRowPlans;
+    }
+
+    /**
+     * Returns the mapping to write rows of the class: the configured one or,
+     * with a projection, the configured one pruned to the selected columns.
+     * Pruned mappings are cached per projection.
+     * 
+     * @param rowClass  class of the row object
+     * @param projection  the selected columns, null for all of them
+     * @return   the mapping or null if the rows are written with toString
+     */
+    protected PojoAttributeMapping getRowMapping(Class<?> rowClass, CsvProjection projection) {
+        final PojoAttributeMapping mapping = _config.getAttributeMapping(rowClass);
+        if( projection == null || mapping == null ) {
+            return mapping;
+        }
+
+        final ProjectedMappings projected = getProjectedMappings(projection);
+        PojoAttributeMapping pruned = projected._mappings.get(mapping);
+        if( pruned == null ) {
+            pruned = projection.prune(mapping);
+            PojoAttributeMapping existing = projected._mappings.putIfAbsent(mapping, pruned);
+            if( existing != null ) {
+                pruned = existing;
+            }
+        }
+        return pruned;
+    }
+
+    private ProjectedMappings getProjectedMappings(CsvProjection projection) {
+        ProjectedMappings projected = _projections.get(projection);
+        if( projected == null ) {
+            if( _projections.size() >= MAX_CACHED_PROJECTIONS ) {
+                _projections.clear(); // clients choose the columns, keep the cache bounded
+            }
+            projected = new ProjectedMappings();
+            ProjectedMappings existing = _projections.putIfAbsent(projection, projected);
+            if( existing != null ) {
+                projected = existing;
+            }
+        }
+        return projected;
+    }
+
+    /**
+     * Returns the compiled plan to write rows of the class, compiling and 
+     * caching it on the first call. 
+     * 
+     * @param rowClass  class of the row object
+     * @param pojoAttributeMapping  mapping for the class (see {@link #getRowMapping(Class, CsvProjection)}), can be null
+     * @param projection  the projection the mapping was pruned for, null for all the columns
+     * @return   the plan or null if the rows have to be written with the reflective path
+     */
+    protected PojoRowPlan getRowPlan(Class<?> rowClass, PojoAttributeMapping pojoAttributeMapping, CsvProjection projection) {
+        if( !_compileRowPlans || pojoAttributeMapping == null ) {
+            return null;
+        }
+
+        final ConcurrentMap<Class<?>, Object> rowPlans = (projection == null ? _rowPlans : getProjectedMappings(projection)._rowPlans);
+        Object rowPlan = rowPlans.get(rowClass);
+        if( rowPlan instanceof PojoRowPlan && ((PojoRowPlan)rowPlan).getMapping() == pojoAttributeMapping ) {
+            _rowPlanHits.increment();
+            return (PojoRowPlan)rowPlan;
+        }
+        if( rowPlan == NOT_COMPILABLE ) {
+            _rowPlanHits.increment();
+            return null;
+        }
+        _rowPlanMisses.increment();
+
+        if( rowClass.isArray() || Iterable.class.isAssignableFrom(rowClass) || _config.needsToString(rowClass) ) {
+            rowPlan = null;
+        } else {
+            rowPlan = PojoRowPlan.compile(rowClass, pojoAttributeMapping, _config);
+        }
+        rowPlans.put(rowClass, rowPlan == null ? NOT_COMPILABLE : rowPlan);
+
+        return (PojoRowPlan)rowPlan;
+    }
+
+    /**
+     * <p>Prepares the serializer for the rows of the class: resolves the
+     * mapping, binds the getters and compiles the plan, so the first export
+     * of the class does not pay for the introspection.
+     * </p><p>
+     * With {@code rows} greater than 0 also serializes that many synthetic
+     * rows, instances created by the public no argument constructor, into
+     * nothing, so the code writing the rows gets compiled by the JIT. The
+     * synthetic rows are not recorded in the {@link CsvMetrics}.
+     * </p>
+     * 
+     * @param rowClass  class of the rows
+     * @param rows  number of synthetic rows to serialize, 0 to only prepare the mapping
+     * @return   true if the rows of the class are written by a compiled plan
+     * @throws IOException 
+     */
+    public boolean warmUp(Class<?> rowClass, int rows) throws IOException {
+        final PojoAttributeMapping mapping = getRowMapping(rowClass, null);
+        if( mapping != null && !_config.needsToString(rowClass) ) {
+            mapping.getGetterBinding(rowClass);
+        }
+        final PojoRowPlan rowPlan = getRowPlan(rowClass, mapping, null);
+
+        final Object row = (rows > 0 ? newInstance(rowClass) : null);
+        if( row != null ) {
+            final CsvByteEncoder stream = new CsvByteEncoder(new DiscardingStream(), getCharset(), _bufferSize);
+            serialize(Collections.nCopies(rows, row), stream, 0, null, rowClass);
+            stream.close();
+        }
+        return rowPlan != null;
+    }
+
+    private static Object newInstance(Class<?> rowClass) {
+        try {
+            return rowClass.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) { // no public constructor without arguments, or it failed
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    protected void writeHeaders(Object obj, CsvByteEncoder stream, CsvProjection projection) throws IOException {
         while( obj instanceof Iterable) {
             Iterator itr = ((Iterable)obj).iterator();
             if( !itr.hasNext() ) {
@@ -78,118 +654,99 @@ public class PojoToCsvSerializer {
             return;
         }
         
-        Class objClass = obj.getClass();
+        writeHeaders(obj.getClass(), stream, projection);
+    }
 
-        final PojoAttributeMapping attributeMapping = _config.getAttributeMapping(objClass);
+    /**
+     * Writes the headers of the rows of the class, nothing if the rows are
+     * written with toString.
+     * 
+     * @param rowClass  class of the rows
+     * @param stream  the stream to be used to output the headers
+     * @param projection  the columns to write, null for all of them
+     * @throws IOException 
+     */
+    protected void writeHeaders(Class<?> rowClass, CsvByteEncoder stream, CsvProjection projection) throws IOException {
+        final PojoAttributeMapping attributeMapping = getRowMapping(rowClass, projection);
         if( attributeMapping != null ) {
             if( _config.isWriteHeaders() ) {
-                writeHeaders(stream, attributeMapping, "");
-                writeRaw(stream, NEWLINE);
-            }
-
-            prepareGetters(objClass, _config.getAttributeMapping(objClass));
-        }
-    }
-
-    protected void prepareGetters(Class objectClass, final PojoAttributeMapping pojoAttributeMapping) {
-        // skip collections - methods are for the elements of the collection, not the collections,
-        // but we don't know the class of the elements in the collection - will figure getters later, when actually
-        // processing the elements
-        if( objectClass.getComponentType() != null || Collection.class.isAssignableFrom(objectClass) ) {
-            return;
-        }
-        
-        for(PojoCsvAttribute pojoCsvAttribute : pojoAttributeMapping.getPojoAttributes() ) {
-            String[] attributeNames = pojoCsvAttribute.getAttributeName();
-            LinkedList<Object> getters = new LinkedList<Object>();
-            for(String attributeName : attributeNames) {
-                attributeName = attributeName.substring(0,1).toUpperCase() + (attributeName.length() == 1 ? "" : attributeName.substring(1));
-
-                Object getter;
-                try {
-                    getter = objectClass.getMethod("get" + attributeName);
-                } catch (NoSuchMethodException e) {
-                    try {
-                        getter = objectClass.getMethod("is" + attributeName);
-                    } catch (NoSuchMethodException ex) {
-                        //throw new IllegalArgumentException("No getter (is/get) found for " + attributeName + " on " + objectClass.getSimpleName());
-                        getter = attributeName;
-                    }
-                }
-                
-                getters.add(getter);
-                
-                final PojoAttributeMapping childAttributeMapping = pojoCsvAttribute.getAttributeMapping();
-                if( (getter instanceof Method) && childAttributeMapping != null ) {
-                    prepareGetters(((Method)getter).getReturnType(), childAttributeMapping);
-                }
+                writeHeaders(stream, attributeMapping, NO_BYTES);
+                stream.write(_newlineBytes);
             }
-
-            Object[] getterAr = new Object[getters.size()];            
-            pojoCsvAttribute.setGetter(getters.toArray(getterAr));
         }
     }
 
-    protected void writeHeaders(OutputStream stream, PojoAttributeMapping attributeMapping, String div) throws IOException {
+    protected void writeHeaders(CsvByteEncoder stream, PojoAttributeMapping attributeMapping, byte[] div) throws IOException {
         for(PojoCsvAttribute pojoCsvAttribute : attributeMapping.getPojoAttributes() ) {
             final PojoAttributeMapping childAttributeMapping = pojoCsvAttribute.getAttributeMapping();
             final String csvHeaderName = pojoCsvAttribute.getCsvHeaderName();
             if( csvHeaderName != null ) {
-                writeRaw(stream, div);
+                stream.write(div);
                 writeQuoted(stream, csvHeaderName);
             } else {
                 writeHeaders(stream, childAttributeMapping, div);
             }
-            div = VALUE_SEPARATOR;
+            div = _valueSeparatorBytes;
         }
     }
 
-    protected void writeQuoted(OutputStream stream, Object text) throws IOException {
+    protected void writeQuoted(CsvByteEncoder stream, Object text) throws IOException {
         if( text == null ) {
-            stream.write(NULL_TEXT.getBytes());
+            stream.write(_nullTextBytes);
         } else {
             String textStr = text.toString();
-            if( _improveFormattingForExcel && textStr.indexOf(',') == -1 ) {   // if text contains comma, adding '=' in front of it makes excel ignore quotes and split by the comma! so don't add the '=' if there is ','
+            final CsvDialect dialect = _dialect;
+            if( _improveFormattingForExcel && textStr.indexOf(dialect.getDelimiter()) == -1 ) {   // if text contains comma, adding '=' in front of it makes excel ignore quotes and split by the comma! so don't add the '=' if there is ','
                 // This is to preserve leading 0, as in case 0071208413
-                stream.write(ZERO_PRESERVER.getBytes());
+                stream.write(_zeroPreserverBytes);
             }
 
-            stream.write(QUOTE.getBytes());
-            stream.write(textStr.replaceAll(QUOTE, ESCAPED_QUOTE).getBytes());
-            stream.write(QUOTE.getBytes());
+            writeField(stream, textStr, dialect.getQuoting() == CsvDialect.Quoting.TEXT);
         }
     }
 
-    protected void writeRaw(OutputStream stream, Object text) throws IOException {
+    /**
+     * Writes a part of a value that is already quoted (items of collections
+     * and values of the columns with multiple getters), escaping it.
+     */
+    protected void writeRaw(CsvByteEncoder stream, Object text) throws IOException {
         if( text != null ) {
-            stream.write(text.toString().getBytes());
+            stream.writeEscaped(text.toString(), _dialect.getEscape(), _escapes);
         }
     }
 
-    protected void write(OutputStream stream, Object text) throws IOException {
+    protected void write(CsvByteEncoder stream, Object text) throws IOException {
         if( text == null ) {
-            stream.write(NULL_TEXT.getBytes());
+            stream.write(_nullTextBytes);
         } else {
             String textStr = text.toString();
-            boolean needQuotes = _improveFormattingForExcel;
-            if( textStr.indexOf('"') != -1 ) {
-                needQuotes = true;
+            if( _improveFormattingForExcel ) {
+                // This is to avoid 'shrinking' numbers, like 9780077406691 being presented as 9.78008E+12
+                stream.write(_zeroPreserverBytes);
             }
+            writeField(stream, textStr, _improveFormattingForExcel);
+        }
+    }
 
-            if( needQuotes ) {
-                textStr = textStr.replaceAll(QUOTE, ESCAPED_QUOTE);
-
-                if( _improveFormattingForExcel ) {
-                    // This is to avoid 'shrinking' numbers, like 9780077406691 being presented as 9.78008E+12
-                    stream.write(ZERO_PRESERVER.getBytes());
-                }
-
-                stream.write(QUOTE.getBytes());
-                stream.write(textStr.getBytes());
-                stream.write(QUOTE.getBytes());
-            } else {
-                stream.write(textStr.getBytes());
-            }
+    /**
+     * Writes the value, quoted if the dialect quotes it. The dialects that
+     * never quote only escape the value, without checking it for quoting.
+     *
+     * @param stream  the stream to be used to output the value
+     * @param text  the value
+     * @param quote  true to always quote it, unless the dialect never quotes
+     * @throws IOException 
+     */
+    private void writeField(CsvByteEncoder stream, String text, boolean quote) throws IOException {
+        final CsvDialect dialect = _dialect;
+        if( dialect.getQuoting() == CsvDialect.Quoting.NONE ) {
+            stream.writeEscaped(text, dialect.getEscape(), _escapes);
+        } else if( quote || dialect.needsQuotes(text) ) {
+            stream.write(_quoteBytes);
+            stream.writeEscaped(text, dialect.getEscape(), _escapes);
+            stream.write(_quoteBytes);
+        } else {
+            stream.writeText(text);
         }
     }
 
@@ -204,14 +761,23 @@ public class PojoToCsvSerializer {
      * @param needQuotes  if surround serialized text with the quotes or not
      * @throws IOException 
      */
-    protected void writeContent(Object obj, OutputStream stream, boolean processCollections, PojoAttributeMapping pojoAttributeMapping, boolean needQuotes) throws IOException {
+    protected void writeContent(Object obj, CsvByteEncoder stream, boolean processCollections, PojoAttributeMapping pojoAttributeMapping, boolean needQuotes) throws IOException {
+        writeContent(obj, stream, processCollections, pojoAttributeMapping, needQuotes, 0);
+    }
+
+    /**
+     * Objects in the collection fields are flattened with their own mappings
+     * only {@link CsvMapperConfig#getMaxPojoDepth()} levels deep, deeper
+     * ones are written with toString, so the objects referring to each other
+     * through collections are written in a limited depth.
+     */
+    private void writeContent(Object obj, CsvByteEncoder stream, boolean processCollections, PojoAttributeMapping pojoAttributeMapping, boolean needQuotes, int depth) throws IOException {
         if( obj == null ) {
             //don't write any value - keep it empty but do write separators 
             //if value that is missing corresponds to multiple columns
-            List<PojoCsvAttribute> pojoAttributes = pojoAttributeMapping.getPojoAttributes();
-            if( pojoAttributes != null && !pojoAttributes.isEmpty() ) {
-                for(int i = pojoAttributes.size() - 1; i > 0; i--) { // write one separator less than the size
-                    writeRaw(stream, VALUE_SEPARATOR);                    
+            if( pojoAttributeMapping != null ) {
+                for(int i = pojoAttributeMapping.getColumnCount() - 1; i > 0; i--) { // write one separator less than the columns
+                    stream.write(_valueSeparatorBytes);
                 }
             }
             return;
@@ -220,30 +786,39 @@ public class PojoToCsvSerializer {
         final Class<?> objClass = obj.getClass();
         
         if( objClass.isArray() ) {
+            if( !processCollections && writePrimitiveArray(obj, stream, needQuotes) ) {
+                return;
+            }
             obj = new IterableArray(obj);            
         }
 
         if( obj instanceof Iterable) {
             if( !processCollections ) {
                 if( needQuotes ) {
-                    writeRaw(stream, QUOTE);
+                    stream.write(_quoteBytes);
                 }
-                String div = "";
+                byte[] div = NO_BYTES;
+                Class<?> itemClass = null;
+                PojoAttributeMapping itemMapping = pojoAttributeMapping;
                 for(Object item : (Iterable)obj) {
-                    writeRaw(stream, div);
-                    final PojoAttributeMapping mapping =
-                            (pojoAttributeMapping == null ?
-                                _config.getAttributeMapping(item.getClass()) : pojoAttributeMapping);
-                    writeContent(item, stream, false, mapping, false);
-                    div = SPACED_VALUE_SEPARATOR; // otherwise things like "9780073371856,9780077474034" will be split into 2 columns, even comma is inside the quotes
+                    stream.write(div);
+                    if( pojoAttributeMapping == null && item != null && item.getClass() != itemClass
+                            && depth < _config.getMaxPojoDepth() ) { // items are mostly of the same class
+                        itemClass = item.getClass();
+                        itemMapping = _config.getAttributeMapping(itemClass);
+                    }
+                    if( item != null ) {
+                        writeContent(item, stream, false, itemMapping, false, depth + 1);
+                    }
+                    div = _spacedValueSeparatorBytes; // otherwise things like "9780073371856,9780077474034" will be split into 2 columns, even comma is inside the quotes
                 }
                 if( needQuotes ) {
-                    writeRaw(stream, QUOTE);
+                    stream.write(_quoteBytes);
                 }
             } else {
-                for(Object item : (Iterable)obj) {
-                    writeContent(item, stream, false, _config.getAttributeMapping(item.getClass()), true);
-                    writeRaw(stream, NEWLINE);
+                final Iterator rows = ((Iterable)obj).iterator();
+                if( rows.hasNext() ) {
+                    writeRows(stream, rows.next(), rows, _flushEveryRows, new RowBinding(null));
                 }
             }
         } else if( obj instanceof Boolean || obj instanceof Number || obj instanceof String ) {            
@@ -266,35 +841,33 @@ public class PojoToCsvSerializer {
                     writeRaw(stream, obj);
                 }
             } else {
-                String div = "";
+                byte[] div = NO_BYTES;
 
-                for(PojoCsvAttribute pojoCsvAttribute : pojoAttributeMapping.getPojoAttributes() ) {
-                    Object[] getters = pojoCsvAttribute.getGetter();
-
-                    if( getters == null ) { // this is probably element of the collection - getter are not prepared for those yet
-                        prepareGetters(obj.getClass(), pojoAttributeMapping);
-                        getters = pojoCsvAttribute.getGetter();
-                    }
+                final PojoGetterBinding getterBinding = pojoAttributeMapping.getGetterBinding(objClass);
+                final PojoCsvAttribute[] pojoCsvAttributes = getterBinding.getAttributes();
+                for(int attributeIndex = 0; attributeIndex < pojoCsvAttributes.length; attributeIndex++) {
+                    final PojoCsvAttribute pojoCsvAttribute = pojoCsvAttributes[attributeIndex];
+                    final Object[] getters = getterBinding.getGetters(attributeIndex);
 
                     try {                        
-                        writeRaw(stream, div);
+                        stream.write(div);
                         boolean needQuotesCopy = needQuotes;
                         if( getters.length > 1 ) {
                             needQuotes = false;
-                            writeRaw(stream, QUOTE);
+                            stream.write(_quoteBytes);
                         }
                         for(Object getter : getters) {
                             Object value = (getter instanceof Method) ? ((Method)getter).invoke(obj) : getter;
                             PojoAttributeMapping attributeMapping = pojoCsvAttribute.getAttributeMapping();
-                            writeContent(value, stream, false, attributeMapping, needQuotes);
+                            writeContent(value, stream, false, attributeMapping, needQuotes, depth + 1);
                         }
                         if( getters.length > 1 ) {
-                            writeRaw(stream, QUOTE);
+                            stream.write(_quoteBytes);
                         }
                         
                         needQuotes = needQuotesCopy;
 
-                        div = VALUE_SEPARATOR;
+                        div = _valueSeparatorBytes;
                     } catch (IllegalAccessException e) {
                         //                            logger.error("Exception", e);
                     } catch (InvocationTargetException e) {
@@ -305,6 +878,481 @@ public class PojoToCsvSerializer {
         }
     }
 
+    /**
+     * Writes the elements of an array of numbers or booleans into a single
+     * field, the same way as {@link #writeContent} writes other arrays, but
+     * without boxing the elements.
+     * 
+     * @param array  the array
+     * @param stream  the stream to be used to output the field
+     * @param needQuotes  if surround the elements with the quotes or not
+     * @return   false if the array is not of numbers or booleans, nothing is written then
+     * @throws IOException 
+     */
+    private boolean writePrimitiveArray(Object array, CsvByteEncoder stream, boolean needQuotes) throws IOException {
+        final int length;
+        if( array instanceof int[] ) {
+            length = ((int[])array).length;
+        } else if( array instanceof long[] ) {
+            length = ((long[])array).length;
+        } else if( array instanceof double[] ) {
+            length = ((double[])array).length;
+        } else if( array instanceof boolean[] ) {
+            length = ((boolean[])array).length;
+        } else if( array instanceof short[] ) {
+            length = ((short[])array).length;
+        } else if( array instanceof byte[] ) {
+            length = ((byte[])array).length;
+        } else {
+            return false; // objects, chars and floats
+        }
+
+        if( needQuotes ) {
+            stream.write(_quoteBytes);
+        }
+        for(int i = 0; i < length; i++) {
+            if( i > 0 ) {
+                stream.write(_spacedValueSeparatorBytes);
+            }
+            if( array instanceof int[] ) {
+                stream.writeLong(((int[])array)[i]);
+            } else if( array instanceof long[] ) {
+                stream.writeLong(((long[])array)[i]);
+            } else if( array instanceof double[] ) {
+                stream.writeDouble(((double[])array)[i]);
+            } else if( array instanceof boolean[] ) {
+                stream.write(((boolean[])array)[i] ? _trueBytes : _falseBytes);
+            } else if( array instanceof short[] ) {
+                stream.writeLong(((short[])array)[i]);
+            } else {
+                stream.writeLong(((byte[])array)[i]);
+            }
+        }
+        if( needQuotes ) {
+            stream.write(_quoteBytes);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the rows, each followed by the new line, flushing the output 
+     * after the first row and then every {@code flushEveryRows}.
+     * 
+     * @param stream  the stream to be used to output the rows
+     * @param firstRow  the first row, already taken from the iterator
+     * @param rows  iterator over the rest of the rows
+     * @param flushEveryRows  number of rows between flushes, 0 to flush only full buffers
+     * @param binding  binding of the rows to their mapping and plan
+     * @throws IOException 
+     */
+    protected void writeRows(CsvByteEncoder stream, Object firstRow, Iterator rows, int flushEveryRows, RowBinding binding) throws IOException {
+        Object row = firstRow;
+        long rowCount = 0;
+        while( true ) {
+            writeRecord(stream, row, binding);
+            stream.write(_newlineBytes);
+
+            rowCount++;
+            if( flushEveryRows > 0 && (rowCount == 1 || rowCount % flushEveryRows == 0) ) {
+                stream.flush();
+            }
+
+            if( !rows.hasNext() ) {
+                break;
+            }
+            row = rows.next();
+        }
+    }
+
+    /**
+     * <p>Writes the rows encoding them in parallel by the 
+     * {@link #getParallelPool()}. The rows are split into chunks of
+     * {@link #getParallelChunkRows()} rows, every chunk is encoded into its
+     * own buffer and the buffers are written to the stream in the order of
+     * the rows, at most {@link #getMaxBufferedChunks()} of them are in memory
+     * at a time.
+     * </p><p>
+     * The output is flushed after the first chunk and then after the chunk
+     * that crosses every {@code flushEveryRows} rows.
+     * </p>
+     * 
+     * @param stream  the stream to be used to output the rows
+     * @param rows  the rows, not empty
+     * @param flushEveryRows  number of rows between flushes, 0 to flush only full buffers
+     * @param projection  the columns to write, null for all of them
+     * @param rowClass  declared class of the rows, null if not known
+     * @throws IOException 
+     */
+    protected void writeRowsParallel(CsvByteEncoder stream, List rows, int flushEveryRows, CsvProjection projection, Class<?> rowClass) throws IOException {
+        if( _config.isWriteHeaders() ) {
+            final Object firstRow = rows.get(0);
+            if( firstRow == null && rowClass != null ) {
+                writeHeaders(rowClass, stream, projection);
+            } else {
+                writeHeaders(firstRow, stream, projection);
+            }
+        }
+
+        final ForkJoinPool pool = _parallelPool;
+        final int rowCount = rows.size();
+        final int chunkRows = Math.max(_parallelChunkRows, 1);
+        final int maxBufferedChunks = _maxBufferedChunks > 0 ? _maxBufferedChunks : 2 * pool.getParallelism();
+        final ArrayDeque<ChunkEncoder> chunks = new ArrayDeque<ChunkEncoder>();
+        int submittedRows = 0;
+        int writtenRows = 0;
+        try {
+            while( writtenRows < rowCount ) {
+                while( submittedRows < rowCount && chunks.size() < maxBufferedChunks ) {
+                    int toRow = (int)Math.min((long)submittedRows + chunkRows, rowCount);
+                    final ChunkEncoder chunkEncoder = new ChunkEncoder(rows, submittedRows, toRow, projection, rowClass);
+                    pool.submit(chunkEncoder);
+                    chunks.add(chunkEncoder);
+                    submittedRows = toRow;
+                }
+
+                final ChunkEncoder chunkEncoder = chunks.poll();
+                join(chunkEncoder).writeTo(stream);
+                stream.countRows(chunkEncoder.getEncoder());
+
+                final int previousRows = writtenRows;
+                writtenRows = (int)Math.min((long)writtenRows + chunkRows, rowCount);
+                if( flushEveryRows > 0 && (previousRows == 0 || writtenRows / flushEveryRows != previousRows / flushEveryRows) ) {
+                    stream.flush();
+                }
+            }
+        } finally {
+            for(ChunkEncoder chunk : chunks) { // only if failed
+                chunk.cancel(false);
+            }
+        }
+    }
+
+    private static ByteArrayOutputStream join(ForkJoinTask<ByteArrayOutputStream> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding rows in parallel");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if( cause instanceof UncheckedIOException ) {
+                throw ((UncheckedIOException)cause).getCause();
+            } else if( cause instanceof RuntimeException ) {
+                throw (RuntimeException)cause;
+            } else if( cause instanceof Error ) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Mappings pruned for a projection and the plans compiled for them.
+     */
+    private static final class ProjectedMappings {
+        private final ConcurrentMap<PojoAttributeMapping, PojoAttributeMapping> _mappings =
+                new ConcurrentHashMap<PojoAttributeMapping, PojoAttributeMapping>(); // mappings do not override equals
+        private final ConcurrentMap<Class<?>, Object> _rowPlans = new ConcurrentHashMap<Class<?>, Object>();
+    }
+
+    /**
+     * Encodes a range of rows into a buffer of its own.
+     */
+    private class ChunkEncoder extends RecursiveTask<ByteArrayOutputStream> {
+        private static final long serialVersionUID = 1L;
+
+        private final List _rows;
+        private final int _fromRow;
+        private final int _toRow;
+        private final CsvProjection _projection;
+        private final Class<?> _rowClass;
+        private CsvByteEncoder _encoder;
+
+        ChunkEncoder(List rows, int fromRow, int toRow, CsvProjection projection, Class<?> rowClass) {
+            _rows = rows;
+            _fromRow = fromRow;
+            _toRow = toRow;
+            _projection = projection;
+            _rowClass = rowClass;
+        }
+
+        @Override
+        protected ByteArrayOutputStream compute() {
+            final ByteArrayOutputStream chunk = new ByteArrayOutputStream(_bufferSize);
+            final CsvBufferPool bufferPool = _bufferPool;
+            final CsvByteEncoder stream = (bufferPool == null ? new CsvByteEncoder(chunk, _charset, _bufferSize)
+                    : new CsvByteEncoder(chunk, _charset, bufferPool));
+            _encoder = stream;
+            try {
+                final RowBinding binding = new RowBinding(_projection);
+                if( _rowClass != null ) {
+                    binding.bind(_rowClass);
+                }
+                for(int i = _fromRow; i < _toRow; i++) {
+                    writeRecord(stream, _rows.get(i), binding);
+                    stream.write(_newlineBytes);
+                }
+                stream.flushBuffer();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                stream.release();
+            }
+            return chunk;
+        }
+
+        /**
+         * @return   the encoder of the chunk, holding the counts of its rows once the chunk is done
+         */
+        CsvByteEncoder getEncoder() {
+            return _encoder;
+        }
+    }
+
+    /**
+     * <p>Mapping, plan and scratch slots of the class of the rows being
+     * written. The rows of a collection are mostly of a single class, the
+     * binding looks the mapping and the plan up only when the class of a
+     * row differs from the class of the previous one.
+     * </p><p>
+     * Not thread safe, used by a single serialization or a single chunk of
+     * the parallel one.
+     * </p>
+     */
+    protected final class RowBinding {
+        private final CsvProjection _projection;
+        private Class<?> _rowClass;
+        private PojoAttributeMapping _mapping;
+        private PojoRowPlan _rowPlan;
+        private Object[] _slots = NO_SLOTS;
+
+        /**
+         * @param projection  the columns to write, null for all of them
+         */
+        public RowBinding(CsvProjection projection) {
+            _projection = projection;
+        }
+
+        /**
+         * Binds to the class, unless already bound to it.
+         * 
+         * @param rowClass  class of the row
+         */
+        public void bind(Class<?> rowClass) {
+            if( rowClass == _rowClass ) {
+                return;
+            }
+            _mapping = PojoToCsvSerializer.this.getRowMapping(rowClass, _projection);
+            _rowPlan = PojoToCsvSerializer.this.getRowPlan(rowClass, _mapping, _projection);
+            if( _rowPlan != null && _slots.length < _rowPlan.getSlotCount() ) {
+                _slots = new Object[_rowPlan.getSlotCount()];
+            }
+            _rowClass = rowClass;
+        }
+
+        public CsvProjection getProjection() {
+            return _projection;
+        }
+
+        /**
+         * @return   the mapping of the bound class, null if its rows are written with toString
+         */
+        public PojoAttributeMapping getMapping() {
+            return _mapping;
+        }
+
+        /**
+         * @return   the plan of the bound class, null if its rows are written with the reflective path
+         */
+        public PojoRowPlan getRowPlan() {
+            return _rowPlan;
+        }
+
+        /**
+         * @return   scratch array of at least {@link PojoRowPlan#getSlotCount()} elements of the plan
+         */
+        public Object[] getSlots() {
+            return _slots;
+        }
+    }
+
+    /**
+     * Writes a single row (without the new line) using the compiled plan, if
+     * the class of the row has one, or the reflective path otherwise. A null 
+     * row is written as an empty line.
+     * 
+     * @param stream  the stream to be used to output the row
+     * @param row  the row object
+     * @param binding  binding of the rows, bound to the class of the row by this call
+     * @throws IOException 
+     */
+    protected void writeRecord(CsvByteEncoder stream, Object row, RowBinding binding) throws IOException {
+        if( row == null ) {
+            stream.countRow(null, false);
+            return;
+        }
+
+        binding.bind(row.getClass());
+        final PojoRowPlan rowPlan = binding.getRowPlan();
+        stream.countRow(row.getClass(), rowPlan != null);
+        if( rowPlan != null ) {
+            writeRow(stream, row, rowPlan, binding.getSlots());
+        } else {
+            writeContent(row, stream, false, binding.getMapping(), true);
+        }
+    }
+
+    /**
+     * Writes a single row using the compiled plan: loads nested objects into
+     * the slots and then writes the columns one after another.
+     * 
+     * @param stream  the stream to be used to output the row
+     * @param row  the row object
+     * @param rowPlan  compiled plan for the class of the row
+     * @param slots  scratch array of at least {@link PojoRowPlan#getSlotCount()} elements
+     * @throws IOException 
+     */
+    protected void writeRow(CsvByteEncoder stream, Object row, PojoRowPlan rowPlan, Object[] slots) throws IOException {
+        rowPlan.load(row, slots);
+
+        final PojoRowPlan.Column[] columns = rowPlan.getColumns();
+        for(int i = 0; i < columns.length; i++) {
+            if( i > 0 ) {
+                stream.write(_valueSeparatorBytes);
+            }
+
+            final PojoRowPlan.Segment[] segments = columns[i].getSegments();
+            if( segments.length == 1 ) {
+                writeValue(stream, segments[0], slots, true);
+            } else {
+                stream.write(_quoteBytes);
+                for(PojoRowPlan.Segment segment : segments) {
+                    writeValue(stream, segment, slots, false);
+                }
+                stream.write(_quoteBytes);
+            }
+        }
+    }
+
+    private void writeValue(CsvByteEncoder stream, PojoRowPlan.Segment segment, Object[] slots, boolean needQuotes) throws IOException {
+        final PropertyAccessor accessor = segment.getAccessor();
+        if( accessor != null && accessor.getKind() != PropertyAccessor.Kind.OBJECT ) {
+            final Object bean = slots[segment.getSlot()];
+            if( bean != null ) {
+                writePrimitive(stream, accessor, bean, needQuotes);
+            }
+            return;
+        }
+
+        Object value;
+        try {
+            value = segment.getValue(slots);
+        } catch (RuntimeException e) {
+            //                            logger.error("Exception", e);
+            return; // same as the reflective path - value of a failing getter is skipped
+        }
+
+        if( value != null ) { // missing value (or missing nested object) leaves the column empty
+            writeContent(value, stream, false, null, needQuotes);
+        }
+    }
+
+    /**
+     * Writes a property of a primitive type the same way {@link #write} 
+     * writes its boxed value, reading it unboxed and writing the digits 
+     * straight into the stream, so nothing is allocated.
+     */
+    private void writePrimitive(CsvByteEncoder stream, PropertyAccessor accessor, Object bean, boolean needQuotes) throws IOException {
+        final PropertyAccessor.Kind kind = accessor.getKind();
+        long longValue = 0;
+        double doubleValue = 0;
+        boolean booleanValue = false;
+        try {
+            if( kind == PropertyAccessor.Kind.INT ) {
+                longValue = accessor.getInt(bean);
+            } else if( kind == PropertyAccessor.Kind.LONG ) {
+                longValue = accessor.getLong(bean);
+            } else if( kind == PropertyAccessor.Kind.DOUBLE ) {
+                doubleValue = accessor.getDouble(bean);
+            } else {
+                booleanValue = accessor.getBoolean(bean);
+            }
+        } catch (RuntimeException e) {
+            //                            logger.error("Exception", e);
+            return; // same as the reflective path - value of a failing getter is skipped
+        }
+
+        final boolean quoted = needQuotes && _improveFormattingForExcel;
+        if( quoted ) {
+            // This is to avoid 'shrinking' numbers, like 9780077406691 being presented as 9.78008E+12
+            stream.write(_zeroPreserverBytes);
+            stream.write(_quoteBytes);
+        }
+        if( kind == PropertyAccessor.Kind.DOUBLE ) {
+            stream.writeDouble(doubleValue);
+        } else if( kind == PropertyAccessor.Kind.BOOLEAN ) {
+            stream.write(booleanValue ? _trueBytes : _falseBytes);
+        } else {
+            stream.writeLong(longValue);
+        }
+        if( quoted ) {
+            stream.write(_quoteBytes);
+        }
+    }
+
+    /**
+     * Output of the warm-up serializations.
+     */
+    private static final class DiscardingStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+        }
+    }
+
+    /**
+     * Exposes {@link CsvRowSource} as an {@link Iterator}, failures to read 
+     * the rows are rethrown as {@link UncheckedIOException}.
+     */
+    private static class RowSourceIterator implements Iterator {
+        private final CsvRowSource _rowSource;
+        private Object _next;
+
+        RowSourceIterator(CsvRowSource rowSource) {
+            _rowSource = rowSource;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if( _next == null ) {
+                try {
+                    _next = _rowSource.nextRow();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return _next != null;
+        }
+
+        @Override
+        public Object next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            Object next = _next;
+            _next = null;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+    }
+
     /**
      * <p>Wrapper class for an array object to expose {@link Iterator} on
      * top of the array, this way enabling iteration over the array 
@@ -313,7 +1361,9 @@ public class PojoToCsvSerializer {
      * The {@code remove} operation is not supported by the Iterator provided.
      * </p><p>
      * The object provided must be an array so that {@code obj.getClass().isArray()}
-     * returns true.
+     * returns true. Elements of the arrays of primitives are boxed, arrays of
+     * numbers and booleans written into a single field are written without
+     * the wrapper.
      * </p>
      */
     public static class IterableArray implements Iterable {
@@ -337,6 +1387,9 @@ public class PojoToCsvSerializer {
 
                 @Override
                 public Object next() {
+                    if( ar instanceof Object[] ) {
+                        return ((Object[])ar)[indx++];
+                    }
                     return Array.get(ar, indx++);
                 }
 
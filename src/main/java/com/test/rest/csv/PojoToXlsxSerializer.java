@@ -0,0 +1,496 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>
+ * Serializes objects into an Office Open XML workbook (xlsx) with a single
+ * sheet, using the same {@link CsvMapperConfig} mappings as the CSV.
+ * </p><p>
+ * The sheet XML is streamed row by row into its zip entry, there is no DOM
+ * and no shared strings table: texts are written as inline strings and
+ * numbers and booleans as typed cells, so the heap used does not depend on
+ * the number of rows. Integers are formatted with the {@code 0} number
+ * format, so long numbers (ISBNs and the like) are shown in full instead
+ * of in the scientific notation, integers of more than 15 digits (more
+ * than Excel keeps) and texts with leading zeros stay texts.
+ * </p><p>
+ * The rows are walked by {@link PojoToCsvSerializer}, so lazy sources,
+ * compiled row plans, projections, parallel encoding and metrics work the
+ * same way, only the rows are encoded as sheet rows. The XML is always
+ * UTF-8.
+ * </p>
+ *
+ * @author sergey
+ */
+public class PojoToXlsxSerializer extends PojoToCsvSerializer {
+    public static final String SHEET_NAME = "Sheet1";
+
+    private static final long MAX_EXACT_INTEGER = 999999999999999L; // 15 digits
+    private static final byte[] SHEET_START = bytes("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+    private static final byte[] SHEET_END = bytes("</sheetData></worksheet>");
+    private static final byte[] ROW_START = bytes("<row>");
+    private static final byte[] ROW_END = bytes("</row>");
+    private static final byte[] EMPTY_CELL = bytes("<c/>");
+    private static final byte[] STRING_CELL_START = bytes("<c t=\"inlineStr\"><is><t>");
+    private static final byte[] SPACED_STRING_CELL_START = bytes("<c t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+    private static final byte[] HEADER_CELL_START = bytes("<c s=\"2\" t=\"inlineStr\"><is><t>");
+    private static final byte[] STRING_CELL_END = bytes("</t></is></c>");
+    private static final byte[] NUMBER_CELL_START = bytes("<c><v>");
+    private static final byte[] INTEGER_CELL_START = bytes("<c s=\"1\"><v>");
+    private static final byte[] BOOLEAN_TRUE_CELL = bytes("<c t=\"b\"><v>1</v></c>");
+    private static final byte[] BOOLEAN_FALSE_CELL = bytes("<c t=\"b\"><v>0</v></c>");
+    private static final byte[] VALUE_CELL_END = bytes("</v></c>");
+    private static final byte[] AMP = bytes("&amp;");
+    private static final byte[] LT = bytes("&lt;");
+    private static final byte[] GT = bytes("&gt;");
+
+    private static final String CONTENT_TYPES = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+            + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+            + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+            + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+            + "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+            + "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>"
+            + "</Types>";
+    private static final String ROOT_RELATIONSHIPS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+            + "</Relationships>";
+    private static final String WORKBOOK = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\""
+            + " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+            + "<sheets><sheet name=\"" + SHEET_NAME + "\" sheetId=\"1\" r:id=\"rId1\"/></sheets></workbook>";
+    private static final String WORKBOOK_RELATIONSHIPS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+            + "<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>"
+            + "</Relationships>";
+    // cell formats: 0 - default, 1 - integer ("0"), 2 - bold header
+    private static final String STYLES = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+            + "<fonts count=\"2\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font>"
+            + "<font><b/><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>"
+            + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>"
+            + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+            + "<cellXfs count=\"3\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+            + "<xf numFmtId=\"1\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>"
+            + "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyFont=\"1\"/></cellXfs>"
+            + "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>"
+            + "</styleSheet>";
+
+    private int _compressionLevel = Deflater.BEST_SPEED;
+
+    public PojoToXlsxSerializer(CsvMapperConfig config) {
+        super(config);
+    }
+
+    public int getCompressionLevel() {
+        return _compressionLevel;
+    }
+
+    /**
+     * Sets the deflate level of the zip entries, the fastest by default:
+     * the sheet XML is repetitive enough to compress well anyway.
+     *
+     * @param compressionLevel  0-9
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        _compressionLevel = compressionLevel;
+    }
+
+    /**
+     * The XML is always written in UTF-8.
+     *
+     * @param charset  ignored
+     */
+    @Override
+    public void setCharset(Charset charset) {
+        super.setCharset(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the whole workbook, the stream is not closed.
+     */
+    @Override
+    public void serialize(Object obj, OutputStream outputStream, int flushEveryRows, CsvProjection projection, Class<?> rowClass) throws IOException {
+        final ZipOutputStream zip = new ZipOutputStream(new EntityStream(outputStream), StandardCharsets.UTF_8);
+        try {
+            zip.setLevel(_compressionLevel);
+            writeEntry(zip, "[Content_Types].xml", CONTENT_TYPES);
+            writeEntry(zip, "_rels/.rels", ROOT_RELATIONSHIPS);
+            writeEntry(zip, "xl/workbook.xml", WORKBOOK);
+            writeEntry(zip, "xl/_rels/workbook.xml.rels", WORKBOOK_RELATIONSHIPS);
+            writeEntry(zip, "xl/styles.xml", STYLES);
+
+            zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+            super.serialize(obj, zip, flushEveryRows, projection, rowClass);
+            zip.closeEntry();
+        } finally {
+            zip.close(); // releases the deflater, the entity stream stays open
+        }
+    }
+
+    /**
+     * Writes the whole workbook, the channel gets the compressed parts.
+     */
+    @Override
+    public void serialize(Object obj, WritableByteChannel channel, int flushEveryRows, CsvProjection projection, Class<?> rowClass) throws IOException {
+        serialize(obj, Channels.newOutputStream(channel), flushEveryRows, projection, rowClass);
+    }
+
+    private static void writeEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    @Override
+    protected void serialize(Object obj, CsvByteEncoder stream, int flushEveryRows, CsvProjection projection, Class<?> rowClass) throws IOException {
+        stream.write(SHEET_START);
+        super.serialize(obj, stream, flushEveryRows, projection, rowClass);
+        stream.write(SHEET_END);
+    }
+
+    /**
+     * Writes the header row, the headers are bold.
+     */
+    @Override
+    protected void writeHeaders(CsvByteEncoder stream, PojoAttributeMapping attributeMapping, byte[] div) throws IOException {
+        stream.write(ROW_START);
+        writeHeaderCells(stream, attributeMapping);
+        stream.write(ROW_END);
+    }
+
+    private void writeHeaderCells(CsvByteEncoder stream, PojoAttributeMapping attributeMapping) throws IOException {
+        for(PojoCsvAttribute pojoCsvAttribute : attributeMapping.getPojoAttributes()) {
+            final String csvHeaderName = pojoCsvAttribute.getCsvHeaderName();
+            if( csvHeaderName != null ) {
+                stream.write(HEADER_CELL_START);
+                writeXmlText(stream, csvHeaderName);
+                stream.write(STRING_CELL_END);
+            } else {
+                writeHeaderCells(stream, pojoCsvAttribute.getAttributeMapping());
+            }
+        }
+    }
+
+    /**
+     * Writes a single sheet row, using the compiled plan if the class of the
+     * row has one. The new line written after the row by the caller is
+     * insignificant white space between the rows.
+     */
+    @Override
+    protected void writeRecord(CsvByteEncoder stream, Object row, RowBinding binding) throws IOException {
+        stream.write(ROW_START);
+        if( row == null ) {
+            stream.countRow(null, false);
+            stream.write(ROW_END);
+            return;
+        }
+
+        binding.bind(row.getClass());
+        final PojoAttributeMapping mapping = binding.getMapping();
+        final PojoRowPlan rowPlan = binding.getRowPlan();
+        stream.countRow(row.getClass(), rowPlan != null);
+        if( rowPlan != null ) {
+            writeCells(stream, row, rowPlan, binding.getSlots());
+        } else if( mapping == null || getConfig().needsToString(row.getClass()) ) {
+            writeCell(stream, row);
+        } else {
+            writeCells(stream, row, mapping);
+        }
+        stream.write(ROW_END);
+    }
+
+    private void writeCells(CsvByteEncoder stream, Object row, PojoRowPlan rowPlan, Object[] slots) throws IOException {
+        rowPlan.load(row, slots);
+        for(PojoRowPlan.Column column : rowPlan.getColumns()) {
+            final PojoRowPlan.Segment[] segments = column.getSegments();
+            final PropertyAccessor accessor = segments[0].getAccessor();
+            if( segments.length == 1 && accessor != null && accessor.getKind() != PropertyAccessor.Kind.OBJECT ) {
+                writePrimitiveCell(stream, accessor, slots[segments[0].getSlot()]);
+            } else if( segments.length == 1 ) {
+                writeCell(stream, getValue(segments[0], slots));
+            } else {
+                final StringBuilder text = new StringBuilder();
+                for(PojoRowPlan.Segment segment : segments) {
+                    appendText(text, getValue(segment, slots), null, 0);
+                }
+                writeStringCell(stream, text);
+            }
+        }
+    }
+
+    /**
+     * Writes a typed cell of a property of a primitive type, reading it
+     * unboxed, so nothing is allocated.
+     */
+    private void writePrimitiveCell(CsvByteEncoder stream, PropertyAccessor accessor, Object bean) throws IOException {
+        if( bean == null ) {
+            stream.write(EMPTY_CELL);
+            return;
+        }
+
+        final PropertyAccessor.Kind kind = accessor.getKind();
+        try {
+            if( kind == PropertyAccessor.Kind.BOOLEAN ) {
+                stream.write(accessor.getBoolean(bean) ? BOOLEAN_TRUE_CELL : BOOLEAN_FALSE_CELL);
+            } else if( kind == PropertyAccessor.Kind.DOUBLE ) {
+                final double value = accessor.getDouble(bean);
+                if( Double.isNaN(value) || Double.isInfinite(value) ) {
+                    writeStringCell(stream, Double.toString(value));
+                } else {
+                    stream.write(NUMBER_CELL_START);
+                    stream.writeDouble(value);
+                    stream.write(VALUE_CELL_END);
+                }
+            } else {
+                final long value = (kind == PropertyAccessor.Kind.INT ? accessor.getInt(bean) : accessor.getLong(bean));
+                if( value > MAX_EXACT_INTEGER || value < -MAX_EXACT_INTEGER ) {
+                    writeStringCell(stream, Long.toString(value));
+                } else {
+                    stream.write(INTEGER_CELL_START);
+                    stream.writeLong(value);
+                    stream.write(VALUE_CELL_END);
+                }
+            }
+        } catch (RuntimeException e) {
+            stream.write(EMPTY_CELL); // same as the CSV - value of a failing getter is skipped
+        }
+    }
+
+    private static Object getValue(PojoRowPlan.Segment segment, Object[] slots) {
+        try {
+            return segment.getValue(slots);
+        } catch (RuntimeException e) {
+            return null; // same as the CSV - value of a failing getter is skipped
+        }
+    }
+
+    /**
+     * The reflective path: a cell per column of the mapping, nested objects
+     * are flattened out.
+     */
+    private void writeCells(CsvByteEncoder stream, Object bean, PojoAttributeMapping mapping) throws IOException {
+        final PojoGetterBinding getterBinding = mapping.getGetterBinding(bean.getClass());
+        final PojoCsvAttribute[] attributes = getterBinding.getAttributes();
+        for(int attributeIndex = 0; attributeIndex < attributes.length; attributeIndex++) {
+            final Object[] getters = getterBinding.getGetters(attributeIndex);
+            final PojoAttributeMapping childMapping = attributes[attributeIndex].getAttributeMapping();
+            if( childMapping != null ) {
+                final Object child = invoke(getters[0], bean);
+                if( child == null || getConfig().needsToString(child.getClass()) ) {
+                    writeCell(stream, child); // in the first column, as the CSV does
+                    writeEmptyCells(stream, childMapping, 1);
+                } else {
+                    writeCells(stream, child, childMapping);
+                }
+            } else if( getters.length == 1 ) {
+                writeCell(stream, invoke(getters[0], bean));
+            } else {
+                final StringBuilder text = new StringBuilder();
+                for(Object getter : getters) {
+                    appendText(text, invoke(getter, bean), null, 0);
+                }
+                writeStringCell(stream, text);
+            }
+        }
+    }
+
+    private static Object invoke(Object getter, Object bean) {
+        if( !(getter instanceof Method) ) {
+            return getter; // fixed value
+        }
+        try {
+            return ((Method)getter).invoke(bean);
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes empty cells for the columns of the mapping, but the first
+     * {@code skip} ones.
+     */
+    private void writeEmptyCells(CsvByteEncoder stream, PojoAttributeMapping mapping, int skip) throws IOException {
+        for(int i = mapping.getColumnCount(); i > skip; i--) {
+            stream.write(EMPTY_CELL);
+        }
+    }
+
+    /**
+     * Writes a typed cell: numbers and booleans as values, everything else
+     * as an inline string.
+     *
+     * @param stream  the stream to write to
+     * @param value  the value of the cell, null for an empty cell
+     * @throws IOException
+     */
+    protected void writeCell(CsvByteEncoder stream, Object value) throws IOException {
+        if( value == null ) {
+            stream.write(EMPTY_CELL);
+        } else if( value instanceof String ) {
+            writeStringCell(stream, (String)value);
+        } else if( value instanceof Boolean ) {
+            stream.write((Boolean)value ? BOOLEAN_TRUE_CELL : BOOLEAN_FALSE_CELL);
+        } else if( value instanceof Number ) {
+            writeNumberCell(stream, (Number)value);
+        } else {
+            final StringBuilder text = new StringBuilder();
+            appendText(text, value, null, 0);
+            writeStringCell(stream, text);
+        }
+    }
+
+    private void writeNumberCell(CsvByteEncoder stream, Number value) throws IOException {
+        if( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicInteger || value instanceof AtomicLong ) {
+            final long number = value.longValue();
+            if( number > MAX_EXACT_INTEGER || number < -MAX_EXACT_INTEGER ) {
+                writeStringCell(stream, value.toString());
+            } else {
+                stream.write(INTEGER_CELL_START);
+                stream.writeLong(number);
+                stream.write(VALUE_CELL_END);
+            }
+        } else if( value instanceof BigInteger ) {
+            writeStringCell(stream, value.toString()); // mostly longer than Excel keeps
+        } else if( value instanceof BigDecimal || (!Double.isNaN(value.doubleValue()) && !Double.isInfinite(value.doubleValue())) ) {
+            stream.write(NUMBER_CELL_START);
+            stream.writeText(value.toString());
+            stream.write(VALUE_CELL_END);
+        } else {
+            writeStringCell(stream, value.toString()); // NaN, Infinity
+        }
+    }
+
+    private void writeStringCell(CsvByteEncoder stream, CharSequence text) throws IOException {
+        final int length = text.length();
+        final boolean spaced = length > 0 && (Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(length - 1)));
+        stream.write(spaced ? SPACED_STRING_CELL_START : STRING_CELL_START);
+        writeXmlText(stream, text);
+        stream.write(STRING_CELL_END);
+    }
+
+    /**
+     * Appends the text of a value the way the CSV writes it into a single
+     * field: collections are separated by commas, objects with a mapping
+     * are flattened out, {@link CsvMapperConfig#getMaxPojoDepth()} levels deep.
+     */
+    private void appendText(StringBuilder text, Object value, PojoAttributeMapping mapping, int depth) {
+        if( value == null ) {
+            return;
+        }
+        if( value.getClass().isArray() ) {
+            value = new IterableArray(value);
+        }
+
+        if( value instanceof Iterable ) {
+            String div = "";
+            for(Object item : (Iterable)value) {
+                text.append(div);
+                appendText(text, item, mapping == null && item != null && depth < getConfig().getMaxPojoDepth() ?
+                        getConfig().getAttributeMapping(item.getClass()) : mapping, depth + 1);
+                div = SPACED_VALUE_SEPARATOR;
+            }
+        } else if( mapping == null || value instanceof Boolean || value instanceof Number || value instanceof String
+                || getConfig().needsToString(value.getClass()) ) {
+            text.append(value);
+        } else {
+            final PojoGetterBinding getterBinding = mapping.getGetterBinding(value.getClass());
+            final PojoCsvAttribute[] attributes = getterBinding.getAttributes();
+            for(int attributeIndex = 0; attributeIndex < attributes.length; attributeIndex++) {
+                if( attributeIndex > 0 ) {
+                    text.append(VALUE_SEPARATOR);
+                }
+                for(Object getter : getterBinding.getGetters(attributeIndex)) {
+                    appendText(text, invoke(getter, value), attributes[attributeIndex].getAttributeMapping(), depth + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the text escaping the XML markup, characters not allowed in
+     * XML (control characters but tabs and new lines) are left out.
+     *
+     * @param stream  the stream to write to
+     * @param text  the text
+     * @throws IOException
+     */
+    protected static void writeXmlText(CsvByteEncoder stream, CharSequence text) throws IOException {
+        final int length = text.length();
+        int start = 0;
+        for(int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if( c == '&' || c == '<' || c == '>' || (c < 0x20 && c != '\t' && c != '\n' && c != '\r') || c == 0xFFFE || c == 0xFFFF ) {
+                stream.writeText(text, start, i);
+                if( c == '&' ) {
+                    stream.write(AMP);
+                } else if( c == '<' ) {
+                    stream.write(LT);
+                } else if( c == '>' ) {
+                    stream.write(GT);
+                }
+                start = i + 1;
+            }
+        }
+        stream.writeText(text, start, length);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Passes everything to the entity stream, but does not close it: the
+     * zip stream is closed to release its deflater.
+     */
+    private static final class EntityStream extends OutputStream {
+        private final OutputStream _out;
+
+        EntityStream(OutputStream out) {
+            _out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            _out.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            _out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _out.flush();
+        }
+    }
+}
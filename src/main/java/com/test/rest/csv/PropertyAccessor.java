@@ -0,0 +1,372 @@
+package com.test.rest.csv;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * <p>
+ * Reads a single bean property value. Instances are created once per
+ * getter (see {@link #forGetter(Method)}) and are bound into a
+ * {@link PojoRowPlan}, so reading a value does not go through
+ * {@code Method.invoke}.
+ * </p><p>
+ * Properties of the primitive types (see {@link #getKind()}) can also be
+ * read unboxed, with {@link #getInt(Object)}, {@link #getLong(Object)},
+ * {@link #getDouble(Object)} and {@link #getBoolean(Object)}, so writing
+ * them allocates nothing.
+ * </p>
+ *
+ * @author sergey
+ */
+public abstract class PropertyAccessor {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Type of the property value, as far as reading it unboxed is concerned.
+     */
+    public enum Kind {
+        /** any reference type, also {@code char} and {@code float} */
+        OBJECT,
+        /** {@code int}, {@code short} or {@code byte} */
+        INT,
+        LONG,
+        DOUBLE,
+        BOOLEAN
+    }
+
+    private final Method _method;
+    private final Kind _kind;
+
+    protected PropertyAccessor(Method method) {
+        _method = method;
+        _kind = getKind(method.getReturnType());
+    }
+
+    /**
+     * Returns the property value of the bean.
+     *
+     * @param bean  bean to read the value from, never null
+     * @return   the property value (primitives are boxed)
+     */
+    public abstract Object get(Object bean);
+
+    /**
+     * Returns the value of an {@link Kind#INT} property, without boxing it.
+     *
+     * @param bean  bean to read the value from, never null
+     * @return   the property value
+     */
+    public int getInt(Object bean) {
+        return ((Number)get(bean)).intValue();
+    }
+
+    /**
+     * Returns the value of a {@link Kind#LONG} property, without boxing it.
+     *
+     * @param bean  bean to read the value from, never null
+     * @return   the property value
+     */
+    public long getLong(Object bean) {
+        return ((Number)get(bean)).longValue();
+    }
+
+    /**
+     * Returns the value of a {@link Kind#DOUBLE} property, without boxing it.
+     *
+     * @param bean  bean to read the value from, never null
+     * @return   the property value
+     */
+    public double getDouble(Object bean) {
+        return ((Number)get(bean)).doubleValue();
+    }
+
+    /**
+     * Returns the value of a {@link Kind#BOOLEAN} property, without boxing it.
+     *
+     * @param bean  bean to read the value from, never null
+     * @return   the property value
+     */
+    public boolean getBoolean(Object bean) {
+        return (Boolean)get(bean);
+    }
+
+    /**
+     * Kind of the property: tells which of the unboxed getters can be used.
+     *
+     * @return   the kind
+     */
+    public Kind getKind() {
+        return _kind;
+    }
+
+    /**
+     * Returns the getter method the accessor reads.
+     *
+     * @return   the getter method
+     */
+    public Method getMethod() {
+        return _method;
+    }
+
+    /**
+     * Declared type of the property.
+     *
+     * @return   getter return type
+     */
+    public Class<?> getType() {
+        return _method.getReturnType();
+    }
+
+    /**
+     * <p>Creates an accessor for the getter.
+     * </p><p>
+     * The accessor is spun by {@link LambdaMetafactory}, so once it is hot
+     * the call is as cheap as a direct call to the getter. Getters of the
+     * primitive types are spun with the primitive return type, so the
+     * unboxed getters of the accessor do not box. If the getter can
+     * not be linked that way (i.e. it is declared by a non public class), a
+     * {@link MethodHandle} is used, and if even that fails the plain reflective
+     * call.
+     * </p>
+     *
+     * @param getter  a public no argument method
+     * @return   accessor calling the getter
+     */
+    public static PropertyAccessor forGetter(Method getter) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflect(getter);
+        } catch (IllegalAccessException e) {
+            return new ReflectiveAccessor(getter);
+        }
+
+        try {
+            switch( getKind(getter.getReturnType()) ) {
+                case INT:
+                    return new IntAccessor(getter, (IntGetter)spin(lookup, handle, getter, IntGetter.class, int.class));
+                case LONG:
+                    return new LongAccessor(getter, (LongGetter)spin(lookup, handle, getter, LongGetter.class, long.class));
+                case DOUBLE:
+                    return new DoubleAccessor(getter, (DoubleGetter)spin(lookup, handle, getter, DoubleGetter.class, double.class));
+                case BOOLEAN:
+                    return new BooleanAccessor(getter, (BooleanGetter)spin(lookup, handle, getter, BooleanGetter.class, boolean.class));
+                default:
+                    return new LambdaAccessor(getter, (Getter)spin(lookup, handle, getter, Getter.class, Object.class));
+            }
+        } catch (Throwable e) {
+            return new HandleAccessor(getter, handle.asType(GETTER_TYPE));
+        }
+    }
+
+    /**
+     * Spins an implementation of the getter interface, which has a single
+     * {@code get(Object)} method returning the value type.
+     */
+    private static Object spin(MethodHandles.Lookup lookup, MethodHandle handle, Method getter,
+            Class<?> getterInterface, Class<?> valueType) throws Throwable {
+        final Class<?> returnType = (valueType == Object.class ? boxed(getter.getReturnType()) : getter.getReturnType());
+        CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                MethodType.methodType(getterInterface),
+                MethodType.methodType(valueType, Object.class),
+                handle,
+                MethodType.methodType(returnType, getter.getDeclaringClass()));
+        return site.getTarget().invoke();
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    private static Kind getKind(Class<?> type) {
+        if( type == int.class || type == short.class || type == byte.class ) {
+            return Kind.INT;
+        } else if( type == long.class ) {
+            return Kind.LONG;
+        } else if( type == double.class ) {
+            return Kind.DOUBLE;
+        } else if( type == boolean.class ) {
+            return Kind.BOOLEAN;
+        }
+        return Kind.OBJECT; // float is written as a float, not as the double it widens to
+    }
+
+    @Override
+    public String toString() {
+        return _method.toString();
+    }
+
+    /**
+     * Functional interface implemented by {@link LambdaMetafactory}.
+     */
+    public interface Getter {
+        Object get(Object bean);
+    }
+
+    /**
+     * Functional interface of the {@code int} getters.
+     */
+    public interface IntGetter {
+        int get(Object bean);
+    }
+
+    /**
+     * Functional interface of the {@code long} getters.
+     */
+    public interface LongGetter {
+        long get(Object bean);
+    }
+
+    /**
+     * Functional interface of the {@code double} getters.
+     */
+    public interface DoubleGetter {
+        double get(Object bean);
+    }
+
+    /**
+     * Functional interface of the {@code boolean} getters.
+     */
+    public interface BooleanGetter {
+        boolean get(Object bean);
+    }
+
+    private static final class LambdaAccessor extends PropertyAccessor {
+        private final Getter _getter;
+
+        LambdaAccessor(Method method, Getter getter) {
+            super(method);
+            _getter = getter;
+        }
+
+        @Override
+        public Object get(Object bean) {
+            return _getter.get(bean);
+        }
+    }
+
+    private static final class IntAccessor extends PropertyAccessor {
+        private final IntGetter _getter;
+
+        IntAccessor(Method method, IntGetter getter) {
+            super(method);
+            _getter = getter;
+        }
+
+        @Override
+        public Object get(Object bean) {
+            final int value = _getter.get(bean);
+            final Class<?> type = getType();
+            if( type == short.class ) {
+                return (short)value;
+            }
+            return type == byte.class ? (Object)(byte)value : (Object)value;
+        }
+
+        @Override
+        public int getInt(Object bean) {
+            return _getter.get(bean);
+        }
+    }
+
+    private static final class LongAccessor extends PropertyAccessor {
+        private final LongGetter _getter;
+
+        LongAccessor(Method method, LongGetter getter) {
+            super(method);
+            _getter = getter;
+        }
+
+        @Override
+        public Object get(Object bean) {
+            return _getter.get(bean);
+        }
+
+        @Override
+        public long getLong(Object bean) {
+            return _getter.get(bean);
+        }
+    }
+
+    private static final class DoubleAccessor extends PropertyAccessor {
+        private final DoubleGetter _getter;
+
+        DoubleAccessor(Method method, DoubleGetter getter) {
+            super(method);
+            _getter = getter;
+        }
+
+        @Override
+        public Object get(Object bean) {
+            return _getter.get(bean);
+        }
+
+        @Override
+        public double getDouble(Object bean) {
+            return _getter.get(bean);
+        }
+    }
+
+    private static final class BooleanAccessor extends PropertyAccessor {
+        private final BooleanGetter _getter;
+
+        BooleanAccessor(Method method, BooleanGetter getter) {
+            super(method);
+            _getter = getter;
+        }
+
+        @Override
+        public Object get(Object bean) {
+            return _getter.get(bean);
+        }
+
+        @Override
+        public boolean getBoolean(Object bean) {
+            return _getter.get(bean);
+        }
+    }
+
+    private static final class HandleAccessor extends PropertyAccessor {
+        private final MethodHandle _handle;
+
+        HandleAccessor(Method method, MethodHandle handle) {
+            super(method);
+            _handle = handle;
+        }
+
+        @Override
+        public Object get(Object bean) {
+            try {
+                return _handle.invokeExact(bean);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Getter " + getMethod() + " failed", e);
+            }
+        }
+    }
+
+    private static final class ReflectiveAccessor extends PropertyAccessor {
+        ReflectiveAccessor(Method method) {
+            super(method);
+        }
+
+        @Override
+        public Object get(Object bean) {
+            try {
+                return getMethod().invoke(bean);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Getter " + getMethod() + " is not accessible", e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Getter " + getMethod() + " failed", e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.test.rest.csv;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * <p>
+ * Sets a single bean property from a CSV text value, the reverse of
+ * {@link PropertyAccessor}. Instances are created once per setter (see
+ * {@link #forSetter(Method)}) and are bound into a {@link PojoRowReader}.
+ * </p><p>
+ * The text is converted to the setter parameter type: primitives and their
+ * wrappers, {@link BigDecimal}, {@link BigInteger}, enums (by name) and any
+ * class with a public static {@code valueOf(String)} method or a public
+ * {@code String} constructor.
+ * </p>
+ *
+ * @author sergey
+ */
+public abstract class PropertyWriter {
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONVERTER_TYPE = MethodType.methodType(Object.class, String.class);
+
+    private final Method _method;
+    private final Class<?> _type;
+    private final MethodHandle _converter;
+    private final boolean _convertible;
+
+    protected PropertyWriter(Method method) {
+        _method = method;
+        _type = method.getParameterTypes()[0];
+        MethodHandle converter = null;
+        boolean convertible = true;
+        try {
+            converter = converterFor(MethodType.methodType(_type).wrap().returnType());
+        } catch (IllegalArgumentException e) {
+            convertible = false;
+        }
+        _converter = converter;
+        _convertible = convertible;
+    }
+
+    /**
+     * Sets the property value of the bean.
+     *
+     * @param bean  bean to set the value on, never null
+     * @param value  the value, of the property type (primitives are boxed)
+     */
+    public abstract void set(Object bean, Object value);
+
+    /**
+     * Converts the text to the property type and sets it.
+     *
+     * @param bean  bean to set the value on, never null
+     * @param text  the CSV value
+     * @throws IllegalArgumentException if the text can't be converted to the property type
+     */
+    public void setText(Object bean, String text) {
+        set(bean, convert(text));
+    }
+
+    /**
+     * Converts the text to the property type.
+     *
+     * @param text  the CSV value
+     * @return   the converted value
+     * @throws IllegalArgumentException if the text can't be converted to the property type
+     */
+    public Object convert(String text) {
+        if( !_convertible ) {
+            throw new IllegalArgumentException("Don't know how to convert CSV text to " + _type.getName() + " for " + _method.getName());
+        }
+        if( _converter == null ) {
+            return text;
+        }
+        try {
+            return (Object)_converter.invokeExact(text.trim());
+        } catch (IllegalArgumentException e) { // includes NumberFormatException
+            throw new IllegalArgumentException("'" + text + "' is not a valid " + _type.getSimpleName() + " value for " + _method.getName(), e);
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("'" + text + "' can't be converted to " + _type.getName() + " for " + _method.getName(), e);
+        }
+    }
+
+    /**
+     * Checks if the property can be set from a text, see {@link #convert(String)}.
+     *
+     * @return   true if the text can be converted to the property type
+     */
+    public boolean isConvertible() {
+        return _convertible;
+    }
+
+    /**
+     * Returns the setter method the writer calls.
+     *
+     * @return   the setter method
+     */
+    public Method getMethod() {
+        return _method;
+    }
+
+    /**
+     * Declared type of the property.
+     *
+     * @return   setter parameter type
+     */
+    public Class<?> getType() {
+        return _type;
+    }
+
+    /**
+     * <p>Creates a writer for the setter.
+     * </p><p>
+     * The setter is called through a {@link MethodHandle}, if it can not be
+     * linked that way (i.e. it is declared by a non public class), the plain
+     * reflective call is used.
+     * </p>
+     *
+     * @param setter  a public single argument method
+     * @return   writer calling the setter
+     */
+    public static PropertyWriter forSetter(Method setter) {
+        try {
+            return new HandleWriter(setter, MethodHandles.lookup().unreflect(setter).asType(SETTER_TYPE));
+        } catch (IllegalAccessException e) {
+            return new ReflectiveWriter(setter);
+        }
+    }
+
+    /**
+     * Finds a public setter for the attribute. If there are several setters
+     * of the same name, the one taking the preferred type is used.
+     *
+     * @param objectClass  class to find the setter in
+     * @param attributeName  bean property name
+     * @param preferredType  type of the property getter, can be null
+     * @return   the setter or null if there is no setter
+     */
+    static Method resolveSetter(Class<?> objectClass, String attributeName, Class<?> preferredType) {
+        final String name = "set" + attributeName.substring(0,1).toUpperCase() + attributeName.substring(1);
+        Method found = null;
+        for(Method method : objectClass.getMethods()) {
+            if( method.getParameterTypes().length == 1 && method.getName().equals(name) ) {
+                if( method.getParameterTypes()[0] == preferredType ) {
+                    return method;
+                }
+                found = method;
+            }
+        }
+        return found;
+    }
+
+    private static MethodHandle converterFor(Class<?> type) {
+        if( type == String.class || type == Object.class || type == CharSequence.class ) {
+            return null;
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            if( type == Character.class ) {
+                return lookup.findStatic(PropertyWriter.class, "toCharacter", MethodType.methodType(Character.class, String.class))
+                        .asType(CONVERTER_TYPE);
+            }
+            if( type == Boolean.class ) {
+                return lookup.findStatic(PropertyWriter.class, "toBoolean", MethodType.methodType(Boolean.class, String.class))
+                        .asType(CONVERTER_TYPE);
+            }
+            if( type.isEnum() ) {
+                return MethodHandles.insertArguments(
+                        lookup.findStatic(Enum.class, "valueOf", MethodType.methodType(Enum.class, Class.class, String.class)), 0, type)
+                        .asType(CONVERTER_TYPE);
+            }
+            try {
+                return lookup.findStatic(type, "valueOf", MethodType.methodType(type, String.class)).asType(CONVERTER_TYPE);
+            } catch (NoSuchMethodException e) {
+                return lookup.findConstructor(type, MethodType.methodType(void.class, String.class)).asType(CONVERTER_TYPE);
+            }
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Don't know how to convert CSV text to " + type.getName());
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Don't know how to convert CSV text to " + type.getName(), e);
+        }
+    }
+
+    public static Character toCharacter(String text) {
+        if( text.length() != 1 ) {
+            throw new IllegalArgumentException("Single character expected");
+        }
+        return text.charAt(0);
+    }
+
+    public static Boolean toBoolean(String text) {
+        if( "true".equalsIgnoreCase(text) ) {
+            return Boolean.TRUE;
+        } else if( "false".equalsIgnoreCase(text) ) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException("true or false expected");
+    }
+
+    @Override
+    public String toString() {
+        return _method.toString();
+    }
+
+    private static final class HandleWriter extends PropertyWriter {
+        private final MethodHandle _handle;
+
+        HandleWriter(Method method, MethodHandle handle) {
+            super(method);
+            _handle = handle;
+        }
+
+        @Override
+        public void set(Object bean, Object value) {
+            try {
+                _handle.invokeExact(bean, value);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Setter " + getMethod() + " failed", e);
+            }
+        }
+    }
+
+    private static final class ReflectiveWriter extends PropertyWriter {
+        ReflectiveWriter(Method method) {
+            super(method);
+        }
+
+        @Override
+        public void set(Object bean, Object value) {
+            try {
+                getMethod().invoke(bean, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Setter " + getMethod() + " is not accessible", e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Setter " + getMethod() + " failed", e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.test.rest.csv;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.core.EntityTag;
+
+/**
+ * <p>
+ * Entity whose encoded CSV can be cached: the rows together with their
+ * version, i.e. a last modification counter or a fingerprint of the data.
+ * </p><p>
+ * A resource returns the rows wrapped into this entity to opt in for the
+ * {@link EncodedResponseCache}. The same version must always mean the same
+ * rows, the cached bytes are served for the version without looking at the
+ * rows. The version is also sent as the {@code ETag}, so clients polling
+ * with {@code If-None-Match} get 304 Not Modified while the version does
+ * not change (see {@link VersionedCsvEntityFilter}).
+ * </p><p>
+ * Responses served without writing the rows (304, cached or stored bytes)
+ * {@link #close()} the rows, so the streams and row sources holding
+ * resources are released as if they were written.
+ * </p>
+ *
+ * @author sergey
+ */
+public final class VersionedCsvEntity {
+    private static final Logger LOGGER = Logger.getLogger(VersionedCsvEntity.class.getName());
+
+    private final Object _entity;
+    private final String _version;
+
+    /**
+     * @param entity  the rows, anything that can be returned as a CSV entity
+     * @param version  version of the rows
+     */
+    public VersionedCsvEntity(Object entity, String version) {
+        if( version == null ) {
+            throw new IllegalArgumentException("Version is required");
+        }
+        _entity = entity;
+        _version = version;
+    }
+
+    public Object getEntity() {
+        return _entity;
+    }
+
+    public String getVersion() {
+        return _version;
+    }
+
+    /**
+     * Returns the entity tag of the rows encoded for the media type.
+     *
+     * @param excel  true for the Excel flavor of the CSV
+     * @return   the entity tag
+     */
+    public EntityTag getEntityTag(boolean excel) {
+        return getEntityTag(excel ? "xls" : "csv");
+    }
+
+    /**
+     * Returns the entity tag of the rows encoded in the format.
+     *
+     * @param format  the format, e.g. {@code csv}, {@code xls} or {@code xlsx}
+     * @return   the entity tag
+     */
+    public EntityTag getEntityTag(String format) {
+        return new EntityTag(_version + "-" + format);
+    }
+
+    /**
+     * Returns the entity tag of the rows encoded in the format with the
+     * content coding, every coding is a different sequence of bytes.
+     *
+     * @param format  the format, e.g. {@code csv}, {@code xls} or {@code xlsx}
+     * @param contentEncoding  content encoding of the response, null if not compressed
+     * @return   the entity tag
+     */
+    public EntityTag getEntityTag(String format, String contentEncoding) {
+        return getEntityTag(contentEncoding == null ? format : format + "-" + contentEncoding);
+    }
+
+    /**
+     * Closes the rows if they hold resources (streams and row sources),
+     * for the responses that don't write them.
+     */
+    public void close() {
+        if( _entity instanceof AutoCloseable ) {
+            try {
+                ((AutoCloseable)_entity).close();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to close rows of " + _version, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "{" + _version + ":" + _entity + "}";
+    }
+}
@@ -0,0 +1,77 @@
+package com.test.rest.csv;
+
+import java.io.IOException;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.Providers;
+
+/**
+ * <p>
+ * Executes on the responses with a {@link VersionedCsvEntity}.
+ * </p><p>
+ * Sets the {@code ETag} of the entity and, if the client already has the
+ * version ({@code If-None-Match}), replaces the response with 304 Not
+ * Modified, so the entity is not written at all (its rows are closed).
+ * </p><p>
+ * The tag is of the encoded bytes: the format and the content coding the
+ * {@link CsvObjectMapperProvider} compresses the response with are part
+ * of it.
+ * </p>
+ *
+ * @author sergey
+ */
+@Provider
+public class VersionedCsvEntityFilter implements ContainerResponseFilter {
+
+    @Context
+    private Providers _providers;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        final Object entity = responseContext.getEntity();
+        final int status = responseContext.getStatus();
+        if( !(entity instanceof VersionedCsvEntity)
+                || (status != Response.Status.OK.getStatusCode() && status != Response.Status.PARTIAL_CONTENT.getStatusCode()) ) { // a range of the rows, see CsvRowRangeFilter
+            return;
+        }
+
+        final MediaType mediaType = responseContext.getMediaType();
+        final Object dialect = requestContext.getProperty(CsvDialect.PROPERTY_NAME);
+        final EntityTag entityTag = ((VersionedCsvEntity)entity).getEntityTag(CsvObjectMapperProvider.getFormat(mediaType,
+                dialect instanceof CsvDialect ? (CsvDialect)dialect : null),
+                getContentEncoding(mediaType, requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING)));
+        responseContext.getHeaders().putSingle(HttpHeaders.ETAG, entityTag);
+
+        final String method = requestContext.getMethod();
+        if( !HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method) ) {
+            return;
+        }
+        final Response.ResponseBuilder preconditionFailed = requestContext.getRequest().evaluatePreconditions(entityTag);
+        if( preconditionFailed != null
+                && preconditionFailed.build().getStatus() == Response.Status.NOT_MODIFIED.getStatusCode() ) {
+            responseContext.setStatus(Response.Status.NOT_MODIFIED.getStatusCode());
+            ((VersionedCsvEntity)entity).close(); // not written
+            responseContext.setEntity(null);
+            responseContext.getHeaders().remove(HttpHeaders.CONTENT_TYPE);
+            responseContext.getHeaders().remove(CsvRowRange.CONTENT_RANGE);
+        }
+    }
+
+    private String getContentEncoding(MediaType mediaType, String acceptEncoding) {
+        if( _providers == null || mediaType == null ) {
+            return null;
+        }
+        MessageBodyWriter<Object> csvWriter = _providers.getMessageBodyWriter(Object.class, Object.class, null, mediaType);
+        return csvWriter instanceof CsvObjectMapperProvider ?
+                ((CsvObjectMapperProvider)csvWriter).getContentEncoding(mediaType, acceptEncoding) : null;
+    }
+}